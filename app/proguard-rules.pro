@@ -15,3 +15,6 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# Glide finds its module by reflection, by the name in the manifest
+-keep public class * implements com.bumptech.glide.module.GlideModule
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+/*
+    Checks that DisplayFormatter hands out the same strings the plain formats give, that it
+    follows locale and units changes, and that formatting a value it has seen allocates
+    nothing.  The allocation count per formatted value goes to logcat under this class' tag.
+ */
+public class TestDisplayFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDisplayFormatter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int VALUES = 1000;
+
+    private DisplayFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFormatter = DisplayFormatter.get(mContext);
+    }
+
+    public void testTemperaturesMatchTheFormat() {
+        String format = mContext.getString(R.string.format_temperature);
+        double[] temperatures = {0, 0.4, 0.5, -0.3, -0.5, -0.6, 2.5, -2.5, 21.49, 21.5,
+                -129.6, 139.4, 140.5, -200, 1000, -0.0, Double.NaN};
+        for (double temperature : temperatures) {
+            // Twice, so the second comes from the table
+            for (int i = 0; i < 2; i++) {
+                assertEquals("Error: " + temperature + " formatted wrongly",
+                        String.format(format, temperature),
+                        mFormatter.formatTemperature(temperature));
+            }
+        }
+    }
+
+    public void testDayLabels() {
+        long now = System.currentTimeMillis();
+        assertEquals(mContext.getString(R.string.today), mFormatter.getDayName(now));
+        assertEquals(mContext.getString(R.string.tomorrow),
+                mFormatter.getDayName(now + DAY_IN_MILLIS));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date,
+                        mContext.getString(R.string.today), mFormatter.getFormattedMonthDay(now)),
+                mFormatter.getFriendlyDayString(now, true));
+        assertEquals(mContext.getString(R.string.today),
+                mFormatter.getFriendlyDayString(now, false));
+
+        // The cached label is the same one each time
+        String later = mFormatter.getFriendlyDayString(now + 10 * DAY_IN_MILLIS, false);
+        assertSame(later, mFormatter.getFriendlyDayString(now + 10 * DAY_IN_MILLIS, false));
+        assertFalse(later.equals(mFormatter.getDayName(now + 10 * DAY_IN_MILLIS)));
+    }
+
+    public void testLocaleChangeClearsLabels() {
+        long date = System.currentTimeMillis() + 3 * DAY_IN_MILLIS;
+        Locale original = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            String english = mFormatter.getDayName(date);
+            Locale.setDefault(Locale.FRANCE);
+            String french = mFormatter.getDayName(date);
+            assertFalse("Error: the day name didn't follow the locale", english.equals(french));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    public void testUnitsChange() throws Exception {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final SunshineSettings settings = SunshineSettings.get(mContext);
+        String key = mContext.getString(R.string.pref_units_key);
+        String metric = mContext.getString(R.string.pref_units_metric);
+        String imperial = mContext.getString(R.string.pref_units_imperial);
+        String original = prefs.getString(key, metric);
+        try {
+            prefs.edit().putString(key, imperial).commit();
+            // The settings' listener runs on the main thread, so give it a moment
+            new PollingCheck() {
+                @Override
+                protected boolean check() {
+                    return !settings.getSnapshot().isMetric();
+                }
+            }.run();
+            assertEquals(mFormatter.formatTemperature(50), mFormatter.formatTemperature(10, 50));
+
+            prefs.edit().putString(key, metric).commit();
+            settings.reload();
+            assertEquals(mFormatter.formatTemperature(10), mFormatter.formatTemperature(10, 50));
+        } finally {
+            prefs.edit().putString(key, original).commit();
+            settings.reload();
+        }
+    }
+
+    public void testFormattingDoesNotAllocate() {
+        long today = System.currentTimeMillis();
+        // Fill the caches first
+        format(today);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            format(today);
+            int allocations = Debug.getThreadAllocCount();
+            // Four temperatures and four day labels per value
+            Log.i(LOG_TAG, allocations + " allocations for " + (8 * VALUES) +
+                    " formatted values");
+            assertTrue("Error: cached formatting allocated " + allocations + " objects",
+                    allocations * 10 < VALUES);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private int format(long today) {
+        int length = 0;
+        for (int i = 0; i < VALUES; i++) {
+            double celsius = i % 60 - 20;
+            length += mFormatter.formatTemperature(celsius, celsius * 1.8 + 32).length();
+            length += mFormatter.formatTemperature(celsius + 0.4).length();
+            length += mFormatter.formatTemperature(celsius - 100).length();
+            length += mFormatter.formatTemperature(celsius * 1.8 + 32).length();
+            long date = today + (i % 14) * DAY_IN_MILLIS;
+            length += mFormatter.getFriendlyDayString(date, i % 2 == 0).length();
+            length += mFormatter.getFullFriendlyDayString(date).length();
+            length += mFormatter.getDayName(date).length();
+            length += mFormatter.getFormattedMonthDay(date).length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentResolver;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Tests ForecastArtPrefetcher: that the list fetches the art for the rows on screen and the
+    lookahead past them, once each, and that what warm() fetches is found in the caches by a
+    row's own load afterwards.
+ */
+public class TestForecastArtPrefetcher extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final int LOOKAHEAD_ROWS = 3;
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mOriginalArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The rows only have art urls with an art pack from the network
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mOriginalArtPack = mPrefs.getString(mArtPackKey,
+                mContext.getString(R.string.pref_art_pack_sunshine));
+        mPrefs.edit().putString(mArtPackKey,
+                mContext.getString(R.string.pref_art_pack_cute_dogs)).commit();
+        SunshineSettings.get(mContext).reload();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mArtPackKey, mOriginalArtPack).commit();
+        SunshineSettings.get(mContext).reload();
+        super.tearDown();
+    }
+
+    public void testPrefetchCoversVisibleRowsAndLookahead() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext), 0);
+        adapter.swapCursor(new ForecastCursor(mContext, createForecastCursor(), null));
+        RecyclerView recyclerView = new RecyclerView(mContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mContext));
+        RecordingPrefetcher prefetcher = new RecordingPrefetcher(recyclerView, adapter);
+
+        // Before the list is laid out, the first row and the lookahead past it
+        prefetcher.onRowsLoaded();
+        assertEquals(expected(adapter, 0, LOOKAHEAD_ROWS), prefetcher.mRequests);
+
+        // Scrolled to rows 5 to 8: the rows from 2 to 11 are wanted, and 4 to 11 are new
+        prefetcher.mRequests.clear();
+        prefetcher.prefetch(5, 8);
+        HashSet<String> wanted = expected(adapter, 2, 8 + LOOKAHEAD_ROWS);
+        wanted.removeAll(expected(adapter, 0, LOOKAHEAD_ROWS));
+        assertEquals(wanted, prefetcher.mRequests);
+
+        // Back up again, all of which has been fetched already
+        prefetcher.mRequests.clear();
+        prefetcher.prefetch(0, 3);
+        assertTrue(prefetcher.mRequests.isEmpty());
+
+        // The last rows, whose pictures were all fetched for earlier days.  The lookahead
+        // stops at the end of the list, or getRow() would have thrown.
+        prefetcher.prefetch(DAYS - 2, DAYS - 1);
+        assertTrue(prefetcher.mRequests.isEmpty());
+    }
+
+    public void testWarmedArtIsInTheCaches() throws Exception {
+        // A picture from the app itself, so the test doesn't need the network.  The query
+        // makes it a url no earlier run has left in the disk cache.
+        String artUrl = ContentResolver.SCHEME_ANDROID_RESOURCE + "://" +
+                mContext.getPackageName() + "/" + R.drawable.art_clear +
+                "?run=" + System.nanoTime();
+        int iconSize = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        ArrayList<String> artUrls = new ArrayList<String>();
+        artUrls.add(artUrl);
+        clearMemory();
+
+        ForecastArtPrefetcher.warm(mContext.getApplicationContext(), artUrls);
+        waitForMainThread();
+
+        // The row's own load finds it in memory, in the same process as the sync
+        ImageCacheStats.reset();
+        load(artUrl, iconSize);
+        assertEquals(1.0, ImageCacheStats.getMemoryHitRate());
+
+        // And, with the memory cache gone as it is in a new process, on disk at the row's size
+        clearMemory();
+        ImageCacheStats.reset();
+        load(artUrl, iconSize);
+        assertEquals(0.0, ImageCacheStats.getMemoryHitRate());
+        assertEquals(1.0, ImageCacheStats.getDiskHitRate());
+    }
+
+    // The requests for the rows from first to last, as RecordingPrefetcher writes them down
+    private static HashSet<String> expected(ForecastAdapter adapter, int first, int last) {
+        HashSet<String> requests = new HashSet<String>();
+        for (int i = first; i <= last; i++) {
+            requests.add(adapter.getRow(i).mArtUrl + "@" + adapter.getArtSize(i));
+        }
+        return requests;
+    }
+
+    private void load(String artUrl, int size) throws Exception {
+        FutureTarget<?> target = ArtCache.forView(Glide.with(mContext.getApplicationContext()),
+                artUrl, size).into(size, size);
+        try {
+            target.get(5, TimeUnit.SECONDS);
+        } finally {
+            Glide.clear(target);
+        }
+        waitForMainThread();
+    }
+
+    // Glide only clears its memory cache on the main thread
+    private void clearMemory() throws InterruptedException {
+        final CountDownLatch cleared = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Glide.get(mContext).clearMemory();
+                cleared.countDown();
+            }
+        });
+        assertTrue(cleared.await(5, TimeUnit.SECONDS));
+    }
+
+    // Glide lets go of a finished load on the main thread, which puts it in the memory cache
+    private static void waitForMainThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        // A different kind of weather every day for the first eight, so every row has its own url
+        int[] weatherIds = {800, 801, 500, 211, 600, 741, 300, 803};
+        for (int d = 0; d < DAYS; d++) {
+            cursor.addRow(new Object[]{
+                    d + 1, startDate + d * dayInMillis, "Clear", 20, 10, "99705",
+                    weatherIds[d % weatherIds.length], 64.7488, -147.353, 68, 50
+            });
+        }
+        return cursor;
+    }
+
+    // Writes down what would be fetched instead of fetching it
+    private class RecordingPrefetcher extends ForecastArtPrefetcher {
+        // Since the test last cleared them, and since the start
+        final HashSet<String> mRequests = new HashSet<String>();
+        private final HashSet<String> mFetched = new HashSet<String>();
+
+        RecordingPrefetcher(RecyclerView recyclerView, ForecastAdapter adapter) {
+            super(mContext, recyclerView, adapter);
+        }
+
+        @Override
+        void preload(String artUrl, int size) {
+            String request = artUrl + "@" + size;
+            assertTrue("Error: " + artUrl + " fetched twice at " + size, mFetched.add(request));
+            mRequests.add(request);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+    Tests the changes ForecastCursor works out between two lists of rows.  Each test checks the
+    ops themselves, and also applies them to a copy of the old keys the way the RecyclerView
+    would, which has to end up as the new keys.
+ */
+public class TestForecastCursor extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    public void testRowKeysDontCollide() {
+        long date = WeatherContract.normalizeDate(System.currentTimeMillis());
+        // "Aa" and "BB" have the same String hashCode
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(ForecastCursor.rowKey("Aa", date) == ForecastCursor.rowKey("BB", date));
+        assertEquals(ForecastCursor.rowKey("Aa", date), ForecastCursor.rowKey("Aa", date));
+        assertFalse(ForecastCursor.rowKey("Aa", date) ==
+                ForecastCursor.rowKey("Aa", date + DAY_IN_MILLIS));
+    }
+
+    public void testNoChange() {
+        long[] keys = {1, 2, 3};
+        int[] signatures = {10, 20, 30};
+        int[] changes = ForecastCursor.diff(keys, signatures, keys, signatures);
+        assertEquals(0, changes.length);
+    }
+
+    public void testFromEmpty() {
+        long[] newKeys = {1, 2, 3};
+        int[] changes = ForecastCursor.diff(new long[0], new int[0], newKeys, new int[]{0, 0, 0});
+        assertChanges(changes,
+                ForecastCursor.OP_INSERT, 0, 0,
+                ForecastCursor.OP_INSERT, 1, 0,
+                ForecastCursor.OP_INSERT, 2, 0);
+        assertApplies(new long[0], newKeys, changes);
+    }
+
+    public void testInsert() {
+        long[] oldKeys = {1, 2, 3};
+        long[] newKeys = {1, 2, 3, 4};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{0, 0, 0}, newKeys,
+                new int[]{0, 0, 0, 0});
+        assertChanges(changes, ForecastCursor.OP_INSERT, 3, 0);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    public void testRemove() {
+        long[] oldKeys = {1, 2, 3, 4};
+        long[] newKeys = {1, 3};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{0, 0, 0, 0}, newKeys,
+                new int[]{0, 0});
+        // Bottom up, so that the second removal's position is still good
+        assertChanges(changes,
+                ForecastCursor.OP_REMOVE, 3, 0,
+                ForecastCursor.OP_REMOVE, 1, 0);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    public void testMove() {
+        long[] oldKeys = {1, 2, 3, 4};
+        long[] newKeys = {1, 4, 2, 3};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{0, 0, 0, 0}, newKeys,
+                new int[]{0, 0, 0, 0});
+        assertChanges(changes, ForecastCursor.OP_MOVE, 3, 1);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    public void testChange() {
+        long[] keys = {1, 2, 3};
+        int[] changes = ForecastCursor.diff(keys, new int[]{10, 20, 30}, keys,
+                new int[]{10, 21, 30});
+        assertChanges(changes, ForecastCursor.OP_CHANGE, 1, 0);
+        assertApplies(keys, keys, changes);
+    }
+
+    public void testMovedRowThatChanged() {
+        long[] oldKeys = {1, 2, 3};
+        long[] newKeys = {1, 3, 2};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{10, 20, 30}, newKeys,
+                new int[]{10, 31, 20});
+        // Changed at the position it was moved to
+        assertChanges(changes,
+                ForecastCursor.OP_MOVE, 2, 1,
+                ForecastCursor.OP_CHANGE, 1, 0);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    // The day rolls over: yesterday goes, a new last day comes, and today takes the top spot
+    public void testNewDayRebindsTheTodayRow() {
+        long[] oldKeys = {1, 2, 3};
+        long[] newKeys = {2, 3, 4};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{0, 0, 0}, newKeys,
+                new int[]{0, 0, 0});
+        assertChanges(changes,
+                ForecastCursor.OP_REMOVE, 0, 0,
+                ForecastCursor.OP_INSERT, 2, 0,
+                ForecastCursor.OP_CHANGE_IF_TODAY_LAYOUT, 0, 0);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    // A row moved in above the old first row, which now needs the layout of any other day
+    public void testOldTodayRowIsRebound() {
+        long[] oldKeys = {2, 3};
+        long[] newKeys = {1, 2, 3};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{0, 0}, newKeys,
+                new int[]{0, 0, 0});
+        assertChanges(changes,
+                ForecastCursor.OP_INSERT, 0, 0,
+                ForecastCursor.OP_CHANGE_IF_TODAY_LAYOUT, 0, 0,
+                ForecastCursor.OP_CHANGE_IF_TODAY_LAYOUT, 1, 0);
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    public void testEverythingAtOnce() {
+        long[] oldKeys = {1, 2, 3, 4, 5};
+        long[] newKeys = {5, 3, 6, 2};
+        int[] changes = ForecastCursor.diff(oldKeys, new int[]{1, 2, 3, 4, 5}, newKeys,
+                new int[]{5, 33, 6, 2});
+        assertApplies(oldKeys, newKeys, changes);
+    }
+
+    private static void assertChanges(int[] changes, int... expected) {
+        assertEquals("Changes were " + Arrays.toString(changes), Arrays.toString(expected),
+                Arrays.toString(changes));
+    }
+
+    // Applies the changes to the old keys the way the RecyclerView would, checking each
+    // position is in the list at the time
+    private static void assertApplies(long[] oldKeys, long[] newKeys, int[] changes) {
+        assertEquals(0, changes.length % 3);
+        ArrayList<Long> keys = new ArrayList<Long>();
+        for (long key : oldKeys) {
+            keys.add(key);
+        }
+        for (int i = 0; i < changes.length; i += 3) {
+            int a = changes[i + 1];
+            int b = changes[i + 2];
+            switch (changes[i]) {
+                case ForecastCursor.OP_REMOVE:
+                    assertTrue(a < keys.size());
+                    keys.remove(a);
+                    break;
+                case ForecastCursor.OP_INSERT:
+                    assertTrue(a <= keys.size());
+                    // The new key is the one that ends up at this position
+                    keys.add(a, newKeys[a]);
+                    break;
+                case ForecastCursor.OP_MOVE:
+                    assertTrue(a < keys.size() && b < keys.size());
+                    keys.add(b, keys.remove(a));
+                    break;
+                case ForecastCursor.OP_CHANGE:
+                case ForecastCursor.OP_CHANGE_IF_TODAY_LAYOUT:
+                    assertTrue(a < keys.size());
+                    break;
+                default:
+                    fail("Unknown op " + changes[i]);
+            }
+        }
+        assertEquals(newKeys.length, keys.size());
+        for (int i = 0; i < newKeys.length; i++) {
+            assertEquals(newKeys[i], (long) keys.get(i));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Benchmark of the forecast list's bind.  Times the work ForecastAdapter's onBindViewHolder
+    used to do per row (date, description, temperatures and their accessibility strings, all
+    formatted from the cursor) against what it does now, reading a ForecastRow built by the
+    loader.  Results go to logcat under this class' tag; the loader's own cost, which is off
+    the main thread, is logged alongside for comparison.
+ */
+public class TestForecastRowBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRowBenchmark.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+
+    public void testRowsMatchTheCursor() {
+        MatrixCursor cursor = createForecastCursor();
+        ForecastCursor forecast = new ForecastCursor(mContext, cursor, null);
+        assertEquals(DAYS, forecast.getRowCount());
+        for (int i = 0; i < DAYS; i++) {
+            cursor.moveToPosition(i);
+            ForecastRow row = forecast.getRow(i);
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            assertEquals(date, row.mDate);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.mDayText);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F)), row.mHighText);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F)), row.mLowText);
+        }
+        forecast.close();
+    }
+
+    public void testCompareBind() {
+        MatrixCursor cursor = createForecastCursor();
+
+        long[] cursorBind = new long[ITERATIONS];
+        long[] rowLoad = new long[ITERATIONS];
+        long[] rowBind = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (int p = 0; p < DAYS; p++) {
+                bindFromCursor(cursor, p);
+            }
+            long cursorBound = System.nanoTime();
+
+            ForecastCursor forecast = new ForecastCursor(mContext, cursor, null);
+            long loaded = System.nanoTime();
+            for (int p = 0; p < DAYS; p++) {
+                bindFromRow(forecast.getRow(p), p == 0);
+            }
+            long rowBound = System.nanoTime();
+
+            if (i >= 0) {
+                cursorBind[i] = (cursorBound - start) / 1000;
+                rowLoad[i] = (loaded - cursorBound) / 1000;
+                rowBind[i] = (rowBound - loaded) / 1000;
+            }
+        }
+        cursor.close();
+
+        Log.i(LOG_TAG, DAYS + " rows: bind from cursor median " +
+                TestUtilities.median(cursorBind) + "us p90 " +
+                TestUtilities.percentile(cursorBind, 90) + "us, bind from rows median " +
+                TestUtilities.median(rowBind) + "us p90 " +
+                TestUtilities.percentile(rowBind, 90) + "us (rows built in the background in " +
+                TestUtilities.median(rowLoad) + "us)");
+    }
+
+    // What onBindViewHolder did before the rows were built by the loader
+    private int bindFromCursor(MatrixCursor cursor, int position) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        int image = position == 0 ? Utility.getArtResourceForWeatherCondition(weatherId) :
+                Utility.getIconResourceForWeatherCondition(weatherId);
+        String url = Utility.usingLocalGraphics(mContext) ? null :
+                Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        String day = Utility.getFriendlyDayString(mContext,
+                cursor.getLong(ForecastFragment.COL_WEATHER_DATE), position == 0);
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
+        String high = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F));
+        String highA11y = mContext.getString(R.string.a11y_high_temp, high);
+        String low = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F));
+        String lowA11y = mContext.getString(R.string.a11y_low_temp, low);
+        return consume(image, url, day, descriptionA11y, highA11y, lowA11y);
+    }
+
+    // What onBindViewHolder does now
+    private int bindFromRow(ForecastRow row, boolean today) {
+        int image = today ? row.mArtResource : row.mIconResource;
+        String day = today ? row.mLongDayText : row.mDayText;
+        return consume(image, row.mArtUrl, day, row.mDescriptionA11y, row.mHighA11y, row.mLowA11y);
+    }
+
+    // Uses every result, so none of the work can be skipped
+    private static int consume(int image, String url, String day, String description,
+                               String high, String low) {
+        return image + (null == url ? 0 : url.length()) + day.length() + description.length() +
+                high.length() + low.length();
+    }
+
+    private static MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        int[] weatherIds = {800, 801, 500, 211, 600, 741, 502};
+        for (int d = 0; d < DAYS; d++) {
+            double high = 20 + d % 5;
+            double low = 10 - d % 3;
+            cursor.addRow(new Object[]{
+                    d + 1, startDate + d * dayInMillis, "Clear", high, low, "99705",
+                    weatherIds[d % weatherIds.length], 64.7488, -147.353,
+                    high * 1.8 + 32, low * 1.8 + 32
+            });
+        }
+        return cursor;
+    }
+}
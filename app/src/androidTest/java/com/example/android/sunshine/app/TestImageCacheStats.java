@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.signature.StringSignature;
+
+import java.io.File;
+import java.util.HashMap;
+
+/*
+    Tests SunshineGlideModule's cache budgets, and that ImageCacheStats' caches count a known
+    run of hits and misses.
+ */
+public class TestImageCacheStats extends AndroidTestCase {
+
+    private static final int MB = 1024 * 1024;
+
+    @Override
+    protected void tearDown() throws Exception {
+        ImageCacheStats.reset();
+        super.tearDown();
+    }
+
+    public void testBudgets() {
+        assertTrue(SunshineGlideModule.isLowEnd(true, 256));
+        assertTrue(SunshineGlideModule.isLowEnd(false, 64));
+        assertFalse(SunshineGlideModule.isLowEnd(false, 96));
+
+        // Half of Glide's own sizes on low end devices only
+        assertEquals(2 * MB, SunshineGlideModule.getMemoryBudget(4 * MB, true));
+        assertEquals(4 * MB, SunshineGlideModule.getMemoryBudget(4 * MB, false));
+
+        assertEquals(16 * MB, SunshineGlideModule.getDiskCacheBytes(true, 256));
+        assertEquals(48 * MB, SunshineGlideModule.getDiskCacheBytes(false, 96));
+        assertEquals(48 * MB, SunshineGlideModule.getDiskCacheBytes(false, 191));
+        assertEquals(96 * MB, SunshineGlideModule.getDiskCacheBytes(false, 192));
+        assertEquals(96 * MB, SunshineGlideModule.getDiskCacheBytes(false, 512));
+    }
+
+    public void testMemoryCacheCounts() {
+        ImageCacheStats.reset();
+        assertTrue(Double.isNaN(ImageCacheStats.getMemoryHitRate()));
+
+        ImageCacheStats.CountingMemoryCache cache = new ImageCacheStats.CountingMemoryCache(MB);
+        Key icon = new StringSignature("icon");
+        Key art = new StringSignature("art");
+        cache.put(icon, new TestResource(1024));
+        cache.put(art, new TestResource(1024));
+
+        // Two hits, then two misses: one never cached, and one already taken out
+        assertNotNull(cache.remove(icon));
+        assertNotNull(cache.remove(art));
+        assertNull(cache.remove(new StringSignature("missing")));
+        assertNull(cache.remove(icon));
+        assertEquals(0.5, ImageCacheStats.getMemoryHitRate());
+
+        // A third miss
+        assertNull(cache.remove(art));
+        assertEquals(2.0 / 5, ImageCacheStats.getMemoryHitRate());
+        // The disk cache wasn't asked
+        assertTrue(Double.isNaN(ImageCacheStats.getDiskHitRate()));
+
+        ImageCacheStats.reset();
+        assertTrue(Double.isNaN(ImageCacheStats.getMemoryHitRate()));
+    }
+
+    public void testDiskCacheCounts() {
+        ImageCacheStats.reset();
+        assertTrue(Double.isNaN(ImageCacheStats.getDiskHitRate()));
+
+        ImageCacheStats.CountingDiskCache cache =
+                new ImageCacheStats.CountingDiskCache(new TestDiskCache());
+        Key download = new StringSignature("download");
+
+        // A miss, then the image is written, then three hits
+        assertNull(cache.get(download));
+        cache.put(download, new DiskCache.Writer() {
+            @Override
+            public boolean write(File file) {
+                return true;
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(cache.get(download));
+        }
+        assertEquals(0.75, ImageCacheStats.getDiskHitRate());
+
+        // Deleted, so a miss again; putting and deleting isn't counted
+        cache.delete(download);
+        assertNull(cache.get(download));
+        assertEquals(3.0 / 5, ImageCacheStats.getDiskHitRate());
+        assertTrue(Double.isNaN(ImageCacheStats.getMemoryHitRate()));
+    }
+
+    private static class TestResource implements Resource<Object> {
+        private final int mSize;
+
+        TestResource(int size) {
+            mSize = size;
+        }
+
+        @Override
+        public Object get() {
+            return this;
+        }
+
+        @Override
+        public int getSize() {
+            return mSize;
+        }
+
+        @Override
+        public void recycle() {
+        }
+    }
+
+    // Keeps its "files" in a map, so the test doesn't touch Glide's real cache
+    private class TestDiskCache implements DiskCache {
+        private final HashMap<Key, File> mFiles = new HashMap<Key, File>();
+
+        @Override
+        public File get(Key key) {
+            return mFiles.get(key);
+        }
+
+        @Override
+        public void put(Key key, Writer writer) {
+            File file = new File(mContext.getCacheDir(), "test_disk_cache_" + mFiles.size());
+            if (writer.write(file)) mFiles.put(key, file);
+        }
+
+        @Override
+        public void delete(Key key) {
+            mFiles.remove(key);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Checks the forecast list's render stats put each timing in the right bucket and read the
+    percentiles back out of them.
+ */
+public class TestListRenderStats extends AndroidTestCase {
+
+    public void testPercentiles() {
+        ListRenderStats.Histogram histogram =
+                new ListRenderStats.Histogram(new long[] {100, 1000, 10000});
+        for (int i = 0; i < 90; i++) {
+            histogram.add(50);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.add(500);
+        }
+        histogram.add(20000);
+
+        assertEquals(100, histogram.count);
+        assertEquals(20000, histogram.maxMicros);
+        assertEquals(100, histogram.percentile(50));
+        assertEquals(100, histogram.percentile(90));
+        assertEquals(1000, histogram.percentile(99));
+        assertEquals("Error: the overflow bucket should give the slowest seen",
+                20000, histogram.percentile(100));
+
+        histogram.clear();
+        assertEquals(0, histogram.count);
+        assertEquals(0, histogram.percentile(50));
+    }
+
+    public void testRecordAndDump() {
+        ListRenderStats stats = ListRenderStats.get();
+        stats.reset();
+        long start = System.nanoTime();
+        stats.recordCreate(0, start);
+        stats.recordCreate(1, start);
+        stats.recordCreate(1, start);
+        stats.recordBind(1, start);
+        stats.recordFrame(16667);
+        stats.recordFrame(33333);
+
+        assertEquals(1, stats.getInflations(0));
+        assertEquals(2, stats.getInflations(1));
+        assertEquals(0, stats.getBinds(0));
+        assertEquals(1, stats.getBinds(1));
+
+        StringWriter text = new StringWriter();
+        stats.dump(new PrintWriter(text, true));
+        String dump = text.toString();
+        assertTrue(dump.contains("create today"));
+        assertTrue(dump.contains("bind future_day"));
+        assertTrue(dump.contains("late frames=1"));
+
+        stats.reset();
+        assertEquals(0, stats.getInflations(1));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks SunshineSettings' snapshot follows the preferences, and that its own writes show in
+    the snapshot at once and reach the preferences together shortly after.
+ */
+public class TestSunshineSettings extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private SunshineSettings mSettings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSettings = SunshineSettings.get(mContext);
+    }
+
+    public void testSnapshotFollowsThePreferences() {
+        final String key = mContext.getString(R.string.pref_location_key);
+        String original = mPrefs.getString(key,
+                mContext.getString(R.string.pref_location_default));
+        try {
+            mPrefs.edit().putString(key, "Reykjavik").commit();
+            // The listener runs on the main thread, so give it a moment
+            new PollingCheck() {
+                @Override
+                protected boolean check() {
+                    return "Reykjavik".equals(mSettings.getSnapshot().getLocation());
+                }
+            }.run();
+            assertEquals("Reykjavik", Utility.getPreferredLocation(mContext));
+        } finally {
+            mPrefs.edit().putString(key, original).commit();
+            mSettings.reload();
+        }
+    }
+
+    public void testWritesAreBatched() {
+        final String statusKey = mContext.getString(R.string.pref_location_status_key);
+        final String maintenanceKey = mContext.getString(R.string.pref_last_maintenance);
+        int originalStatus = mPrefs.getInt(statusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        long originalMaintenance = mPrefs.getLong(maintenanceKey, 0);
+        final long now = System.currentTimeMillis();
+        try {
+            mSettings.setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+            mSettings.setLastMaintenance(now);
+
+            // Readers see the writes straight away
+            SunshineSettings.Snapshot snapshot = mSettings.getSnapshot();
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    snapshot.getLocationStatus());
+            assertEquals(now, snapshot.getLastMaintenance());
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    Utility.getLocationStatus(mContext));
+
+            // And the preferences get both together
+            new PollingCheck() {
+                @Override
+                protected boolean check() {
+                    return mPrefs.getLong(maintenanceKey, 0) == now;
+                }
+            }.run();
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    mPrefs.getInt(statusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+        } finally {
+            mPrefs.edit().putInt(statusKey, originalStatus)
+                    .putLong(maintenanceKey, originalMaintenance).commit();
+            mSettings.reload();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Tests that a written WarmStartSnapshot reads back as the rows it was written from, and that
+    reading it drops the days that have gone by since.
+ */
+public class TestWarmStartSnapshot extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Days before today in the rows written
+    private static final int PAST_DAYS = 2;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        WarmStartSnapshot.getFile(mContext).delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        WarmStartSnapshot.getFile(mContext).delete();
+        super.tearDown();
+    }
+
+    public void testNoSnapshot() {
+        assertNull(WarmStartSnapshot.read(mContext, LOCATION));
+    }
+
+    public void testReadsBackWhatWasWritten() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor written = createForecastCursor(today, WarmStartSnapshot.ROWS);
+        WarmStartSnapshot.write(mContext, LOCATION, written);
+
+        Cursor read = WarmStartSnapshot.read(mContext, LOCATION);
+        assertNotNull("Error: the snapshot wasn't read back", read);
+        assertEquals(WarmStartSnapshot.ROWS, read.getCount());
+        assertSameRows(written, 0, read);
+        read.close();
+        written.close();
+    }
+
+    public void testDropsPastDays() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        // As if written two days ago, with more rows than the snapshot keeps
+        MatrixCursor written = createForecastCursor(today - PAST_DAYS * DAY_IN_MILLIS,
+                WarmStartSnapshot.ROWS + 2);
+        WarmStartSnapshot.write(mContext, LOCATION, written);
+
+        Cursor read = WarmStartSnapshot.read(mContext, LOCATION);
+        assertNotNull(read);
+        // Only ROWS were kept, and the two before today are dropped
+        assertEquals(WarmStartSnapshot.ROWS - PAST_DAYS, read.getCount());
+        assertTrue(read.moveToFirst());
+        assertEquals(today, read.getLong(ForecastFragment.COL_WEATHER_DATE));
+        assertSameRows(written, PAST_DAYS, read);
+        read.close();
+        written.close();
+    }
+
+    public void testEveryDayPast() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor written = createForecastCursor(today - 10 * DAY_IN_MILLIS, 3);
+        WarmStartSnapshot.write(mContext, LOCATION, written);
+        written.close();
+        assertNull("Error: a snapshot with no day left should be no snapshot",
+                WarmStartSnapshot.read(mContext, LOCATION));
+    }
+
+    public void testOtherLocation() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        MatrixCursor written = createForecastCursor(today, 3);
+        WarmStartSnapshot.write(mContext, LOCATION, written);
+        written.close();
+        assertNull(WarmStartSnapshot.read(mContext, "94043"));
+    }
+
+    // Checks every row of read against the rows of written from the given one on
+    private static void assertSameRows(Cursor written, int firstWritten, Cursor read) {
+        for (int i = 0; i < read.getCount(); i++) {
+            assertTrue(written.moveToPosition(firstWritten + i));
+            assertTrue(read.moveToPosition(i));
+            String error = "Error: row " + i + " didn't read back";
+            assertEquals(error, written.getLong(ForecastFragment.COL_WEATHER_ID),
+                    read.getLong(ForecastFragment.COL_WEATHER_ID));
+            assertEquals(error, written.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    read.getLong(ForecastFragment.COL_WEATHER_DATE));
+            assertEquals(error, written.getString(ForecastFragment.COL_WEATHER_DESC),
+                    read.getString(ForecastFragment.COL_WEATHER_DESC));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    read.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    read.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            assertEquals(error, written.getString(ForecastFragment.COL_LOCATION_SETTING),
+                    read.getString(ForecastFragment.COL_LOCATION_SETTING));
+            assertEquals(error, written.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    read.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_COORD_LAT),
+                    read.getDouble(ForecastFragment.COL_COORD_LAT));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_COORD_LONG),
+                    read.getDouble(ForecastFragment.COL_COORD_LONG));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F),
+                    read.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F));
+            assertEquals(error, written.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F),
+                    read.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F));
+        }
+    }
+
+    private static MatrixCursor createForecastCursor(long startDate, int days) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        int[] weatherIds = {800, 801, 500, 211, 600, 741, 502};
+        for (int d = 0; d < days; d++) {
+            double high = 20.5 + d % 5;
+            double low = 10.25 - d % 3;
+            cursor.addRow(new Object[]{
+                    d + 1, startDate + d * DAY_IN_MILLIS, "Day " + d, high, low, LOCATION,
+                    weatherIds[d % weatherIds.length], 64.7488, -147.353,
+                    high * 1.8 + 32, low * 1.8 + 32
+            });
+        }
+        return cursor;
+    }
+}
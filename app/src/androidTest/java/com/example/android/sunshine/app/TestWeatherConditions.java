@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+/*
+    Checks WeatherConditions' tables give what Utility's range checks always gave, including
+    at the edges of each range and for codes OpenWeatherMap doesn't send.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public void testPictures() {
+        assertEquals(R.drawable.ic_storm, WeatherConditions.getIconResource(200));
+        assertEquals(R.drawable.ic_storm, WeatherConditions.getIconResource(232));
+        assertEquals(-1, WeatherConditions.getIconResource(233));
+        assertEquals(R.drawable.ic_light_rain, WeatherConditions.getIconResource(321));
+        assertEquals(R.drawable.art_rain, WeatherConditions.getArtResource(504));
+        assertEquals(-1, WeatherConditions.getArtResource(505));
+        assertEquals(R.drawable.art_snow, WeatherConditions.getArtResource(511));
+        assertEquals(R.drawable.ic_rain, WeatherConditions.getIconResource(531));
+        assertEquals(R.drawable.ic_snow, WeatherConditions.getIconResource(622));
+        assertEquals("Error: 761 has always been fog",
+                R.drawable.ic_fog, WeatherConditions.getIconResource(761));
+        assertEquals(R.drawable.art_storm, WeatherConditions.getArtResource(781));
+        assertEquals(R.drawable.ic_clear, WeatherConditions.getIconResource(800));
+        assertEquals(R.drawable.art_light_clouds, WeatherConditions.getArtResource(801));
+        assertEquals(R.drawable.ic_cloudy, WeatherConditions.getIconResource(804));
+        assertEquals(-1, WeatherConditions.getIconResource(900));
+
+        // Out of the table altogether
+        assertEquals(-1, WeatherConditions.getIconResource(-1));
+        assertEquals(-1, WeatherConditions.getArtResource(199));
+        assertNull(WeatherConditions.getImageUrl(1000));
+
+        assertTrue(WeatherConditions.getImageUrl(781).contains("Raised_dust"));
+        assertTrue(WeatherConditions.getImageUrl(761).contains("fog"));
+    }
+
+    public void testDescriptions() {
+        WeatherConditions conditions = WeatherConditions.get(mContext);
+        assertEquals(mContext.getString(R.string.condition_2xx), conditions.getDescription(211));
+        assertEquals(mContext.getString(R.string.condition_3xx), conditions.getDescription(300));
+        assertEquals(mContext.getString(R.string.condition_502), conditions.getDescription(502));
+        assertEquals(mContext.getString(R.string.condition_962), conditions.getDescription(962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 505),
+                conditions.getDescription(505));
+        assertEquals(mContext.getString(R.string.condition_unknown, 42),
+                conditions.getDescription(42));
+        // Kept, not looked up again
+        assertSame(conditions.getDescription(800), conditions.getDescription(800));
+    }
+
+    public void testArtPack() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        String sunshine = mContext.getString(R.string.pref_art_pack_sunshine);
+        String dogs = mContext.getString(R.string.pref_art_pack_cute_dogs);
+        String original = prefs.getString(key, sunshine);
+        WeatherConditions conditions = WeatherConditions.get(mContext);
+        try {
+            prefs.edit().putString(key, dogs).commit();
+            SunshineSettings.get(mContext).reload();
+            assertFalse(conditions.usingLocalGraphics());
+            assertEquals(String.format(dogs, "light_rain"), conditions.getArtUrl(300));
+            assertEquals(String.format(dogs, "storm"), conditions.getArtUrl(781));
+            assertNull(conditions.getArtUrl(900));
+            // Squalls share the storm picture, so the pack is one picture short of the kinds
+            assertEquals(8, conditions.getArtUrls().size());
+            assertTrue(conditions.getArtUrls().contains(String.format(dogs, "storm")));
+
+            prefs.edit().putString(key, sunshine).commit();
+            SunshineSettings.get(mContext).reload();
+            assertTrue(conditions.usingLocalGraphics());
+            assertEquals(String.format(sunshine, "clouds"), conditions.getArtUrl(803));
+        } finally {
+            prefs.edit().putString(key, original).commit();
+            SunshineSettings.get(mContext).reload();
+        }
+    }
+}
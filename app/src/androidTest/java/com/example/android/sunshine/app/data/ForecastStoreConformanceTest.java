@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/*
+    The behaviour every ForecastStore has to share, limited to what WeatherProvider and the sync
+    actually ask of a store.  Each implementation gets a subclass that only says how to build
+    and clean up the store under test.
+ */
+public abstract class ForecastStoreConformanceTest extends AndroidTestCase {
+
+    static final String DB_NAME = "store_conformance.db";
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String OTHER_LOCATION = "94043";
+
+    // The columns ForecastFragment asks for, qualified the way it qualifies them
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    WeatherDbHelper mHelper;
+    ForecastStore mStore;
+    long mLocationId;
+    long mOtherLocationId;
+    long mToday;
+
+    abstract ForecastStore createStore(WeatherDbHelper helper);
+
+    abstract void destroyStore();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new WeatherDbHelper(mContext, DB_NAME, WeatherDbHelper.DEFAULT_STORAGE_PROFILE);
+        mLocationId = mHelper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        other.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        mOtherLocationId = mHelper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null, other);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mStore = createStore(mHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.close();
+        destroyStore();
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    static ContentValues createWeather(long locationId, long date, double max) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, max - 10.5);
+        return values;
+    }
+
+    private ContentValues[] createForecast(long locationId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = createWeather(locationId, mToday + i * DAY_IN_MILLIS, 70.5 + i);
+        }
+        return values;
+    }
+
+    public void testInsertAndReadBack() {
+        ContentValues values = createWeather(mLocationId, mToday, 75.5);
+        long id = mStore.insertWeather(values);
+        assertTrue("Error: insert didn't return a row id", id > 0);
+
+        Cursor cursor = mStore.queryWeatherByLocationAndDate(TestUtilities.TEST_LOCATION, mToday,
+                null, null);
+        assertTrue("Error: the inserted day wasn't found", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(id, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        assertEquals(mLocationId, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        assertEquals(mToday, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals("Asteroids", cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        assertEquals(321, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        assertEquals(75.5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals(65.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(1.2, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)));
+        assertEquals(1.3, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)));
+        assertEquals(5.5, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED)));
+        assertEquals(1.1, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES)));
+        assertEquals(TestUtilities.TEST_LOCATION,
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertEquals("North Pole",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+    }
+
+    public void testMissingColumnIsRejected() {
+        ContentValues values = createWeather(mLocationId, mToday, 75.5);
+        values.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        assertEquals(-1, mStore.insertWeather(values));
+    }
+
+    public void testSameDayReplaces() {
+        mStore.insertWeather(createWeather(mLocationId, mToday, 75.5));
+        mStore.insertWeather(createWeather(mLocationId, mToday, 80.5));
+
+        Cursor cursor = mStore.queryWeatherByLocation(TestUtilities.TEST_LOCATION, 0,
+                FORECAST_PROJECTION, null, 0, null);
+        assertEquals("Error: a second row for the same day should replace the first",
+                1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(80.5, cursor.getDouble(3));
+        cursor.close();
+    }
+
+    public void testForecastByLocation() {
+        assertEquals(14, mStore.bulkInsertWeather(createForecast(mLocationId, 14)));
+        assertEquals(14, mStore.bulkInsertWeather(createForecast(mOtherLocationId, 14)));
+
+        // From tomorrow on, oldest first, one location only
+        Cursor cursor = mStore.queryWeatherByLocation(TestUtilities.TEST_LOCATION,
+                mToday + DAY_IN_MILLIS, FORECAST_PROJECTION,
+                WeatherEntry.COLUMN_DATE + " ASC", 0, null);
+        assertEquals(13, cursor.getCount());
+        long expectedDate = mToday + DAY_IN_MILLIS;
+        while (cursor.moveToNext()) {
+            assertEquals(expectedDate, cursor.getLong(1));
+            assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(5));
+            expectedDate += DAY_IN_MILLIS;
+        }
+        cursor.close();
+
+        cursor = mStore.queryWeatherByLocation("nowhere", 0, FORECAST_PROJECTION, null, 0, null);
+        assertEquals("Error: an unknown location should have no forecast", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testPaging() {
+        mStore.bulkInsertWeather(createForecast(mLocationId, 14));
+        mStore.bulkInsertWeather(createForecast(mOtherLocationId, 14));
+
+        String[] projection = {WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE};
+        long[] after = null;
+        long lastLocationId = -1;
+        long lastDate = -1;
+        int total = 0;
+        int pages = 0;
+        while (true) {
+            Cursor cursor = mStore.queryWeather(projection, null, null, null, 5, after);
+            int count = cursor.getCount();
+            assertTrue("Error: a page holds at most the page size", count <= 5);
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                long date = cursor.getLong(1);
+                assertTrue("Error: pages should walk (location_id, date) in order",
+                        locationId > lastLocationId ||
+                                (locationId == lastLocationId && date > lastDate));
+                lastLocationId = locationId;
+                lastDate = date;
+            }
+            cursor.close();
+            total += count;
+            if (count == 0) break;
+            pages++;
+            after = new long[]{lastLocationId, lastDate};
+        }
+        assertEquals(28, total);
+        assertEquals(6, pages);
+    }
+
+    public void testPruneOldDays() {
+        mStore.bulkInsertWeather(createForecast(mLocationId, 14));
+        mStore.bulkInsertWeather(createForecast(mOtherLocationId, 14));
+
+        // The sync's cleanup: everything up to and including the third day
+        int deleted = mStore.deleteWeather(WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(mToday + 2 * DAY_IN_MILLIS)});
+        assertEquals(6, deleted);
+
+        Cursor cursor = mStore.queryWeather(null, null, null, null, 0, null);
+        assertEquals(22, cursor.getCount());
+        cursor.close();
+
+        assertEquals(22, mStore.deleteWeather(null, null));
+        cursor = mStore.queryWeather(null, null, null, null, 0, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Around Europe/London's spring change the Sunday starts at GMT midnight and the Monday at
+        BST midnight, only 23 hours later.  Both days have to be kept.
+     */
+    public void testDaylightSavingChange() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+            JulianDays.onTimeZoneChanged();
+
+            // Saturday 28 March 2015 to Tuesday the 31st; the clocks went forward on the 29th
+            long[] dates = new long[4];
+            ContentValues[] values = new ContentValues[dates.length];
+            for (int i = 0; i < dates.length; i++) {
+                dates[i] = JulianDays.toMillis(JulianDays.fromDate(2015, 2, 28 + i));
+                values[i] = createWeather(mLocationId, dates[i], 50.5 + i);
+            }
+            assertEquals(23 * 60 * 60 * 1000, dates[2] - dates[1]);
+            assertEquals(dates.length, mStore.bulkInsertWeather(values));
+
+            Cursor cursor = mStore.queryWeatherByLocation(TestUtilities.TEST_LOCATION, 0,
+                    FORECAST_PROJECTION, WeatherEntry.COLUMN_DATE + " ASC", 0, null);
+            assertEquals("Error: a day around the clock change was lost",
+                    dates.length, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(dates[i], cursor.getLong(1));
+                assertEquals(50.5 + i, cursor.getDouble(3));
+            }
+            cursor.close();
+
+            for (long date : dates) {
+                cursor = mStore.queryWeatherByLocationAndDate(TestUtilities.TEST_LOCATION, date,
+                        null, null);
+                assertEquals("Error: the day couldn't be read on its own", 1, cursor.getCount());
+                cursor.close();
+            }
+        } finally {
+            TimeZone.setDefault(original);
+            JulianDays.onTimeZoneChanged();
+        }
+    }
+
+    public void testUpdateAll() {
+        mStore.bulkInsertWeather(createForecast(mLocationId, 3));
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 99.5);
+        assertEquals(3, mStore.updateWeather(values, null, null));
+
+        Cursor cursor = mStore.queryWeather(
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_WIND_SPEED},
+                null, null, null, 0, null);
+        assertEquals(3, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("Meteors", cursor.getString(0));
+            assertEquals(99.5, cursor.getDouble(1));
+        }
+        cursor.close();
+    }
+
+    public void testUpdateOfOneInputRecomputesDerivedColumns() {
+        mStore.bulkInsertWeather(new ContentValues[]{
+                WeatherEnrichment.enrich(createWeather(mLocationId, mToday, 5.5)),
+                WeatherEnrichment.enrich(createWeather(mLocationId, mToday + DAY_IN_MILLIS, 6.5))
+        });
+
+        // Only max_temp changes; humidity and wind speed have to come from the stored rows
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 30.5);
+        assertEquals(2, mStore.updateWeather(values, null, null));
+
+        Cursor cursor = mStore.queryWeather(new String[]{
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_MAX_TEMP_F,
+                WeatherEntry.COLUMN_DEW_POINT,
+                WeatherEntry.COLUMN_DEW_POINT_F,
+                WeatherEntry.COLUMN_FEELS_LIKE,
+                WeatherEntry.COLUMN_FEELS_LIKE_F
+        }, null, null, null, 0, null);
+        assertEquals(2, cursor.getCount());
+        while (cursor.moveToNext()) {
+            double humidity = cursor.getDouble(0);
+            double dewPoint = WeatherEnrichment.dewPoint(30.5, humidity);
+            double feelsLike = WeatherEnrichment.feelsLike(30.5, humidity, cursor.getDouble(1));
+            assertEquals(WeatherEnrichment.toFahrenheit(30.5), cursor.getDouble(2), 1e-9);
+            assertEquals("Error: the dew point went stale", dewPoint, cursor.getDouble(3), 1e-9);
+            assertEquals(WeatherEnrichment.toFahrenheit(dewPoint), cursor.getDouble(4), 1e-9);
+            assertEquals("Error: feels like went stale", feelsLike, cursor.getDouble(5), 1e-9);
+            assertEquals(WeatherEnrichment.toFahrenheit(feelsLike), cursor.getDouble(6), 1e-9);
+        }
+        cursor.close();
+    }
+
+    public void testDeletedLocationIdReused() {
+        mStore.bulkInsertWeather(createForecast(mLocationId, 3));
+        mStore.bulkInsertWeather(createForecast(mOtherLocationId, 3));
+        mHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)});
+        mStore.deleteLocationForecasts(new long[]{mLocationId});
+
+        // A new location given the same id starts with no forecast of its own
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry._ID, mLocationId);
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "10001");
+        mHelper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null, values);
+
+        Cursor cursor = mStore.queryWeatherByLocation("10001", 0, FORECAST_PROJECTION, null, 0, null);
+        assertEquals("Error: a reused location id inherited the old forecast", 0, cursor.getCount());
+        cursor.close();
+        cursor = mStore.queryWeatherByLocation(OTHER_LOCATION, 0, FORECAST_PROJECTION, null, 0, null);
+        assertEquals("Error: another location's forecast was deleted", 3, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps each location's forecast in its own small memory-mapped file of fixed-size records,
+ * one slot per day.  A day's slot is its Julian day modulo SLOTS, so a new day simply
+ * overwrites the day that fell out of the window SLOTS days ago, and the file never grows.
+ * Reads are a scan over at most SLOTS records of a mapping that is already in memory.
+ *
+ * Files are named after the location's _ID, which SQLite may give to a new location once the
+ * old one is deleted or the database is rebuilt.  The header therefore also holds the location
+ * setting the ring was written for, and a ring whose setting no longer matches its location is
+ * emptied when it is opened, or deleted when the location is gone.
+ *
+ * The price is SQL: only selections on the date column are understood (which covers the
+ * sync's pruning), sort orders are ignored in favour of (location_id, date), and a day more
+ * than SLOTS days older than the one already in its slot cannot be stored.  That is less than
+ * WeatherProvider passes on from its clients, so this store is not wired into the provider; it
+ * lives with the tests, which check it against SqliteForecastStore and benchmark the two.
+ */
+class RingForecastStore implements ForecastStore {
+    private static final String LOG_TAG = RingForecastStore.class.getSimpleName();
+
+    // The directory under getFilesDir() the ring files are kept in
+    static final String DIRECTORY_NAME = "forecast_rings";
+    private static final String FILE_SUFFIX = ".ring";
+
+    // A 14 day forecast plus room for today and yesterday
+    static final int SLOTS = 16;
+
+    private static final int MAGIC = 0x53554e52; // "SUNR"
+    // 3: slots by local Julian day
+    // 4: location setting in the header
+    private static final int VERSION = 4;
+
+    // Header: magic, version, slot count, record size, then the location setting
+    private static final int OFFSET_SETTING_LENGTH = 16;
+    private static final int OFFSET_SETTING = 17;
+    // A setting longer than this is kept cut short, which is still plenty to tell two apart
+    private static final int SETTING_BYTES = 239;
+    private static final int HEADER_SIZE = OFFSET_SETTING + SETTING_BYTES;
+
+    // Record layout.  A date of 0 marks an empty slot; the date is written last so that a
+    // record torn by a crash reads as empty rather than as a mix of two days.
+    private static final int OFFSET_DATE = 0;
+    private static final int OFFSET_WEATHER_ID = 8;
+    private static final int OFFSET_MIN_TEMP = 12;
+    private static final int OFFSET_MAX_TEMP = 20;
+    private static final int OFFSET_HUMIDITY = 28;
+    private static final int OFFSET_PRESSURE = 36;
+    private static final int OFFSET_WIND_SPEED = 44;
+    private static final int OFFSET_DEGREES = 52;
+    private static final int OFFSET_SHORT_DESC_LENGTH = 60;
+    private static final int OFFSET_SHORT_DESC = 61;
+    // OWM descriptions are short ("light intensity drizzle" is about the longest); anything
+    // longer is cut at a character boundary.
+    private static final int SHORT_DESC_BYTES = 31;
+    // The WeatherEnrichment columns follow the raw ones
+    private static final int OFFSET_MIN_TEMP_F = OFFSET_SHORT_DESC + SHORT_DESC_BYTES;
+    private static final int OFFSET_MAX_TEMP_F = OFFSET_MIN_TEMP_F + 8;
+    private static final int OFFSET_WIND_SPEED_MPH = OFFSET_MAX_TEMP_F + 8;
+    private static final int OFFSET_FEELS_LIKE = OFFSET_WIND_SPEED_MPH + 8;
+    private static final int OFFSET_FEELS_LIKE_F = OFFSET_FEELS_LIKE + 8;
+    private static final int OFFSET_DEW_POINT = OFFSET_FEELS_LIKE_F + 8;
+    private static final int OFFSET_DEW_POINT_F = OFFSET_DEW_POINT + 8;
+    private static final int OFFSET_WIND_SECTOR = OFFSET_DEW_POINT_F + 8;
+    private static final int RECORD_SIZE = OFFSET_WIND_SECTOR + 4;
+
+    private static final int FILE_SIZE = HEADER_SIZE + SLOTS * RECORD_SIZE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // [weather.]date <op> ?
+    private static final Pattern DATE_SELECTION = Pattern.compile(
+            "\\s*(?:" + WeatherEntry.TABLE_NAME + "\\.)?" + WeatherEntry.COLUMN_DATE +
+                    "\\s*(<=|<|>=|>|=)\\s*\\?\\s*");
+
+    // The columns every weather row is stored with
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_MIN_TEMP_F,
+            WeatherEntry.COLUMN_MAX_TEMP_F,
+            WeatherEntry.COLUMN_WIND_SPEED_MPH,
+            WeatherEntry.COLUMN_WIND_SECTOR,
+            WeatherEntry.COLUMN_FEELS_LIKE,
+            WeatherEntry.COLUMN_FEELS_LIKE_F,
+            WeatherEntry.COLUMN_DEW_POINT,
+            WeatherEntry.COLUMN_DEW_POINT_F
+    };
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static class LocationRow {
+        long id;
+        String setting;
+        String cityName;
+        double lat;
+        double lon;
+    }
+
+    // A parsed selection: the rows it matches are those whose date compares to mDate with mOp
+    private static class DatePredicate {
+        final String mOp;
+        final long mDate;
+
+        DatePredicate(String op, long date) {
+            mOp = op;
+            mDate = date;
+        }
+
+        boolean matches(long date) {
+            if (null == mOp) return true;
+            if ("<=".equals(mOp)) return date <= mDate;
+            if ("<".equals(mOp)) return date < mDate;
+            if (">=".equals(mOp)) return date >= mDate;
+            if (">".equals(mOp)) return date > mDate;
+            return date == mDate;
+        }
+    }
+
+    private final WeatherDbHelper mOpenHelper;
+    private final File mDirectory;
+    private final HashMap<Long, MappedByteBuffer> mRings = new HashMap<Long, MappedByteBuffer>();
+
+    /**
+     * @param openHelper the database holding the location table
+     * @param directory  where the ring files are kept; created if needed
+     */
+    RingForecastStore(WeatherDbHelper openHelper, File directory) {
+        mOpenHelper = openHelper;
+        mDirectory = directory;
+    }
+
+    @Override
+    public synchronized Cursor queryWeather(String[] projection, String selection,
+                                            String[] selectionArgs, String sortOrder,
+                                            int pageSize, long[] pageAfter) {
+        DatePredicate predicate = parseSelection(selection, selectionArgs);
+        String[] columns = resolveProjection(projection, false);
+        if (pageSize <= 0) pageAfter = null;
+        MatrixCursor cursor = new MatrixCursor(cursorColumns(columns));
+        int limit = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+
+        for (long locationId : listLocationIds()) {
+            if (null != pageAfter && locationId < pageAfter[0]) continue;
+            long after = (null != pageAfter && locationId == pageAfter[0]) ? pageAfter[1] : -1;
+            MappedByteBuffer ring = openRing(locationId, false);
+            if (null == ring) continue;
+            for (int slot : sortedSlots(ring)) {
+                long date = ring.getLong(recordOffset(slot) + OFFSET_DATE);
+                if (date <= after || !predicate.matches(date)) continue;
+                if (cursor.getCount() >= limit) return cursor;
+                cursor.addRow(row(columns, ring, locationId, slot, null));
+            }
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized Cursor queryWeatherByLocation(String locationSetting, long startDate,
+                                                      String[] projection, String sortOrder,
+                                                      int pageSize, long[] pageAfter) {
+        String[] columns = resolveProjection(projection, true);
+        MatrixCursor cursor = new MatrixCursor(cursorColumns(columns));
+        LocationRow location = findLocation(locationSetting);
+        if (null == location) return cursor;
+        if (pageSize <= 0) pageAfter = null;
+        if (null != pageAfter && location.id < pageAfter[0]) return cursor;
+        long after = (null != pageAfter && location.id == pageAfter[0]) ? pageAfter[1] : -1;
+        int limit = pageSize > 0 ? pageSize : Integer.MAX_VALUE;
+
+        MappedByteBuffer ring = openRing(location.id, false);
+        if (null == ring) return cursor;
+        for (int slot : sortedSlots(ring)) {
+            long date = ring.getLong(recordOffset(slot) + OFFSET_DATE);
+            if (date < startDate || date <= after) continue;
+            if (cursor.getCount() >= limit) break;
+            cursor.addRow(row(columns, ring, location.id, slot, location));
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized Cursor queryWeatherByLocationAndDate(String locationSetting, long date,
+                                                             String[] projection,
+                                                             String sortOrder) {
+        String[] columns = resolveProjection(projection, true);
+        MatrixCursor cursor = new MatrixCursor(cursorColumns(columns), 1);
+        LocationRow location = findLocation(locationSetting);
+        if (null == location) return cursor;
+        MappedByteBuffer ring = openRing(location.id, false);
+        if (null == ring) return cursor;
+        int slot = slotFor(date);
+        if (ring.getLong(recordOffset(slot) + OFFSET_DATE) == date) {
+            cursor.addRow(row(columns, ring, location.id, slot, location));
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized long insertWeather(ContentValues values) {
+        long id = write(values);
+        if (id != -1) {
+            openRing(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY), false).force();
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized int bulkInsertWeather(ContentValues[] values) {
+        int returnCount = 0;
+        ArrayList<MappedByteBuffer> touched = new ArrayList<MappedByteBuffer>();
+        for (ContentValues value : values) {
+            if (write(value) != -1) {
+                returnCount++;
+                MappedByteBuffer ring = openRing(value.getAsLong(WeatherEntry.COLUMN_LOC_KEY), false);
+                if (!touched.contains(ring)) touched.add(ring);
+            }
+        }
+        // One msync per file for the whole batch
+        for (MappedByteBuffer ring : touched) {
+            ring.force();
+        }
+        return returnCount;
+    }
+
+    @Override
+    public synchronized int updateWeather(ContentValues values, String selection,
+                                          String[] selectionArgs) {
+        if (values.containsKey(WeatherEntry.COLUMN_LOC_KEY) ||
+                values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            throw new UnsupportedOperationException(
+                    "RingForecastStore can't move a row to another location or day");
+        }
+        DatePredicate predicate = parseSelection(selection, selectionArgs);
+        boolean changesInput = WeatherEnrichment.changesInput(values);
+        ContentValues stored = new ContentValues();
+        int rowsUpdated = 0;
+        for (long locationId : listLocationIds()) {
+            MappedByteBuffer ring = openRing(locationId, false);
+            if (null == ring) continue;
+            boolean changed = false;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                int offset = recordOffset(slot);
+                long date = ring.getLong(offset + OFFSET_DATE);
+                if (date == 0 || !predicate.matches(date)) continue;
+                if (changesInput) {
+                    // Work the derived columns out again from the slot's inputs and the new ones
+                    readInputs(ring, offset, stored);
+                    writeFields(ring, offset, WeatherEnrichment.enrichUpdate(values, stored));
+                } else {
+                    writeFields(ring, offset, values);
+                }
+                rowsUpdated++;
+                changed = true;
+            }
+            if (changed) ring.force();
+        }
+        return rowsUpdated;
+    }
+
+    @Override
+    public synchronized int deleteWeather(String selection, String[] selectionArgs) {
+        DatePredicate predicate = parseSelection(selection, selectionArgs);
+        int rowsDeleted = 0;
+        for (long locationId : listLocationIds()) {
+            MappedByteBuffer ring = openRing(locationId, false);
+            if (null == ring) continue;
+            int remaining = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                int offset = recordOffset(slot);
+                long date = ring.getLong(offset + OFFSET_DATE);
+                if (date == 0) continue;
+                if (predicate.matches(date)) {
+                    ring.putLong(offset + OFFSET_DATE, 0);
+                    rowsDeleted++;
+                } else {
+                    remaining++;
+                }
+            }
+            if (remaining == 0) {
+                // Nothing left for this location, so drop the file altogether
+                deleteRing(locationId);
+            } else {
+                ring.force();
+            }
+        }
+        return rowsDeleted;
+    }
+
+    @Override
+    public synchronized void deleteLocationForecasts(long[] locationIds) {
+        if (null == locationIds) {
+            ArrayList<Long> ids = listLocationIds();
+            locationIds = new long[ids.size()];
+            for (int i = 0; i < locationIds.length; i++) {
+                locationIds[i] = ids.get(i);
+            }
+        }
+        for (long locationId : locationIds) {
+            deleteRing(locationId);
+        }
+    }
+
+    @Override
+    public boolean isInDatabase() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedByteBuffer ring : mRings.values()) {
+            ring.force();
+        }
+        // The mappings themselves go away once they are garbage collected
+        mRings.clear();
+    }
+
+    // Stores one row, returning its id or -1 when a required column is missing or the day is
+    // older than the one already in its slot.
+    private long write(ContentValues values) {
+        // Every slot is rewritten whole, so a row that comes without its derived columns gets
+        // them here rather than inheriting the ones of the day it replaces
+        if (!WeatherEnrichment.isEnriched(values)) {
+            values = WeatherEnrichment.enrich(new ContentValues(values));
+        }
+        for (String column : WEATHER_COLUMNS) {
+            if (!WeatherEntry._ID.equals(column) && null == values.get(column)) {
+                return -1;
+            }
+        }
+        long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date <= 0) return -1;
+        MappedByteBuffer ring = openRing(locationId, true);
+        if (null == ring) return -1;
+
+        int slot = slotFor(date);
+        int offset = recordOffset(slot);
+        if (ring.getLong(offset + OFFSET_DATE) > date) {
+            return -1;
+        }
+        ring.putLong(offset + OFFSET_DATE, 0);
+        writeFields(ring, offset, values);
+        ring.putLong(offset + OFFSET_DATE, date);
+        return rowId(locationId, slot);
+    }
+
+    // Reads the inputs of the derived columns of one slot into values
+    private static void readInputs(MappedByteBuffer ring, int offset, ContentValues values) {
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, ring.getDouble(offset + OFFSET_MIN_TEMP));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, ring.getDouble(offset + OFFSET_MAX_TEMP));
+        values.put(WeatherEntry.COLUMN_HUMIDITY, ring.getDouble(offset + OFFSET_HUMIDITY));
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, ring.getDouble(offset + OFFSET_WIND_SPEED));
+        values.put(WeatherEntry.COLUMN_DEGREES, ring.getDouble(offset + OFFSET_DEGREES));
+    }
+
+    // Writes whichever of the stored columns are present in values
+    private static void writeFields(MappedByteBuffer ring, int offset, ContentValues values) {
+        if (values.containsKey(WeatherEntry.COLUMN_WEATHER_ID)) {
+            ring.putInt(offset + OFFSET_WEATHER_ID, values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        }
+        putDouble(ring, offset + OFFSET_MIN_TEMP, values, WeatherEntry.COLUMN_MIN_TEMP);
+        putDouble(ring, offset + OFFSET_MAX_TEMP, values, WeatherEntry.COLUMN_MAX_TEMP);
+        putDouble(ring, offset + OFFSET_HUMIDITY, values, WeatherEntry.COLUMN_HUMIDITY);
+        putDouble(ring, offset + OFFSET_PRESSURE, values, WeatherEntry.COLUMN_PRESSURE);
+        putDouble(ring, offset + OFFSET_WIND_SPEED, values, WeatherEntry.COLUMN_WIND_SPEED);
+        putDouble(ring, offset + OFFSET_DEGREES, values, WeatherEntry.COLUMN_DEGREES);
+        putDouble(ring, offset + OFFSET_MIN_TEMP_F, values, WeatherEntry.COLUMN_MIN_TEMP_F);
+        putDouble(ring, offset + OFFSET_MAX_TEMP_F, values, WeatherEntry.COLUMN_MAX_TEMP_F);
+        putDouble(ring, offset + OFFSET_WIND_SPEED_MPH, values, WeatherEntry.COLUMN_WIND_SPEED_MPH);
+        putDouble(ring, offset + OFFSET_FEELS_LIKE, values, WeatherEntry.COLUMN_FEELS_LIKE);
+        putDouble(ring, offset + OFFSET_FEELS_LIKE_F, values, WeatherEntry.COLUMN_FEELS_LIKE_F);
+        putDouble(ring, offset + OFFSET_DEW_POINT, values, WeatherEntry.COLUMN_DEW_POINT);
+        putDouble(ring, offset + OFFSET_DEW_POINT_F, values, WeatherEntry.COLUMN_DEW_POINT_F);
+        if (values.containsKey(WeatherEntry.COLUMN_WIND_SECTOR)) {
+            ring.putInt(offset + OFFSET_WIND_SECTOR, values.getAsInteger(WeatherEntry.COLUMN_WIND_SECTOR));
+        }
+        if (values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            byte[] desc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC).getBytes(UTF_8);
+            int length = cutLength(desc, SHORT_DESC_BYTES);
+            ring.put(offset + OFFSET_SHORT_DESC_LENGTH, (byte) length);
+            ring.position(offset + OFFSET_SHORT_DESC);
+            ring.put(desc, 0, length);
+        }
+    }
+
+    // How much of a UTF-8 string fits in max bytes, without cutting a multi-byte character in half
+    private static int cutLength(byte[] utf8, int max) {
+        int length = Math.min(utf8.length, max);
+        while (length < utf8.length && length > 0 && (utf8[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    private static void putDouble(MappedByteBuffer ring, int index, ContentValues values,
+                                  String column) {
+        if (values.containsKey(column)) {
+            ring.putDouble(index, values.getAsDouble(column));
+        }
+    }
+
+    private static String readShortDesc(MappedByteBuffer ring, int offset) {
+        int length = ring.get(offset + OFFSET_SHORT_DESC_LENGTH) & 0xff;
+        byte[] desc = new byte[length];
+        ring.position(offset + OFFSET_SHORT_DESC);
+        ring.get(desc);
+        return new String(desc, UTF_8);
+    }
+
+    private Object[] row(String[] columns, MappedByteBuffer ring, long locationId, int slot,
+                         LocationRow location) {
+        int offset = recordOffset(slot);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i];
+            if (LocationEntry.TABLE_NAME.equals(tableOf(column)) &&
+                    LocationEntry._ID.equals(nameOf(column))) {
+                row[i] = locationId;
+                continue;
+            }
+            String name = nameOf(column);
+            if (WeatherEntry._ID.equals(name)) {
+                row[i] = rowId(locationId, slot);
+            } else if (WeatherEntry.COLUMN_LOC_KEY.equals(name)) {
+                row[i] = locationId;
+            } else if (WeatherEntry.COLUMN_DATE.equals(name)) {
+                row[i] = ring.getLong(offset + OFFSET_DATE);
+            } else if (WeatherEntry.COLUMN_SHORT_DESC.equals(name)) {
+                row[i] = readShortDesc(ring, offset);
+            } else if (WeatherEntry.COLUMN_WEATHER_ID.equals(name)) {
+                row[i] = ring.getInt(offset + OFFSET_WEATHER_ID);
+            } else if (WeatherEntry.COLUMN_MIN_TEMP.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_MIN_TEMP);
+            } else if (WeatherEntry.COLUMN_MAX_TEMP.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_MAX_TEMP);
+            } else if (WeatherEntry.COLUMN_HUMIDITY.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_HUMIDITY);
+            } else if (WeatherEntry.COLUMN_PRESSURE.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_PRESSURE);
+            } else if (WeatherEntry.COLUMN_WIND_SPEED.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_WIND_SPEED);
+            } else if (WeatherEntry.COLUMN_DEGREES.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_DEGREES);
+            } else if (WeatherEntry.COLUMN_MIN_TEMP_F.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_MIN_TEMP_F);
+            } else if (WeatherEntry.COLUMN_MAX_TEMP_F.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_MAX_TEMP_F);
+            } else if (WeatherEntry.COLUMN_WIND_SPEED_MPH.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_WIND_SPEED_MPH);
+            } else if (WeatherEntry.COLUMN_WIND_SECTOR.equals(name)) {
+                row[i] = ring.getInt(offset + OFFSET_WIND_SECTOR);
+            } else if (WeatherEntry.COLUMN_FEELS_LIKE.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_FEELS_LIKE);
+            } else if (WeatherEntry.COLUMN_FEELS_LIKE_F.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_FEELS_LIKE_F);
+            } else if (WeatherEntry.COLUMN_DEW_POINT.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_DEW_POINT);
+            } else if (WeatherEntry.COLUMN_DEW_POINT_F.equals(name)) {
+                row[i] = ring.getDouble(offset + OFFSET_DEW_POINT_F);
+            } else if (LocationEntry.COLUMN_LOCATION_SETTING.equals(name)) {
+                row[i] = location.setting;
+            } else if (LocationEntry.COLUMN_CITY_NAME.equals(name)) {
+                row[i] = location.cityName;
+            } else if (LocationEntry.COLUMN_COORD_LAT.equals(name)) {
+                row[i] = location.lat;
+            } else {
+                row[i] = location.lon;
+            }
+        }
+        return row;
+    }
+
+    // Checks the projection against the columns we can serve, filling in the default for null
+    private static String[] resolveProjection(String[] projection, boolean withLocation) {
+        if (null == projection) {
+            if (!withLocation) return WEATHER_COLUMNS;
+            String[] all = new String[WEATHER_COLUMNS.length + LOCATION_COLUMNS.length];
+            System.arraycopy(WEATHER_COLUMNS, 0, all, 0, WEATHER_COLUMNS.length);
+            System.arraycopy(LOCATION_COLUMNS, 0, all, WEATHER_COLUMNS.length, LOCATION_COLUMNS.length);
+            return all;
+        }
+        for (String column : projection) {
+            String table = tableOf(column);
+            String name = nameOf(column);
+            boolean known;
+            if (LocationEntry.TABLE_NAME.equals(table)) {
+                known = withLocation && (LocationEntry._ID.equals(name) || contains(LOCATION_COLUMNS, name));
+            } else {
+                known = contains(WEATHER_COLUMNS, name) ||
+                        (withLocation && null == table && contains(LOCATION_COLUMNS, name));
+            }
+            if (!known) {
+                throw new IllegalArgumentException("RingForecastStore has no column " + column);
+            }
+        }
+        return projection;
+    }
+
+    // SQLite names a result column after the bare column, so "weather._id" comes back as "_id"
+    private static String[] cursorColumns(String[] columns) {
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = nameOf(columns[i]);
+        }
+        return names;
+    }
+
+    private static String tableOf(String column) {
+        int dot = column.lastIndexOf('.');
+        return dot < 0 ? null : column.substring(0, dot);
+    }
+
+    private static String nameOf(String column) {
+        return column.substring(column.lastIndexOf('.') + 1);
+    }
+
+    private static boolean contains(String[] array, String value) {
+        for (String s : array) {
+            if (s.equals(value)) return true;
+        }
+        return false;
+    }
+
+    private static DatePredicate parseSelection(String selection, String[] selectionArgs) {
+        if (null == selection) {
+            return new DatePredicate(null, 0);
+        }
+        Matcher matcher = DATE_SELECTION.matcher(selection);
+        if (!matcher.matches() || null == selectionArgs || selectionArgs.length != 1) {
+            throw new UnsupportedOperationException(
+                    "RingForecastStore only supports a comparison on the date, not: " + selection);
+        }
+        return new DatePredicate(matcher.group(1), Long.parseLong(selectionArgs[0]));
+    }
+
+    // The occupied slots of a ring, oldest day first
+    private static int[] sortedSlots(MappedByteBuffer ring) {
+        int[] slots = new int[SLOTS];
+        long[] dates = new long[SLOTS];
+        int count = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long date = ring.getLong(recordOffset(slot) + OFFSET_DATE);
+            if (date == 0) continue;
+            // insertion sort; there are never more than SLOTS entries
+            int i = count++;
+            while (i > 0 && dates[i - 1] > date) {
+                dates[i] = dates[i - 1];
+                slots[i] = slots[i - 1];
+                i--;
+            }
+            dates[i] = date;
+            slots[i] = slot;
+        }
+        int[] result = new int[count];
+        System.arraycopy(slots, 0, result, 0, count);
+        return result;
+    }
+
+    // Dates are the start of a local day, which is not a whole number of UTC days from the
+    // epoch, nor always 24 hours after the day before.  Dividing by a day would put the Sunday
+    // and the Monday of a 0 to +1 change (Europe/London's spring one) in the same slot, so the
+    // slot goes by the local Julian day instead.
+    private static int slotFor(long date) {
+        return JulianDays.fromMillis(date) % SLOTS;
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    // Row ids name a slot, so they stay stable while a day sits in the ring
+    private static long rowId(long locationId, int slot) {
+        return locationId * SLOTS + slot;
+    }
+
+    private File ringFile(long locationId) {
+        return new File(mDirectory, locationId + FILE_SUFFIX);
+    }
+
+    private ArrayList<Long> listLocationIds() {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        String[] names = mDirectory.list();
+        if (null == names) return ids;
+        for (String name : names) {
+            if (!name.endsWith(FILE_SUFFIX)) continue;
+            try {
+                ids.add(Long.parseLong(name.substring(0, name.length() - FILE_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Ignoring stray file " + name);
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    // The setting of the location with the given id, or null if there is no such location
+    private String findSetting(long locationId) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private LocationRow findLocation(String locationSetting) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_NAME,
+                        LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (!cursor.moveToFirst()) return null;
+            LocationRow location = new LocationRow();
+            location.id = cursor.getLong(0);
+            location.setting = locationSetting;
+            location.cityName = cursor.getString(1);
+            location.lat = cursor.getDouble(2);
+            location.lon = cursor.getDouble(3);
+            return location;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteRing(long locationId) {
+        mRings.remove(locationId);
+        File file = ringFile(locationId);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Couldn't delete the ring file for location " + locationId);
+        }
+    }
+
+    // Maps the ring file for a location, creating it first when asked to.  Returns null when
+    // there is no file and create is false, when there is no such location, or when the file
+    // can't be mapped.
+    private MappedByteBuffer openRing(long locationId, boolean create) {
+        MappedByteBuffer ring = mRings.get(locationId);
+        if (null != ring) return ring;
+
+        File file = ringFile(locationId);
+        if (!file.exists() && !create) return null;
+        String setting = findSetting(locationId);
+        if (null == setting) {
+            // Left behind by a location that was deleted, or by a database that was rebuilt
+            deleteRing(locationId);
+            return null;
+        }
+        if (!file.exists()) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(LOG_TAG, "Couldn't create " + mDirectory);
+                return null;
+            }
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(FILE_SIZE);
+            // The mapping stays valid after the file is closed
+            ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't map " + file, e);
+            return null;
+        } finally {
+            if (null != raf) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing we can do
+                }
+            }
+        }
+
+        byte[] settingBytes = setting.getBytes(UTF_8);
+        int settingLength = cutLength(settingBytes, SETTING_BYTES);
+        if (ring.getInt(0) != MAGIC || ring.getInt(4) != VERSION ||
+                ring.getInt(8) != SLOTS || ring.getInt(12) != RECORD_SIZE ||
+                !headerHasSetting(ring, settingBytes, settingLength)) {
+            // A new file, one written by another version, or one written for an earlier location
+            // with this id.  It's only a cache, so start over.
+            for (int slot = 0; slot < SLOTS; slot++) {
+                ring.putLong(recordOffset(slot) + OFFSET_DATE, 0);
+            }
+            ring.putInt(0, MAGIC);
+            ring.putInt(4, VERSION);
+            ring.putInt(8, SLOTS);
+            ring.putInt(12, RECORD_SIZE);
+            ring.put(OFFSET_SETTING_LENGTH, (byte) settingLength);
+            ring.position(OFFSET_SETTING);
+            ring.put(settingBytes, 0, settingLength);
+            ring.force();
+        }
+        mRings.put(locationId, ring);
+        return ring;
+    }
+
+    private static boolean headerHasSetting(MappedByteBuffer ring, byte[] setting, int length) {
+        if ((ring.get(OFFSET_SETTING_LENGTH) & 0xff) != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (ring.get(OFFSET_SETTING + i) != setting[i]) return false;
+        }
+        return true;
+    }
+}
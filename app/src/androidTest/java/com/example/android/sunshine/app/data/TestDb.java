@@ -17,6 +17,7 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
@@ -55,6 +56,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.CurrentForecastEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.TodayForecastEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +94,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_FETCHED);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -105,6 +109,21 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        A new file should be created with incremental auto-vacuum already on, so the first
+        maintenance run has no reason to rebuild it with a full VACUUM.
+     */
+    public void testNewDbUsesIncrementalAutoVacuum() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals("Error: a new database should use incremental auto-vacuum",
+                    2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        } finally {
+            helper.close();
+        }
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -177,6 +196,67 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        current_forecast is only ever written by the triggers, so check that every kind of
+        write to the weather and location tables shows up in it.
+     */
+    public void testCurrentForecastFollowsWrites() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        assertTrue(weatherRowId != -1);
+
+        // The copy carries the weather row, its id, and the location columns
+        Cursor cursor = queryCurrentForecast(db);
+        assertTrue("Error: The inserted weather wasn't copied to current_forecast",
+                cursor.moveToFirst());
+        assertEquals(weatherRowId,
+                cursor.getLong(cursor.getColumnIndex(WeatherContract.CurrentForecastEntry._ID)));
+        TestUtilities.validateCurrentRecord("Error: current_forecast weather columns",
+                cursor, weatherValues);
+        TestUtilities.validateCurrentRecord("Error: current_forecast location columns",
+                cursor, TestUtilities.createNorthPoleLocationValues());
+        cursor.close();
+
+        // A second row for the same day replaces the first, here as in the weather table
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80.5);
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        cursor = queryCurrentForecast(db);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("Error: current_forecast after a replace", cursor,
+                weatherValues);
+
+        ContentValues updateValues = new ContentValues();
+        updateValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        db.update(WeatherContract.WeatherEntry.TABLE_NAME, updateValues, null, null);
+        weatherValues.putAll(updateValues);
+        cursor = queryCurrentForecast(db);
+        TestUtilities.validateCursor("Error: current_forecast after a weather update", cursor,
+                weatherValues);
+
+        updateValues = new ContentValues();
+        updateValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, updateValues, null, null);
+        cursor = queryCurrentForecast(db);
+        TestUtilities.validateCursor("Error: current_forecast after a location update", cursor,
+                updateValues);
+
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        cursor = queryCurrentForecast(db);
+        assertEquals("Error: deleted weather is still in current_forecast", 0, cursor.getCount());
+        cursor.close();
+
+        dbHelper.close();
+    }
+
+    private static Cursor queryCurrentForecast(SQLiteDatabase db) {
+        return db.query(WeatherContract.CurrentForecastEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
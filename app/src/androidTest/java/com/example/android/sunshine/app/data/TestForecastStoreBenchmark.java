@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/*
+    Benchmark of the ForecastStore implementations.  For each store it times a sync's worth of
+    ingest (one bulk insert of 14 days per location) and then the forecast list read that
+    ForecastFragment's loader makes.  Results go to logcat under this class' tag.
+ */
+public class TestForecastStoreBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastStoreBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "store_benchmark.db";
+    private static final int LOCATIONS = 50;
+    private static final int DAYS = 14;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    public void testCompareStores() {
+        File ringDirectory = new File(mContext.getCacheDir(), "ring_benchmark");
+        String[] names = {"SQLITE", "RING"};
+
+        for (int i = 0; i < names.length; i++) {
+            mContext.deleteDatabase(DB_NAME);
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, DB_NAME,
+                    WeatherDbHelper.DEFAULT_STORAGE_PROFILE);
+            ForecastStore store = (i == 0) ? new SqliteForecastStore(helper) :
+                    new RingForecastStore(helper, ringDirectory);
+            try {
+                long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+                long[] locationIds = insertLocations(helper);
+
+                long[] ingest = new long[LOCATIONS];
+                for (int l = 0; l < LOCATIONS; l++) {
+                    ContentValues[] forecast = createForecast(locationIds[l], startDate);
+                    long start = System.nanoTime();
+                    store.bulkInsertWeather(forecast);
+                    ingest[l] = (System.nanoTime() - start) / 1000;
+                }
+
+                long[] list = timeForecastList(store, startDate);
+                Log.i(LOG_TAG, names[i] + ": ingest of " + DAYS + " days median " +
+                        TestUtilities.median(ingest) + "us p90 " +
+                        TestUtilities.percentile(ingest, 90) + "us, forecast list median " +
+                        TestUtilities.median(list) + "us p90 " +
+                        TestUtilities.percentile(list, 90) + "us");
+            } finally {
+                store.deleteWeather(null, null);
+                store.close();
+                helper.close();
+                mContext.deleteDatabase(DB_NAME);
+            }
+        }
+    }
+
+    private long[] insertLocations(WeatherDbHelper helper) {
+        long[] ids = new long[LOCATIONS];
+        for (int l = 0; l < LOCATIONS; l++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + l);
+            ids[l] = helper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null, location);
+        }
+        return ids;
+    }
+
+    private static ContentValues[] createForecast(long locationId, long startDate) {
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        ContentValues[] forecast = new ContentValues[DAYS];
+        for (int d = 0; d < DAYS; d++) {
+            forecast[d] = TestUtilities.createWeatherValues(locationId);
+            forecast[d].put(WeatherEntry.COLUMN_DATE, startDate + d * dayInMillis);
+        }
+        return forecast;
+    }
+
+    // Reads the forecast for a spread of locations and returns each read's time in microseconds
+    private static long[] timeForecastList(ForecastStore store, long startDate) {
+        long[] micros = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            String location = "location" + ((i + WARMUP_ITERATIONS) % LOCATIONS);
+            long start = System.nanoTime();
+            Cursor cursor = store.queryWeatherByLocation(location, startDate, FORECAST_PROJECTION,
+                    WeatherEntry.COLUMN_DATE + " ASC", 0, null);
+            // walk every row, as the list would
+            while (cursor.moveToNext()) {
+                cursor.getLong(1);
+            }
+            cursor.close();
+            if (i >= 0) {
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+        }
+        return micros;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/*
+    Checks that the in-memory mode of WeatherDbHelper and WeatherProvider builds the same schema
+    as the file, serves the same reads, and leaves nothing on disk.
+ */
+public class TestInMemoryDatabase extends AndroidTestCase {
+
+    private static final String SCRATCH_NAME = "in_memory_scratch.db";
+
+    public void testHelperKeepsNoFile() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, WeatherDbHelper.IN_MEMORY,
+                WeatherDbHelper.DEFAULT_STORAGE_PROFILE);
+        assertTrue(helper.isInMemory());
+        assertFalse(new WeatherDbHelper(mContext).isInMemory());
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            // Every table the file gets
+            WeatherDbHelper fileHelper = new WeatherDbHelper(mContext, SCRATCH_NAME,
+                    WeatherDbHelper.DEFAULT_STORAGE_PROFILE);
+            try {
+                assertEquals("Error: The in-memory schema differs from the file's",
+                        schema(fileHelper.getReadableDatabase()), schema(db));
+            } finally {
+                fileHelper.close();
+                mContext.deleteDatabase(SCRATCH_NAME);
+            }
+
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationId != -1);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null,
+                    TestUtilities.createWeatherValues(locationId)) != -1);
+        } finally {
+            helper.close();
+        }
+
+        // Closing the helper throws the database away
+        db = helper.getReadableDatabase();
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testInMemoryProvider() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        File snapshot = new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME);
+        snapshot.delete();
+
+        WeatherProvider provider = new WeatherProvider(WeatherProvider.DATABASE_IN_MEMORY);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = WeatherContract.CONTENT_AUTHORITY;
+        provider.attachInfo(mContext, info);
+        try {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            Uri locationUri = provider.insert(LocationEntry.CONTENT_URI, location);
+            long locationId = ContentUris.parseId(locationUri);
+            assertTrue(locationId != -1);
+
+            ContentValues weather = TestUtilities.createWeatherValues(locationId);
+            provider.insert(WeatherEntry.CONTENT_URI, weather);
+
+            Cursor cursor = provider.query(
+                    WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                            TestUtilities.TEST_DATE),
+                    null, null, null, null);
+            weather.putAll(location);
+            TestUtilities.validateCursor("Error: The in-memory provider lost the forecast",
+                    cursor, weather);
+
+            assertFalse("Error: The in-memory provider wrote weather.db",
+                    mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).exists());
+
+            Bundle mode = provider.call(WeatherContract.METHOD_IS_IN_MEMORY, null, null);
+            assertTrue("Error: The in-memory provider didn't say so",
+                    mode.getBoolean(WeatherContract.IN_MEMORY));
+            assertNull("Error: The in-memory provider exported a snapshot",
+                    provider.call(WeatherContract.METHOD_EXPORT_SNAPSHOT, null, null));
+            assertFalse("Error: The in-memory provider wrote a snapshot", snapshot.exists());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    // The CREATE statements of everything in the database, in name order
+    private static String schema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql NOT NULL" +
+                " ORDER BY name", null);
+        StringBuilder schema = new StringBuilder();
+        try {
+            while (cursor.moveToNext()) {
+                schema.append(cursor.getString(0)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema.toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/*
+    Checks JulianDays against android.text.format.Time, which it replaces, and on the days the
+    clocks change, including in zones that change them at midnight.  Also times both for the
+    sync's and normalizeDate()'s use, and counts what each allocates; the results go to logcat
+    under this class' tag.
+ */
+public class TestJulianDays extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestJulianDays.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final int ITERATIONS = 10000;
+
+    public void testMatchesTime() {
+        Time time = new Time();
+        int today = JulianDays.today();
+        // Two years either side of today, which takes in four of each change of the clocks
+        for (int julianDay = today - 730; julianDay <= today + 730; julianDay++) {
+            assertEquals("Error: day " + julianDay + " starts at the wrong moment",
+                    time.setJulianDay(julianDay), JulianDays.toMillis(julianDay));
+            assertEquals(time.weekDay, JulianDays.getWeekDay(julianDay));
+            assertEquals(time.monthDay, JulianDays.getMonthDay(julianDay));
+            assertEquals(time.month, JulianDays.getMonth(julianDay));
+            assertEquals(time.year, JulianDays.getYear(julianDay));
+            assertEquals(julianDay, JulianDays.fromDate(time.year, time.month, time.monthDay));
+
+            // Any moment during the day is on the day
+            long noon = time.toMillis(false) + 12 * HOUR_IN_MILLIS;
+            assertEquals(Time.getJulianDay(noon, time.gmtoff),
+                    JulianDays.fromMillis(noon, (int) time.gmtoff));
+        }
+    }
+
+    public void testNormalizeDate() {
+        long now = System.currentTimeMillis();
+        Time time = new Time();
+        time.set(now);
+        assertEquals(time.setJulianDay(Time.getJulianDay(now, time.gmtoff)),
+                WeatherContract.normalizeDate(now));
+        assertEquals(WeatherContract.normalizeDate(now),
+                WeatherContract.normalizeDate(WeatherContract.normalizeDate(now)));
+    }
+
+    public void testCalendar() {
+        assertEquals(JulianDays.EPOCH_JULIAN_DAY, JulianDays.fromDate(1970, 0, 1));
+        // A Thursday
+        assertEquals(4, JulianDays.getWeekDay(JulianDays.EPOCH_JULIAN_DAY));
+
+        int leapDay = JulianDays.fromDate(2016, 1, 29);
+        assertEquals(2016, JulianDays.getYear(leapDay));
+        assertEquals(1, JulianDays.getMonth(leapDay));
+        assertEquals(29, JulianDays.getMonthDay(leapDay));
+        assertEquals(JulianDays.fromDate(2016, 2, 1), leapDay + 1);
+        // 1900 wasn't a leap year, 2000 was
+        assertEquals(JulianDays.fromDate(1900, 2, 1), JulianDays.fromDate(1900, 1, 28) + 1);
+        assertEquals(JulianDays.fromDate(2000, 2, 1), JulianDays.fromDate(2000, 1, 28) + 2);
+
+        // Moments before 1970 count down rather than towards zero
+        assertEquals(JulianDays.EPOCH_JULIAN_DAY - 1, JulianDays.fromMillis(-1, 0));
+        assertEquals(JulianDays.EPOCH_JULIAN_DAY, JulianDays.fromMillis(-1, 1));
+        assertEquals(23 * 60 + 59, JulianDays.getMinuteOfDay(-1, 0));
+    }
+
+    public void testClocksChanging() {
+        // The clocks went forward at 2am and back at 2am
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        checkDay(newYork, 2015, 2, 8, 5, 23);
+        checkDay(newYork, 2015, 10, 1, 4, 25);
+
+        // Cuba goes forward at midnight, so the day starts at 1am
+        TimeZone havana = TimeZone.getTimeZone("America/Havana");
+        checkDay(havana, 2015, 2, 8, 5, 23);
+        checkDay(havana, 2015, 10, 1, 4, 25);
+
+        // As did Brazil, which also went back at midnight, so 11pm came round twice
+        TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+        checkDay(saoPaulo, 2014, 9, 19, 3, 23);
+        checkDay(saoPaulo, 2015, 1, 21, 2, 25);
+        checkDay(saoPaulo, 2015, 1, 22, 3, 24);
+
+        // Half hour offsets, and none at all
+        checkDay(TimeZone.getTimeZone("Asia/Kolkata"), 2015, 5, 8, -5.5, 24);
+        checkDay(TimeZone.getTimeZone("UTC"), 2015, 5, 8, 0, 24);
+    }
+
+    /*
+        Checks the day starts the given number of hours after midnight UTC and lasts the given
+        number of hours, and that each end falls on the right day.
+     */
+    private static void checkDay(TimeZone timeZone, int year, int month, int monthDay,
+            double startHour, int hours) {
+        int julianDay = JulianDays.fromDate(year, month, monthDay);
+        String day = timeZone.getID() + " " + year + "-" + (month + 1) + "-" + monthDay;
+        long start = JulianDays.toMillis(julianDay, timeZone);
+        long end = JulianDays.toMillis(julianDay + 1, timeZone);
+
+        assertEquals("Error: " + day + " starts at the wrong moment",
+                JulianDays.toUtcMillis(julianDay) + (long) (startHour * HOUR_IN_MILLIS), start);
+        assertEquals("Error: " + day + " is the wrong length",
+                hours * HOUR_IN_MILLIS, end - start);
+        assertEquals(julianDay, JulianDays.fromMillis(start, timeZone.getOffset(start) / 1000));
+        assertEquals(julianDay, JulianDays.fromMillis(end - 1, timeZone.getOffset(end - 1) / 1000));
+        assertEquals(0, JulianDays.getMinuteOfDay(end, timeZone.getOffset(end) / 1000));
+    }
+
+    public void testFollowsTimeZoneChange() {
+        TimeZone original = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Auckland"));
+            JulianDays.onTimeZoneChanged();
+            assertEquals("Pacific/Auckland", JulianDays.getTimeZone().getID());
+            // Kept until the next change
+            assertSame(JulianDays.getTimeZone(), JulianDays.getTimeZone());
+
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+            JulianDays.onTimeZoneChanged();
+            assertEquals("America/Los_Angeles", JulianDays.getTimeZone().getID());
+        } finally {
+            TimeZone.setDefault(original);
+            JulianDays.onTimeZoneChanged();
+        }
+    }
+
+    public void testCost() {
+        final long now = System.currentTimeMillis();
+        long checksum = 0;
+
+        // Warm both up before anything is timed
+        for (int i = 0; i < ITERATIONS; i++) {
+            checksum += timeDays(now) + julianDays(now);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                checksum += timeDays(now + i);
+            }
+            long timeNanos = (System.nanoTime() - start) / ITERATIONS;
+            int timeAllocations = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                checksum += julianDays(now + i);
+            }
+            long julianNanos = (System.nanoTime() - start) / ITERATIONS;
+            int julianAllocations = Debug.getThreadAllocCount();
+
+            Log.i(LOG_TAG, "normalizing a date: Time " + timeNanos + "ns and " +
+                    (timeAllocations / ITERATIONS) + " allocations per call, JulianDays " +
+                    julianNanos + "ns and " + julianAllocations + " allocations in all (" +
+                    checksum + ")");
+            assertTrue("Error: JulianDays allocated " + julianAllocations + " objects",
+                    julianAllocations * 10 < ITERATIONS);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // What normalizeDate() used to do
+    private static long timeDays(long date) {
+        Time time = new Time();
+        time.set(date);
+        return time.setJulianDay(Time.getJulianDay(date, time.gmtoff));
+    }
+
+    private static long julianDays(long date) {
+        return JulianDays.toMillis(JulianDays.fromMillis(date));
+    }
+}
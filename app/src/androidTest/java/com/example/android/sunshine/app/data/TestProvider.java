@@ -24,11 +24,18 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.CityCatalogImporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -61,6 +68,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.CityEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -512,4 +524,598 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        This test checks the call() fast path for today's summary, that it is served from the
+        today_forecast row, and that a write to the weather table updates the row right away.
+     */
+    public void testGetTodaySummary() {
+        // ContentResolver.call() was only added in Honeycomb
+        if ( Build.VERSION.SDK_INT < 11 ) return;
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        // Nothing stored for today yet
+        Bundle summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        assertNull("Error: today summary returned without any weather rows", summary);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        assertNotNull("Error: no today summary returned after inserting today's weather", summary);
+        assertEquals(WeatherContract.normalizeDate(System.currentTimeMillis()),
+                summary.getLong(WeatherEntry.COLUMN_DATE));
+        assertEquals(321, summary.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids", summary.getString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(75.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(65.0, summary.getDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        assertEquals("Error: the insert didn't work out the today row", 75.0, readTodayMax());
+
+        // An update must not be hidden behind a stale today row
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues, null, null);
+
+        summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        assertEquals(80.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals("Error: the update didn't work out the today row again", 80.0,
+                readTodayMax());
+    }
+
+    // The max of the test location's today_forecast row, read straight from the table
+    private double readTodayMax() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        try {
+            Cursor cursor = helper.getReadableDatabase().query(
+                    WeatherContract.TodayForecastEntry.TABLE_NAME,
+                    new String[]{WeatherEntry.COLUMN_MAX_TEMP},
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{TestUtilities.TEST_LOCATION}, null, null, null);
+            assertTrue("Error: no today_forecast row for the test location", cursor.moveToFirst());
+            double max = cursor.getDouble(0);
+            cursor.close();
+            return max;
+        } finally {
+            helper.close();
+        }
+    }
+
+    /*
+        This test checks that provider operations show up in the diagnostics URI, broken down by
+        the URI type they ran against.
+     */
+    public void testDiagnostics() {
+        // start from empty counters
+        mContext.getContentResolver().delete(WeatherContract.DiagnosticsEntry.CONTENT_URI, null, null);
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null).close();
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        boolean sawQuery = false;
+        boolean sawBulkInsert = false;
+        while (cursor.moveToNext()) {
+            String operation = cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_OPERATION));
+            String match = cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_URI_MATCH));
+            long rows = cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_ROWS));
+            if ("query".equals(operation) && "WEATHER_WITH_LOCATION".equals(match)) {
+                sawQuery = true;
+                assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+            } else if ("bulkInsert".equals(operation) && "WEATHER".equals(match)) {
+                sawBulkInsert = true;
+                assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rows);
+            }
+        }
+        cursor.close();
+        assertTrue("Error: weather/* query missing from diagnostics", sawQuery);
+        assertTrue("Error: weather bulkInsert missing from diagnostics", sawBulkInsert);
+    }
+
+    /*
+        A query is only timed once its rows are read, so that query() doesn't run it up front
+        just to time it.  A provider of its own keeps the counters apart from the resolver's,
+        which counts every cursor it hands out.
+     */
+    public void testQueryTimedWhenRead() {
+        WeatherProvider provider = new WeatherProvider(WeatherProvider.DATABASE_IN_MEMORY);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = WeatherContract.CONTENT_AUTHORITY;
+        provider.attachInfo(mContext, info);
+        try {
+            long locationRowId = ContentUris.parseId(provider.insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues()));
+            provider.bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(locationRowId));
+            Uri locationUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+            Cursor unread = provider.query(locationUri, null, null, null, null);
+            unread.close();
+            assertEquals("Error: a query nobody read was timed", 0,
+                    countQueries(provider, "WEATHER_WITH_LOCATION"));
+
+            Cursor read = provider.query(locationUri, null, null, null, null);
+            assertEquals("Error: a query was timed before it was read", 0,
+                    countQueries(provider, "WEATHER_WITH_LOCATION"));
+            assertTrue(read.moveToFirst());
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, read.getCount());
+            read.close();
+            assertEquals("Error: a read query should be timed once", 1,
+                    countQueries(provider, "WEATHER_WITH_LOCATION"));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    // How many queries the provider's diagnostics hold for a URI match name
+    private static long countQueries(WeatherProvider provider, String match) {
+        Cursor cursor = provider.query(WeatherContract.DiagnosticsEntry.CONTENT_URI,
+                null, null, null, null);
+        long count = 0;
+        while (cursor.moveToNext()) {
+            if ("query".equals(cursor.getString(cursor.getColumnIndex(
+                    WeatherContract.DiagnosticsEntry.COLUMN_OPERATION))) &&
+                    match.equals(cursor.getString(cursor.getColumnIndex(
+                            WeatherContract.DiagnosticsEntry.COLUMN_URI_MATCH)))) {
+                count = cursor.getLong(cursor.getColumnIndex(
+                        WeatherContract.DiagnosticsEntry.COLUMN_COUNT));
+            }
+        }
+        cursor.close();
+        return count;
+    }
+
+    /*
+        This test reads the bulk inserted weather back a page at a time and makes sure the pages
+        line up: every row exactly once, in date order.
+     */
+    public void testPagedWeatherQuery() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        final int pageSize = 4;
+        String[] projection = {WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE};
+        Uri pageUri = WeatherEntry.buildFirstPageUri(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), pageSize);
+
+        int seen = 0;
+        long lastDate = Long.MIN_VALUE;
+        while (true) {
+            Cursor cursor = mContext.getContentResolver().query(pageUri, projection, null, null, null);
+            int count = cursor.getCount();
+            assertTrue("Error: page larger than the page size", count <= pageSize);
+            if (count == 0) {
+                cursor.close();
+                break;
+            }
+            long lastLocationId = 0;
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(1);
+                assertTrue("Error: pages are not in date order", date > lastDate);
+                lastDate = date;
+                lastLocationId = cursor.getLong(0);
+                seen++;
+            }
+            cursor.close();
+            pageUri = WeatherEntry.buildNextPageUri(pageUri, lastLocationId, lastDate);
+        }
+        assertEquals("Error: paging did not return every row exactly once",
+                BULK_INSERT_RECORDS_TO_INSERT, seen);
+    }
+
+    /*
+        This test writes a snapshot, empties both tables, and checks that importing the snapshot
+        brings back exactly what was there.
+     */
+    public void testSnapshotRoundTrip() {
+        // ContentResolver.call() was only added in Honeycomb
+        if ( Build.VERSION.SDK_INT < 11 ) return;
+
+        new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME).delete();
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_IMPORT_SNAPSHOT, null, null);
+        assertNull("Error: importing without a snapshot should do nothing", result);
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        testValues.put(LocationEntry.COLUMN_CITY_ID, 5861897L);
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_EXPORT_SNAPSHOT, null, null);
+        assertNotNull("Error: the snapshot wasn't written", result);
+        assertEquals(1, result.getInt(WeatherContract.SnapshotEntry.LOCATION_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.SnapshotEntry.WEATHER_COUNT));
+
+        deleteAllRecordsFromProvider();
+
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_IMPORT_SNAPSHOT, null, null);
+        assertNotNull("Error: the snapshot wasn't read back", result);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.SnapshotEntry.WEATHER_COUNT));
+
+        // The location keeps its id, so the forecasts still point at it
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testSnapshotRoundTrip.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+
+        // ...and its city id, which the sync matches cities by
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null, null);
+        TestUtilities.validateCursor("testSnapshotRoundTrip.  Error validating LocationEntry",
+                cursor, testValues);
+
+        // A damaged file must be refused rather than half loaded
+        try {
+            RandomAccessFile file = new RandomAccessFile(
+                    new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME), "rw");
+            file.seek(20);
+            file.write(0xff);
+            file.close();
+        } catch (IOException e) {
+            fail("Couldn't damage the snapshot: " + e);
+        }
+        result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_IMPORT_SNAPSHOT, null, null);
+        assertNull("Error: a snapshot failing its checksum was imported", result);
+    }
+
+    /*
+        This test makes a few writes and checks that the changes URI returns exactly those, in
+        order, starting after the sequence number we last saw.
+     */
+    public void testChangeLog() {
+        String[] projection = {
+                WeatherContract.ChangeEntry._ID,
+                WeatherContract.ChangeEntry.COLUMN_LOC_KEY,
+                WeatherContract.ChangeEntry.COLUMN_DATE,
+                WeatherContract.ChangeEntry.COLUMN_KIND,
+                WeatherContract.ChangeEntry.COLUMN_EPOCH
+        };
+
+        // Without an epoch we are told to start over, from wherever the log is now
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSinceUri(0, 0), projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(WeatherContract.ChangeEntry.KIND_RESET, cursor.getInt(3));
+        long since = cursor.getLong(0);
+        long epoch = cursor.getLong(4);
+        assertTrue("Error: the database should have an epoch", epoch != 0);
+        cursor.close();
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        long millisecondsInADay = 1000*60*60*24;
+        long thirdDay = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 2 * millisecondsInADay);
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(thirdDay)});
+        assertEquals(3, deleted);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSinceUri(epoch, since), projection,
+                null, null, null);
+        assertEquals("Error: expected one entry per location insert, weather insert and delete",
+                1 + BULK_INSERT_RECORDS_TO_INSERT + deleted, cursor.getCount());
+
+        cursor.moveToFirst();
+        assertEquals(epoch, cursor.getLong(4));
+        assertEquals(locationRowId, cursor.getLong(1));
+        assertEquals(0, cursor.getLong(2));
+        assertEquals(WeatherContract.ChangeEntry.KIND_INSERT, cursor.getInt(3));
+        long lastSequence = cursor.getLong(0);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            cursor.moveToNext();
+            assertTrue("Error: sequence numbers must increase", cursor.getLong(0) > lastSequence);
+            lastSequence = cursor.getLong(0);
+            assertEquals(locationRowId, cursor.getLong(1));
+            assertEquals(WeatherContract.normalizeDate(
+                            bulkInsertContentValues[i].getAsLong(WeatherEntry.COLUMN_DATE)),
+                    cursor.getLong(2));
+            assertEquals(WeatherContract.ChangeEntry.KIND_INSERT, cursor.getInt(3));
+        }
+        while (cursor.moveToNext()) {
+            assertTrue(cursor.getLong(2) <= thirdDay);
+            assertEquals(WeatherContract.ChangeEntry.KIND_DELETE, cursor.getInt(3));
+            lastSequence = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // Nothing new since the last entry
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSinceUri(epoch, lastSequence), projection,
+                null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // A sequence from another epoch means nothing here, however it compares with ours
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSinceUri(epoch + 1, since), projection,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(WeatherContract.ChangeEntry.KIND_RESET, cursor.getInt(3));
+        assertEquals(epoch, cursor.getLong(4));
+        cursor.close();
+
+        // A sequence the log has never reached means the caller has to start over
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.ChangeEntry.buildChangesSinceUri(epoch, lastSequence + 1000),
+                projection,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(WeatherContract.ChangeEntry.KIND_RESET, cursor.getInt(3));
+        assertEquals(lastSequence, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        This test searches for a stored location and for catalog cities by the start of their
+        names, and checks that a city we already hold a location for is only listed once.
+     */
+    public void testLocationSearch() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        ContentValues[] cities = new ContentValues[3];
+        String[][] names = {{"North Pole", "US"}, {"Northampton", "GB"}, {"Mountain View", "US"}};
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = new ContentValues();
+            cities[i].put(WeatherContract.CityEntry._ID, 1000 + i);
+            cities[i].put(WeatherContract.CityEntry.COLUMN_CITY_NAME, names[i][0]);
+            cities[i].put(WeatherContract.CityEntry.COLUMN_COUNTRY, names[i][1]);
+            cities[i].put(WeatherContract.CityEntry.COLUMN_COORD_LAT, 10.0 * i);
+            cities[i].put(WeatherContract.CityEntry.COLUMN_COORD_LONG, -10.0 * i);
+        }
+        assertEquals(3, mContext.getContentResolver().bulkInsert(
+                WeatherContract.CityEntry.CONTENT_URI, cities));
+
+        String[] projection = {
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                LocationEntry.COLUMN_CITY_NAME,
+                WeatherContract.LocationSearchEntry.COLUMN_SOURCE
+        };
+
+        // Our location first, then the catalog, each by name
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationSearchEntry.buildSearchUri("NOR"), projection,
+                null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        assertEquals(WeatherContract.LocationSearchEntry.SOURCE_LOCATION, cursor.getInt(2));
+        cursor.moveToNext();
+        assertEquals("North Pole,US", cursor.getString(0));
+        assertEquals(WeatherContract.LocationSearchEntry.SOURCE_CATALOG, cursor.getInt(2));
+        cursor.moveToNext();
+        assertEquals("Northampton,GB", cursor.getString(0));
+        cursor.close();
+
+        // Every word has to match the start of some word
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationSearchEntry.buildSearchUri("moun vi"), projection,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals("Mountain View", cursor.getString(1));
+        cursor.close();
+
+        // Once the catalog city is a location of ours it isn't offered twice
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "Northampton,GB");
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Northampton");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationSearchEntry.buildSearchUri("northampton"), projection,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(WeatherContract.LocationSearchEntry.SOURCE_LOCATION, cursor.getInt(2));
+        cursor.close();
+
+        // Query syntax in the text is just more separators
+        assertEquals("north* pole*", LocationSearch.toMatchExpression("\"North\" -pole"));
+        assertNull(LocationSearch.toMatchExpression(" *-\" "));
+    }
+
+    private long insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, values));
+    }
+
+    /*
+        This test checks that the nearby URI finds the locations within the radius, nearest
+        first, including across the antimeridian.
+     */
+    public void testNearbyLocations() {
+        // A hundredth of a degree of latitude is about 1.1km
+        long here = insertLocation("here", 64.7488, -147.353);
+        long near = insertLocation("near", 64.7588, -147.353);
+        insertLocation("far", 64.8488, -147.353);
+        long east = insertLocation("east", 0, 179.99);
+
+        String[] projection = {
+                LocationEntry._ID,
+                WeatherContract.NearbyLocationEntry.COLUMN_DISTANCE
+        };
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.NearbyLocationEntry.buildNearbyUri(64.7489, -147.353, 2000, 10),
+                projection, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(here, cursor.getLong(0));
+        assertTrue(cursor.getDouble(1) < 20);
+        cursor.moveToNext();
+        assertEquals(near, cursor.getLong(0));
+        assertTrue(cursor.getDouble(1) > 1000 && cursor.getDouble(1) < 1200);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.NearbyLocationEntry.buildNearbyUri(64.7489, -147.353, 2000, 1),
+                projection, null, null, null);
+        assertEquals("Error: the limit wasn't applied", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.NearbyLocationEntry.buildNearbyUri(0, -179.995, 5000, 10),
+                projection, null, null, null);
+        assertTrue("Error: nothing found across the antimeridian", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(east, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        This test bulk inserts locations, including one that is already stored, which should be
+        skipped without failing the rest of the batch.
+     */
+    public void testBulkInsertLocations() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        ContentValues[] values = new ContentValues[3];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestUtilities.createNorthPoleLocationValues();
+            values[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "bulk" + i);
+        }
+        values[1] = TestUtilities.createNorthPoleLocationValues();
+
+        assertEquals(2, mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        This test streams both forms of the city list through the importer, with more cities
+        than fit in one batch, and looks a few of them up again.
+     */
+    public void testCityCatalogImport() throws IOException {
+        // The importer needs JsonReader
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        int cities = CityCatalogImporter.BATCH_SIZE + 10;
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= cities; i++) {
+            lines.append("{\"_id\":").append(i).append(",\"name\":\"City ").append(i)
+                    .append("\",\"country\":\"GB\",\"coord\":{\"lon\":-0.1,\"lat\":51.5}}\n");
+        }
+        // Missing its coordinates, so it is skipped
+        lines.append("{\"_id\":0,\"name\":\"Nowhere\",\"country\":\"GB\"}\n");
+        assertEquals(cities, CityCatalogImporter.importCatalog(mContext.getContentResolver(),
+                new ByteArrayInputStream(lines.toString().getBytes("UTF-8"))));
+
+        // The array form replaces by id, and unknown keys are skipped
+        String array = "[{\"id\":1,\"name\":\"London\",\"state\":\"\",\"country\":\"GB\"," +
+                "\"coord\":{\"lon\":-0.12574,\"lat\":51.50853}}]";
+        assertEquals(1, CityCatalogImporter.importCatalog(mContext.getContentResolver(),
+                new ByteArrayInputStream(array.getBytes("UTF-8"))));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.CityEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(cities, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherContract.CityEntry.CONTENT_URI,
+                new String[]{WeatherContract.CityEntry.COLUMN_CITY_NAME,
+                        WeatherContract.CityEntry.COLUMN_COORD_LAT},
+                WeatherContract.CityEntry._ID + " = ?", new String[]{"1"}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("London", cursor.getString(0));
+        assertEquals(51.50853, cursor.getDouble(1));
+        cursor.close();
+
+        // The replaced city is found by its new name only
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationSearchEntry.buildSearchUri("lond"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationSearchEntry.buildSearchUri("city 1", 100), null,
+                null, null, null);
+        assertTrue(cursor.getCount() > 0);
+        while (cursor.moveToNext()) {
+            assertFalse("City 1,GB".equals(cursor.getString(
+                    cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING))));
+        }
+        cursor.close();
+    }
+
+    /*
+        This test checks that weather written without its derived columns gets them from the
+        provider, on insert and again on update.
+     */
+    public void testWeatherIsEnriched() {
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION, 64.7488, -147.353);
+        ContentValues weather = TestUtilities.createWeatherValues(locationId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weather);
+        assertFalse("Error: the caller's values shouldn't change",
+                weather.containsKey(WeatherEntry.COLUMN_MAX_TEMP_F));
+
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        String[] projection = {
+                WeatherEntry.COLUMN_MAX_TEMP_F,
+                WeatherEntry.COLUMN_WIND_SECTOR,
+                WeatherEntry.COLUMN_DEW_POINT,
+                WeatherEntry.COLUMN_FEELS_LIKE_F
+        };
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(167.0, cursor.getDouble(0), 0.01);
+        assertEquals(WeatherEntry.WIND_SECTOR_N, cursor.getInt(1));
+        assertFalse("Error: dew point missing", cursor.isNull(2));
+        assertFalse("Error: feels like missing", cursor.isNull(3));
+        cursor.close();
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+        update.put(WeatherEntry.COLUMN_DEGREES, 180.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)});
+        cursor = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(68.0, cursor.getDouble(0), 0.01);
+        assertEquals(WeatherEntry.WIND_SECTOR_S, cursor.getInt(1));
+        cursor.close();
+    }
 }
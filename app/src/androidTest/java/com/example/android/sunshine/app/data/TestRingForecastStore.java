@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/*
+    Runs the ForecastStore conformance suite against the memory-mapped ring files, plus the
+    behaviour that only a ring has.
+ */
+public class TestRingForecastStore extends ForecastStoreConformanceTest {
+
+    private File mDirectory;
+
+    @Override
+    ForecastStore createStore(WeatherDbHelper helper) {
+        mDirectory = new File(mContext.getCacheDir(), "ring_conformance");
+        deleteDirectory();
+        return new RingForecastStore(helper, mDirectory);
+    }
+
+    @Override
+    void destroyStore() {
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testNewDayOverwritesOldestSlot() {
+        mStore.insertWeather(createWeather(mLocationId, mToday, 70.5));
+        long wrapped = mToday + RingForecastStore.SLOTS * DAY_IN_MILLIS;
+        assertTrue(mStore.insertWeather(createWeather(mLocationId, wrapped, 80.5)) > 0);
+
+        Cursor cursor = mStore.queryWeather(new String[]{WeatherEntry.COLUMN_DATE},
+                null, null, null, 0, null);
+        assertEquals("Error: a day SLOTS days on should take over the oldest day's slot",
+                1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(wrapped, cursor.getLong(0));
+        cursor.close();
+
+        // ...and the day it pushed out can't come back
+        assertEquals(-1, mStore.insertWeather(createWeather(mLocationId, mToday, 70.5)));
+    }
+
+    public void testSurvivesReopen() {
+        mStore.insertWeather(createWeather(mLocationId, mToday, 70.5));
+        mStore.close();
+        mStore = new RingForecastStore(mHelper, mDirectory);
+
+        Cursor cursor = mStore.queryWeatherByLocationAndDate(TestUtilities.TEST_LOCATION, mToday,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null);
+        assertTrue("Error: the ring file should keep its rows across stores", cursor.moveToFirst());
+        assertEquals(70.5, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    public void testUnsupportedSelection() {
+        try {
+            mStore.deleteWeather(WeatherEntry.COLUMN_WEATHER_ID + " = ?", new String[]{"800"});
+            fail("Error: the ring store should refuse selections it can't evaluate");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    // What onUpgrade leaves behind: the location table was rebuilt without the store knowing,
+    // and the same id now belongs to another place
+    public void testRingOfReplacedLocationIsEmptied() {
+        mStore.insertWeather(createWeather(mLocationId, mToday, 70.5));
+        mStore.close();
+        mHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME, null, null);
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry._ID, mLocationId);
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "10001");
+        mHelper.getWritableDatabase().insert(LocationEntry.TABLE_NAME, null, values);
+        mStore = new RingForecastStore(mHelper, mDirectory);
+
+        Cursor cursor = mStore.queryWeatherByLocation("10001", 0,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, 0, null);
+        assertEquals("Error: a ring written for another location was read", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testRingOfDeletedLocationIsDropped() {
+        mStore.insertWeather(createWeather(mOtherLocationId, mToday, 70.5));
+        mStore.close();
+        mHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mOtherLocationId)});
+        mStore = new RingForecastStore(mHelper, mDirectory);
+
+        Cursor cursor = mStore.queryWeather(new String[]{WeatherEntry.COLUMN_DATE},
+                null, null, null, 0, null);
+        assertEquals("Error: a deleted location's ring was read", 0, cursor.getCount());
+        cursor.close();
+        assertFalse(new File(mDirectory, mOtherLocationId + ".ring").exists());
+    }
+}
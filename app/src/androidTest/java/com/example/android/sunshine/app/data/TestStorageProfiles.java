@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Benchmark of the WeatherDbHelper storage profiles, through the path the app reads by:
+    SqliteForecastStore's weather/* query, which is a range scan of current_forecast.  For each
+    profile it fills a database through the store (so the triggers build current_forecast as a
+    sync would), VACUUMs it so the file is laid out with the profile's page size, checks that
+    the profile took, and reopens it so the reads start from a new connection with the
+    profile's cache settings.  It then times the forecast list (from today on) and the today
+    summary (first row from today on).  Results go to logcat under this class' tag; compare the
+    medians to pick DEFAULT_STORAGE_PROFILE.  An in-memory database is timed last, for how much
+    of each read is left to win back.
+
+    The cache holds many more locations than anyone keeps, so that the file is larger than the
+    default page cache and the reads, spread over every location, actually go to the file.
+ */
+public class TestStorageProfiles extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestStorageProfiles.class.getSimpleName();
+
+    private static final int LOCATIONS = 1000;
+    private static final int DAYS = 16;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 500;
+
+    // The columns ForecastFragment's loader asks weather/* for
+    private static final String[] FORECAST_LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            WeatherEntry.COLUMN_MAX_TEMP_F,
+            WeatherEntry.COLUMN_MIN_TEMP_F
+    };
+
+    // The columns of WeatherProvider's today summary, read as a one row page
+    private static final String[] TODAY_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    public void testCompareStorageProfiles() {
+        int[] profiles = {
+                WeatherDbHelper.STORAGE_PROFILE_DEFAULT,
+                WeatherDbHelper.STORAGE_PROFILE_LARGE_CACHE,
+                WeatherDbHelper.STORAGE_PROFILE_MMAP,
+                WeatherDbHelper.STORAGE_PROFILE_DEFAULT
+        };
+        String[] names = {"DEFAULT", "LARGE_CACHE", "MMAP", "IN_MEMORY"};
+        // The last run has no file at all, as the floor the file profiles are measured against
+        boolean[] inMemory = {false, false, false, true};
+
+        for (int i = 0; i < profiles.length; i++) {
+            String dbName = inMemory[i] ? WeatherDbHelper.IN_MEMORY : "benchmark_" + names[i] + ".db";
+            if (null != dbName) mContext.deleteDatabase(dbName);
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, dbName, profiles[i]);
+            try {
+                long startDate = fill(helper);
+                if (!inMemory[i]) {
+                    SQLiteDatabase db = helper.getWritableDatabase();
+                    db.execSQL("VACUUM");
+                    if (profiles[i] != WeatherDbHelper.STORAGE_PROFILE_DEFAULT) {
+                        assertEquals("Error: the " + names[i] + " page size didn't take",
+                                WeatherDbHelper.PROFILE_PAGE_SIZE,
+                                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null));
+                    }
+                    // Start the reads from a new connection, set up by onOpen() as the
+                    // provider's would be
+                    helper.close();
+                    helper = new WeatherDbHelper(mContext, dbName, profiles[i]);
+                }
+                SqliteForecastStore store = new SqliteForecastStore(helper);
+
+                long[] list = time(store, FORECAST_LIST_PROJECTION, 0, startDate);
+                long[] today = time(store, TODAY_PROJECTION, 1, startDate);
+                Log.i(LOG_TAG, names[i] + ": forecast list median " +
+                        TestUtilities.median(list) + "us p90 " +
+                        TestUtilities.percentile(list, 90) + "us, today median " +
+                        TestUtilities.median(today) + "us p90 " +
+                        TestUtilities.percentile(today, 90) + "us");
+            } finally {
+                helper.close();
+                if (null != dbName) mContext.deleteDatabase(dbName);
+            }
+        }
+    }
+
+    // Stores DAYS days for every location through the store, one bulk insert per location as
+    // the sync does, and returns the first day
+    private long fill(WeatherDbHelper helper) {
+        long startDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        SqliteForecastStore store = new SqliteForecastStore(helper);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        for (int l = 0; l < LOCATIONS; l++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + l);
+            long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+            ContentValues[] forecast = new ContentValues[DAYS];
+            for (int d = 0; d < DAYS; d++) {
+                forecast[d] = TestUtilities.createWeatherValues(locationId);
+                // Yesterday too, as the list is read before the sync prunes it
+                forecast[d].put(WeatherEntry.COLUMN_DATE, startDate + (d - 1) * dayInMillis);
+                WeatherEnrichment.enrich(forecast[d]);
+            }
+            store.bulkInsertWeather(forecast);
+        }
+        return startDate;
+    }
+
+    // Reads from a spread of locations and returns each read's time in microseconds
+    private static long[] time(ForecastStore store, String[] projection, int pageSize,
+                               long startDate) {
+        long[] micros = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            // Stride through the locations, so that neighbouring reads share no pages
+            String location = "location" + (((i + WARMUP_ITERATIONS) * 37) % LOCATIONS);
+            long start = System.nanoTime();
+            Cursor cursor = store.queryWeatherByLocation(location, startDate, projection,
+                    WeatherEntry.COLUMN_DATE + " ASC", pageSize, null);
+            // walk every row, as the list and the summary would
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+            cursor.close();
+            if (i >= 0) {
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+        }
+        return micros;
+    }
+}
@@ -36,6 +36,13 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/diagnostics"
+    private static final Uri TEST_DIAGNOSTICS_DIR = WeatherContract.DiagnosticsEntry.CONTENT_URI;
+    private static final Uri TEST_SNAPSHOT = WeatherContract.SnapshotEntry.CONTENT_URI;
+    private static final Uri TEST_CHANGES_DIR = WeatherContract.ChangeEntry.buildChangesSinceUri(7, 42);
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationSearchEntry.buildSearchUri(LOCATION_QUERY);
+    private static final Uri TEST_CITY_CATALOG_DIR = WeatherContract.CityEntry.CONTENT_URI;
+    private static final Uri TEST_NEARBY_LOCATIONS_DIR = WeatherContract.NearbyLocationEntry.buildNearbyUri(51.5, -0.12, 2000, 5);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +60,17 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The DIAGNOSTICS URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_DIR), WeatherProvider.DIAGNOSTICS);
+        assertEquals("Error: The SNAPSHOT URI was matched incorrectly.",
+                testMatcher.match(TEST_SNAPSHOT), WeatherProvider.SNAPSHOT);
+        assertEquals("Error: The CHANGES URI was matched incorrectly.",
+                testMatcher.match(TEST_CHANGES_DIR), WeatherProvider.CHANGES);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The CITY CATALOG URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_CATALOG_DIR), WeatherProvider.CITY_CATALOG);
+        assertEquals("Error: The NEARBY LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_NEARBY_LOCATIONS_DIR), WeatherProvider.NEARBY_LOCATIONS);
     }
 }
@@ -27,6 +27,7 @@ import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 
@@ -163,4 +164,15 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    // For the benchmarks: the value below which the given percent of the timings fall
+    public static long percentile(long[] values, int percent) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    public static long median(long[] values) {
+        return percentile(values, 50);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherEnrichment extends AndroidTestCase {
+
+    private static final double DELTA = 0.01;
+
+    public void testEnrichFillsEveryDerivedColumn() {
+        ContentValues values = TestUtilities.createWeatherValues(1);
+        assertFalse(WeatherEnrichment.isEnriched(values));
+        WeatherEnrichment.enrich(values);
+        assertTrue("Error: a complete row should come back with every derived column",
+                WeatherEnrichment.isEnriched(values));
+
+        assertEquals(167.0, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP_F), DELTA);
+        assertEquals(149.0, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP_F), DELTA);
+        assertEquals(3.42, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED_MPH), DELTA);
+        assertEquals(WeatherEntry.WIND_SECTOR_N,
+                (int) values.getAsInteger(WeatherEntry.COLUMN_WIND_SECTOR));
+    }
+
+    public void testPartialValuesGetWhatTheyCan() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+        WeatherEnrichment.enrich(values);
+        assertEquals(68.0, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP_F), DELTA);
+        assertFalse("Error: dew point needs the humidity too",
+                values.containsKey(WeatherEntry.COLUMN_DEW_POINT));
+        assertFalse(values.containsKey(WeatherEntry.COLUMN_MIN_TEMP_F));
+    }
+
+    public void testWindSector() {
+        assertEquals(WeatherEntry.WIND_SECTOR_N, WeatherEnrichment.windSector(0));
+        assertEquals(WeatherEntry.WIND_SECTOR_N, WeatherEnrichment.windSector(337.5));
+        assertEquals(WeatherEntry.WIND_SECTOR_N, WeatherEnrichment.windSector(360));
+        assertEquals(WeatherEntry.WIND_SECTOR_NW, WeatherEnrichment.windSector(337.4));
+        assertEquals(WeatherEntry.WIND_SECTOR_NE, WeatherEnrichment.windSector(22.5));
+        assertEquals(WeatherEntry.WIND_SECTOR_S, WeatherEnrichment.windSector(180));
+        assertEquals(WeatherEntry.WIND_SECTOR_W, WeatherEnrichment.windSector(270));
+        assertEquals(WeatherEntry.WIND_SECTOR_UNKNOWN, WeatherEnrichment.windSector(-1));
+        assertEquals(WeatherEntry.WIND_SECTOR_UNKNOWN, WeatherEnrichment.windSector(Double.NaN));
+    }
+
+    public void testDewPoint() {
+        assertEquals("Error: saturated air is at its dew point",
+                20.0, WeatherEnrichment.dewPoint(20, 100), DELTA);
+        assertEquals(9.26, WeatherEnrichment.dewPoint(20, 50), DELTA);
+        assertFalse("Error: 0% humidity shouldn't give -infinity",
+                Double.isInfinite(WeatherEnrichment.dewPoint(20, 0)));
+    }
+
+    public void testFeelsLike() {
+        // Wind chill
+        assertEquals(-17.86, WeatherEnrichment.feelsLike(-10, 50, 20), DELTA);
+        // Heat index
+        assertEquals(40.41, WeatherEnrichment.feelsLike(32, 70, 5), DELTA);
+        // Neither: the air temperature itself
+        assertEquals(18.0, WeatherEnrichment.feelsLike(18, 60, 30), DELTA);
+        assertEquals("Error: no wind chill in still air",
+                -10.0, WeatherEnrichment.feelsLike(-10, 50, 2), DELTA);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+
+/**
+ * The Glide requests for art pack images, one for each way the app shows them, so that
+ * ArtWarmupService can fill Glide's disk cache with exactly what each of them will ask for.
+ *
+ * Every request keeps the downloaded image on disk as well as the downscaled one, so a size
+ * the warmup didn't make is still decoded from the disk rather than fetched again.
+ */
+public final class ArtCache {
+
+    private ArtCache() {
+    }
+
+    /**
+     * The art for an ImageView: the forecast list's rows and the detail view.
+     *
+     * @param size the size to load it at, in pixels; the list icon or the today art
+     */
+    public static DrawableRequestBuilder<String> forView(RequestManager requests, String artUrl,
+            int size) {
+        return requests.load(artUrl)
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .override(size, size);
+    }
+
+    /**
+     * The art as a Bitmap, for the widgets and the notification, which can't load into a view.
+     */
+    public static BitmapRequestBuilder<String, Bitmap> forBitmap(RequestManager requests,
+            String artUrl, int width, int height) {
+        return requests.load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .fitCenter()
+                .override(width, height);
+    }
+
+    /**
+     * @return the width of the notification's large icon, in pixels
+     */
+    @SuppressLint("InlinedApi")
+    public static int getLargeIconWidth(Resources resources) {
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    /**
+     * @return the height of the notification's large icon, in pixels
+     */
+    @SuppressLint("InlinedApi")
+    public static int getLargeIconHeight(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+}
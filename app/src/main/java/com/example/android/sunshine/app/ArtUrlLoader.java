@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.example.android.sunshine.app.sync.SunshineHttp;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches Glide's images over the same connections as the sync, through SunshineHttp.  Glide
+ * asks for every http url by way of a GlideUrl, so this covers all the art.
+ */
+class ArtUrlLoader implements StreamModelLoader<GlideUrl> {
+
+    // Wikimedia sends http to https, which HttpURLConnection won't follow by itself
+    private static final int MAX_REDIRECTS = 5;
+
+    static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+        @Override
+        public ModelLoader<GlideUrl, InputStream> build(Context context,
+                GenericLoaderFactory factories) {
+            return new ArtUrlLoader();
+        }
+
+        @Override
+        public void teardown() {
+            // Nothing to do
+        }
+    }
+
+    @Override
+    public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+        return new Fetcher(model);
+    }
+
+    private static class Fetcher implements DataFetcher<InputStream> {
+        private final GlideUrl mUrl;
+        private HttpURLConnection mConnection;
+        private InputStream mStream;
+        private volatile boolean mCancelled;
+
+        Fetcher(GlideUrl url) {
+            mUrl = url;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            URL url = mUrl.toURL();
+            for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+                if (mCancelled) return null;
+                mConnection = SunshineHttp.open(url);
+                // Followed by hand below, so that a change of protocol is followed too
+                mConnection.setInstanceFollowRedirects(false);
+                int status = mConnection.getResponseCode();
+                if (status / 100 == 2) {
+                    mStream = new BufferedInputStream(mConnection.getInputStream());
+                    return mStream;
+                } else if (status / 100 == 3) {
+                    String location = mConnection.getHeaderField("Location");
+                    if (TextUtils.isEmpty(location)) {
+                        throw new IOException("Redirect without a location from " + url);
+                    }
+                    url = new URL(url, location);
+                    mConnection.disconnect();
+                } else {
+                    throw new IOException("Status " + status + " from " + url);
+                }
+            }
+            throw new IOException("Too many redirects from " + mUrl);
+        }
+
+        @Override
+        public void cleanup() {
+            if (mStream != null) {
+                try {
+                    mStream.close();
+                } catch (IOException e) {
+                    // Nothing more to do with it
+                }
+            }
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+
+        @Override
+        public String getId() {
+            // The same as Glide's own loader, so what it cached before stays good
+            return mUrl.toString();
+        }
+
+        @Override
+        public void cancel() {
+            // Checked between redirects; a read in progress runs to its timeout
+            mCancelled = true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches the whole art pack into Glide's disk cache after the art pack changes, at every size
+ * the app shows it: the list icon and today art in the views, the widget's icon, and the
+ * notification's large icon.  Each picture is downloaded once and the smaller versions made
+ * from the copy on disk, so afterwards every one of those finds a picture of its own size
+ * without going to the network.
+ */
+public class ArtWarmupService extends IntentService {
+    private static final String LOG_TAG = ArtWarmupService.class.getSimpleName();
+
+    public ArtWarmupService() {
+        super("ArtWarmupService");
+    }
+
+    public static void start(Context context) {
+        context.startService(new Intent(context, ArtWarmupService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        WeatherConditions conditions = WeatherConditions.get(this);
+        if (conditions.usingLocalGraphics()) return;
+
+        Resources resources = getResources();
+        int iconSize = resources.getDimensionPixelSize(R.dimen.list_icon);
+        int artSize = resources.getDimensionPixelSize(R.dimen.today_icon);
+        int largeIconWidth = ArtCache.getLargeIconWidth(resources);
+        int largeIconHeight = ArtCache.getLargeIconHeight(resources);
+        RequestManager requests = Glide.with(getApplicationContext());
+
+        int warmed = 0;
+        long start = System.currentTimeMillis();
+        for (String artUrl : conditions.getArtUrls()) {
+            try {
+                // One at a time, so the first download is on disk before the next size wants it
+                warm(ArtCache.forView(requests, artUrl, artSize).into(artSize, artSize));
+                warm(ArtCache.forView(requests, artUrl, iconSize).into(iconSize, iconSize));
+                // The widget's rows
+                warm(ArtCache.forBitmap(requests, artUrl, iconSize, iconSize)
+                        .into(iconSize, iconSize));
+                warm(ArtCache.forBitmap(requests, artUrl, largeIconWidth, largeIconHeight)
+                        .into(largeIconWidth, largeIconHeight));
+                warmed++;
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                // Most likely offline; each view still fetches its own when it needs it
+                Log.w(LOG_TAG, "Couldn't fetch " + artUrl, e);
+            }
+        }
+        Log.d(LOG_TAG, "Art pack warmed: " + warmed + " pictures in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static void warm(FutureTarget<?> target)
+            throws InterruptedException, ExecutionException {
+        try {
+            target.get();
+        } finally {
+            // Only the disk copy is wanted; let go of the decoded picture
+            Glide.clear(target);
+        }
+    }
+}
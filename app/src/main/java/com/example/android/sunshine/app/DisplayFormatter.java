@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.JulianDays;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The engine behind Utility's temperature and day formatting.  Every string it hands out is
+ * kept, so formatting a value seen before allocates nothing: temperatures by whole degree over
+ * the range the weather service realistically sends in either unit, and day labels by Julian
+ * day around today.
+ *
+ * The units come from SunshineSettings' snapshot and the time zone from JulianDays.  Day
+ * labels are dropped when the day rolls over or the UTC offset changes, and everything is
+ * dropped when the locale or time zone does.  Safe to use from the loader threads as well as
+ * the main thread.
+ */
+class DisplayFormatter {
+
+    // Covers the coldest and hottest temperatures on record, in Celsius and in Fahrenheit
+    private static final int MIN_CACHED_TEMPERATURE = -130;
+    private static final int MAX_CACHED_TEMPERATURE = 140;
+
+    // Day labels are kept from yesterday through a month out, past the longest forecast
+    private static final int FIRST_LABEL_DAY = -1;
+    private static final int LABEL_DAYS = 32;
+
+    // The kinds of day label, each cached separately
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_DAY_NAME = 2;
+    private static final int LABEL_MONTH_DAY = 3;
+    private static final int LABEL_FULL_FRIENDLY = 4;
+    private static final int LABEL_KINDS = 5;
+
+    private static DisplayFormatter sInstance;
+
+    private final Context mContext;
+    private final SunshineSettings mSettings;
+
+    // What the caches were built for; a change of either throws them away
+    private Locale mLocale;
+    private TimeZone mTimeZone;
+    private int mToday;
+    private int mGmtOff;
+
+    private String mTemperatureFormat;
+    private final String[] mTemperatures =
+            new String[MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 1];
+    private final String[][] mLabels = new String[LABEL_KINDS][LABEL_DAYS];
+
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private final Date mDate = new Date();
+
+    static synchronized DisplayFormatter get(Context context) {
+        if (null == sInstance) {
+            sInstance = new DisplayFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DisplayFormatter(Context context) {
+        mContext = context;
+        mSettings = SunshineSettings.get(context);
+    }
+
+    /**
+     * Formats whichever of the two temperatures matches the units setting.
+     */
+    String formatTemperature(double celsius, double fahrenheit) {
+        return formatTemperature(mSettings.getSnapshot().isMetric() ? celsius : fahrenheit);
+    }
+
+    /**
+     * Formats a temperature, already in the right units, with R.string.format_temperature.
+     */
+    synchronized String formatTemperature(double temperature) {
+        refresh();
+        double magnitude = Math.abs(temperature);
+        // Also false for NaN, which the format spells out
+        if (!(magnitude <= Math.max(-MIN_CACHED_TEMPERATURE, MAX_CACHED_TEMPERATURE))) {
+            return String.format(mTemperatureFormat, temperature);
+        }
+        // The format rounds half up, away from zero, so the table is looked up the same way
+        double whole = Math.floor(magnitude);
+        int rounded = (int) (magnitude - whole < 0.5 ? whole : whole + 1);
+        if (temperature < 0 || 1 / temperature < 0) {
+            // Just below zero (or negative zero) formats as "-0", which isn't worth a slot
+            if (0 == rounded) return String.format(mTemperatureFormat, temperature);
+            rounded = -rounded;
+        }
+        if (rounded < MIN_CACHED_TEMPERATURE || rounded > MAX_CACHED_TEMPERATURE) {
+            return String.format(mTemperatureFormat, temperature);
+        }
+        int slot = rounded - MIN_CACHED_TEMPERATURE;
+        String formatted = mTemperatures[slot];
+        if (null == formatted) {
+            formatted = String.format(mTemperatureFormat, temperature);
+            mTemperatures[slot] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getLabel(displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY,
+                dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    String getFullFriendlyDayString(long dateInMillis) {
+        return getLabel(LABEL_FULL_FRIENDLY, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    String getDayName(long dateInMillis) {
+        return getLabel(LABEL_DAY_NAME, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    String getFormattedMonthDay(long dateInMillis) {
+        return getLabel(LABEL_MONTH_DAY, dateInMillis);
+    }
+
+    private synchronized String getLabel(int kind, long dateInMillis) {
+        refresh();
+        int day = JulianDays.fromMillis(dateInMillis, mGmtOff) - mToday;
+        int slot = day - FIRST_LABEL_DAY;
+        if (slot < 0 || slot >= LABEL_DAYS) {
+            return formatLabel(kind, day, dateInMillis);
+        }
+        String label = mLabels[kind][slot];
+        if (null == label) {
+            label = formatLabel(kind, day, dateInMillis);
+            mLabels[kind][slot] = label;
+        }
+        return label;
+    }
+
+    /*
+        Builds a label from scratch; day is the date's Julian day less today's.  These are the
+        rules Utility always used:
+        For today: "Today, June 8"
+        For tomorrow:  "Tomorrow"
+        For the next 5 days: "Wednesday" (just the day name)
+        For all days after that: "Mon Jun 8"
+     */
+    private String formatLabel(int kind, int day, long dateInMillis) {
+        mDate.setTime(dateInMillis);
+        switch (kind) {
+            case LABEL_FRIENDLY_LONG_TODAY:
+                if (day == 0) {
+                    return mContext.getString(R.string.format_full_friendly_date,
+                            mContext.getString(R.string.today), mMonthDayFormat.format(mDate));
+                }
+                // Otherwise the same as any other day
+            case LABEL_FRIENDLY:
+                if (day < 7) {
+                    return formatLabel(LABEL_DAY_NAME, day, dateInMillis);
+                }
+                return mShortDateFormat.format(mDate);
+            case LABEL_DAY_NAME:
+                if (day == 0) {
+                    return mContext.getString(R.string.today);
+                } else if (day == 1) {
+                    return mContext.getString(R.string.tomorrow);
+                }
+                return mDayNameFormat.format(mDate);
+            case LABEL_MONTH_DAY:
+                return mMonthDayFormat.format(mDate);
+            default:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        formatLabel(LABEL_DAY_NAME, day, dateInMillis),
+                        mMonthDayFormat.format(mDate));
+        }
+    }
+
+    /*
+        Checks the caches are still good for the locale, time zone and day, and clears what
+        isn't.  Runs on every call, so it must not allocate unless something has changed.
+     */
+    private void refresh() {
+        Locale locale = Locale.getDefault();
+        // JulianDays keeps the one TimeZone until the time zone changes
+        TimeZone timeZone = JulianDays.getTimeZone();
+        if (locale != mLocale || timeZone != mTimeZone) {
+            mLocale = locale;
+            mTimeZone = timeZone;
+            // The formats pick up the default locale when they are made, and are given the
+            // time zone the Julian days are worked out in
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            mShortDateFormat.setTimeZone(timeZone);
+            mDayNameFormat = new SimpleDateFormat("EEEE");
+            mDayNameFormat.setTimeZone(timeZone);
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+            mMonthDayFormat.setTimeZone(timeZone);
+            mTemperatureFormat = mContext.getString(R.string.format_temperature);
+            clear(mTemperatures);
+            mToday = Integer.MIN_VALUE;
+        }
+
+        long now = System.currentTimeMillis();
+        int gmtOff = mTimeZone.getOffset(now) / 1000;
+        int today = JulianDays.fromMillis(now, gmtOff);
+        if (today != mToday || gmtOff != mGmtOff) {
+            mToday = today;
+            mGmtOff = gmtOff;
+            for (String[] labels : mLabels) {
+                clear(labels);
+            }
+        }
+    }
+
+    private static void clear(String[] cache) {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = null;
+        }
+    }
+}
@@ -30,7 +30,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -44,8 +43,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private ForecastCursor mCursor;
     final private Context mContext;
+    // The sizes the art is loaded at, so that ForecastArtPrefetcher can load it ahead
+    final private int mIconSize;
+    final private int mTodayArtSize;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
@@ -73,9 +75,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mCursor.getRow(adapterPosition).mDate, this);
             mICM.onClick(this);
         }
     }
@@ -86,10 +86,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        mTodayArtSize = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
         mClickHandler = dh;
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        // Rows are identified by (location, date), so a reload can say which rows moved rather
+        // than that everything changed
+        setHasStableIds(true);
     }
 
     /*
@@ -102,6 +107,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
      */
     @Override
     public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+        long start = System.nanoTime();
         if ( viewGroup instanceof RecyclerView ) {
             int layoutId = -1;
             switch (viewType) {
@@ -116,7 +122,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             }
             View view = LayoutInflater.from(viewGroup.getContext()).inflate(layoutId, viewGroup, false);
             view.setFocusable(true);
-            return new ForecastAdapterViewHolder(view);
+            ForecastAdapterViewHolder holder = new ForecastAdapterViewHolder(view);
+            ListRenderStats.get().recordCreate(viewType, start);
+            return holder;
         } else {
             throw new RuntimeException("Not bound to RecyclerView");
         }
@@ -124,26 +132,16 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        long start = System.nanoTime();
+        // Everything shown was worked out when the row was loaded; see ForecastRow
+        ForecastRow row = mCursor.getRow(position);
+        boolean today = isTodayRow(position);
+        int defaultImage = today ? row.mArtResource : row.mIconResource;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == row.mArtUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+            ArtCache.forView(Glide.with(mContext), row.mArtUrl, getArtSize(position))
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -153,36 +151,23 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(today ? row.mLongDayText : row.mDayText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHighText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+        ListRenderStats.get().recordBind(getItemViewType(position), start);
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -201,6 +186,21 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mICM.getSelectedItemPosition();
     }
 
+    boolean isTodayRow(int position) {
+        return getItemViewType(position) == VIEW_TYPE_TODAY;
+    }
+
+    /**
+     * @return the size, in pixels, the row's art is loaded at
+     */
+    int getArtSize(int position) {
+        return isTodayRow(position) ? mTodayArtSize : mIconSize;
+    }
+
+    ForecastRow getRow(int position) {
+        return mCursor.getRow(position);
+    }
+
     @Override
     public int getItemViewType(int position) {
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
@@ -209,16 +209,61 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     @Override
     public int getItemCount() {
         if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mCursor.getRowCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        // ItemChoiceManager looks up positions from before a reload, which may be gone now
+        if (position < 0 || position >= getItemCount()) return RecyclerView.NO_ID;
+        return mCursor.getRowKey(position);
     }
 
-    public void swapCursor(Cursor newCursor) {
+    /*
+        Takes the new rows and tells the RecyclerView exactly which rows were inserted, removed,
+        moved or changed, so that only those are rebound and animated.  The changes were worked
+        out when the cursor was read, in the background for the loader's cursors.  Rows worked
+        out from something other than what the list shows now are just bound again.
+     */
+    public void swapCursor(ForecastCursor newCursor) {
+        ForecastCursor oldCursor = mCursor;
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (null == newCursor) {
+            if (null != oldCursor) notifyItemRangeRemoved(0, oldCursor.getRowCount());
+        } else if (newCursor.getBaseId() ==
+                (null == oldCursor ? ForecastCursor.NO_BASE : oldCursor.getId())) {
+            dispatchChanges(newCursor.getChanges());
+        } else {
+            notifyDataSetChanged();
+        }
+        mICM.confirmCheckedPositionsById(getItemCount());
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
+    private void dispatchChanges(int[] changes) {
+        for (int i = 0; i < changes.length; i += 3) {
+            int position = changes[i + 1];
+            switch (changes[i]) {
+                case ForecastCursor.OP_REMOVE:
+                    notifyItemRemoved(position);
+                    break;
+                case ForecastCursor.OP_INSERT:
+                    notifyItemInserted(position);
+                    break;
+                case ForecastCursor.OP_MOVE:
+                    notifyItemMoved(position, changes[i + 2]);
+                    break;
+                case ForecastCursor.OP_CHANGE:
+                    notifyItemChanged(position);
+                    break;
+                case ForecastCursor.OP_CHANGE_IF_TODAY_LAYOUT:
+                    if (mUseTodayLayout) notifyItemChanged(position);
+                    break;
+            }
+        }
+    }
+
+    public ForecastCursor getCursor() {
         return mCursor;
     }
 
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads art pack images into Glide's memory cache before the forecast list shows them, so
+ * that a row's own load finds its picture already there rather than popping it in while the
+ * list scrolls.  After each load of the rows it fetches the art for the rows on screen and
+ * the next few past them, and then keeps ahead as the list scrolls.  After each sync,
+ * warm() fetches the art for every day of the new forecast onto the disk cache, so it is
+ * there even if the list is next opened by a new process.
+ *
+ * Glide keys its cache by size and transformation as well as url, so the rows and the
+ * prefetch both make their requests with ArtCache.forView().
+ */
+public class ForecastArtPrefetcher extends RecyclerView.OnScrollListener {
+    private static final String LOG_TAG = ForecastArtPrefetcher.class.getSimpleName();
+
+    // Rows either side of the screen to have ready
+    private static final int LOOKAHEAD_ROWS = 3;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Context mContext;
+    private final RecyclerView mRecyclerView;
+    private final LinearLayoutManager mLayoutManager;
+    private final ForecastAdapter mAdapter;
+
+    // What has been asked for since the rows were loaded, by url, for each size
+    private final HashSet<String> mRequestedIcons = new HashSet<String>();
+    private final HashSet<String> mRequestedArt = new HashSet<String>();
+    // The rows already seen to since then
+    private int mFirstCovered;
+    private int mLastCovered = -1;
+
+    ForecastArtPrefetcher(Context context, RecyclerView recyclerView, ForecastAdapter adapter) {
+        mContext = context;
+        mRecyclerView = recyclerView;
+        mLayoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        mAdapter = adapter;
+    }
+
+    /**
+     * Starts over with the rows just loaded.
+     */
+    void onRowsLoaded() {
+        mRequestedIcons.clear();
+        mRequestedArt.clear();
+        mFirstCovered = 0;
+        mLastCovered = -1;
+        prefetch();
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        prefetch();
+    }
+
+    private void prefetch() {
+        int count = mAdapter.getItemCount();
+        if (0 == count) return;
+
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (RecyclerView.NO_POSITION == first) {
+            // Not laid out yet; a screenful can't be more rows than fit at the icon's height
+            first = 0;
+            last = mRecyclerView.getHeight() / Math.max(1, mAdapter.getArtSize(count - 1));
+        }
+        prefetch(first, last);
+    }
+
+    /**
+     * Fetches the art for the given rows on screen and LOOKAHEAD_ROWS either side of them,
+     * skipping the rows already seen to.
+     */
+    void prefetch(int first, int last) {
+        int count = mAdapter.getItemCount();
+        if (0 == count) return;
+
+        first = Math.max(0, first - LOOKAHEAD_ROWS);
+        last = Math.min(count - 1, last + LOOKAHEAD_ROWS);
+
+        for (int i = first; i <= last; i++) {
+            if (i >= mFirstCovered && i <= mLastCovered) continue;
+            String artUrl = mAdapter.getRow(i).mArtUrl;
+            // Nothing to fetch for the built-in graphics
+            if (null == artUrl) continue;
+            int size = mAdapter.getArtSize(i);
+            HashSet<String> requested = mAdapter.isTodayRow(i) ? mRequestedArt : mRequestedIcons;
+            if (requested.add(artUrl)) {
+                preload(artUrl, size);
+            }
+        }
+        // Grow the covered rows if these touch them, otherwise these are the covered rows now
+        if (first <= mLastCovered + 1 && last >= mFirstCovered - 1) {
+            mFirstCovered = Math.min(mFirstCovered, first);
+            mLastCovered = Math.max(mLastCovered, last);
+        } else {
+            mFirstCovered = first;
+            mLastCovered = last;
+        }
+    }
+
+    /**
+     * Fetches the art for a new forecast onto the disk cache, in the order the list shows it,
+     * so the list has it at hand the next time it is opened, even from a new process.  Does
+     * nothing while the built-in graphics are in use.  Blocks until every picture is fetched,
+     * so call it from a background thread, like the sync's.
+     *
+     * @param weatherIds the condition codes of the forecast's days, today first
+     */
+    public static void warm(Context context, int[] weatherIds) {
+        Context appContext = context.getApplicationContext();
+        WeatherConditions conditions = WeatherConditions.get(appContext);
+        if (conditions.usingLocalGraphics()) return;
+
+        ArrayList<String> artUrls = new ArrayList<String>(weatherIds.length);
+        for (int weatherId : weatherIds) {
+            artUrls.add(conditions.getArtUrl(weatherId));
+        }
+        warm(appContext, artUrls);
+    }
+
+    /**
+     * warm() for art urls, today first.  Null urls are skipped.
+     */
+    static void warm(Context appContext, ArrayList<String> artUrls) {
+        int iconSize = appContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        int artSize = appContext.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        RequestManager requests = Glide.with(appContext);
+        HashSet<String> requested = new HashSet<String>();
+        for (int i = 0; i < artUrls.size(); i++) {
+            String artUrl = artUrls.get(i);
+            if (null == artUrl) continue;
+            try {
+                // Today is shown large at the top of the list, or like any other day on a tablet.
+                // Both are loaded as the rows load them, so that the disk cache holds each size
+                // ready to decode as well as the download.
+                if (0 == i) {
+                    warm(ArtCache.forView(requests, artUrl, artSize).into(artSize, artSize));
+                }
+                if (requested.add(artUrl)) {
+                    warm(ArtCache.forView(requests, artUrl, iconSize).into(iconSize, iconSize));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Most likely offline; the rows fetch their own when they are shown
+                Log.w(LOG_TAG, "Couldn't fetch " + artUrl, e);
+            }
+        }
+    }
+
+    private static void warm(FutureTarget<?> target)
+            throws InterruptedException, ExecutionException {
+        try {
+            target.get();
+        } finally {
+            // Lets go of the decoded picture, which leaves it in this process' memory cache too
+            Glide.clear(target);
+        }
+    }
+
+    // Package-private so that a test can see what is fetched
+    void preload(String artUrl, int size) {
+        ArtCache.forView(Glide.with(mContext), artUrl, size).into(new PreloadTarget(size));
+    }
+
+    /*
+        Lets go of the image as soon as it arrives, which leaves it in the memory cache for
+        the row's own load to find.  Clearing is posted, as Glide doesn't allow it from within
+        its own callback.
+     */
+    private static class PreloadTarget extends SimpleTarget<GlideDrawable> implements Runnable {
+
+        PreloadTarget(int size) {
+            super(size, size);
+        }
+
+        @Override
+        public void onResourceReady(GlideDrawable resource,
+                GlideAnimation<? super GlideDrawable> glideAnimation) {
+            sMainHandler.post(this);
+        }
+
+        @Override
+        public void run() {
+            Glide.clear(this);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.JulianDays;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A forecast cursor with every row read up front: its key, and a ForecastRow with everything
+ * the list shows for it.  The key is the row's (location, date), which is also its stable id
+ * in ForecastAdapter; the row's signature changes whenever anything shown in it does.
+ *
+ * It also carries the changes from the cursor it was read after (its base), worked out with
+ * the rows, so that ForecastAdapter can tell the RecyclerView which rows were inserted,
+ * removed, moved or changed without reading or comparing anything on the main thread.
+ */
+class ForecastCursor extends CursorWrapper {
+
+    // The changes are a flat list of (op, a, b) triples, in the order they are to be applied
+    static final int OP_REMOVE = 0;       // remove position a
+    static final int OP_INSERT = 1;       // insert at position a
+    static final int OP_MOVE = 2;         // move position a to position b
+    static final int OP_CHANGE = 3;       // bind position a again
+    // Bind position a again if the first row has a layout of its own: a row that takes or
+    // leaves the top spot changes layout even if nothing in it changed
+    static final int OP_CHANGE_IF_TODAY_LAYOUT = 4;
+
+    // Small numbers for the location settings seen by this process, which go in the top half of
+    // a row key.  Unlike a hash, two settings never share one.
+    private static final HashMap<String, Integer> sLocationNumbers = new HashMap<String, Integer>();
+
+    // What getBaseId() returns for a cursor worked out from an empty list
+    static final int NO_BASE = -1;
+    private static final AtomicInteger sNextId = new AtomicInteger();
+
+    private final long[] mKeys;
+    private final int[] mSignatures;
+    private final ForecastRow[] mRows;
+    // Ids rather than the base itself, so that a cursor doesn't keep every one before it alive
+    private final int mId = sNextId.getAndIncrement();
+    private final int mBaseId;
+    private final int[] mChanges;
+
+    /**
+     * Reads every row of cursor, which must have the FORECAST_COLUMNS, and works out the changes
+     * from base.  Does that on the calling thread, so build it in the background unless the
+     * cursor is tiny.
+     *
+     * @param base the cursor these rows replace, or null to work from an empty list
+     */
+    ForecastCursor(Context context, Cursor cursor, ForecastCursor base) {
+        super(cursor);
+        int count = cursor.getCount();
+        ForecastRow.Settings settings = new ForecastRow.Settings(context);
+        mKeys = new long[count];
+        mSignatures = new int[count];
+        mRows = new ForecastRow[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            mKeys[i] = rowKey(cursor.getString(ForecastFragment.COL_LOCATION_SETTING),
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE));
+            mRows[i] = new ForecastRow(context, settings, cursor);
+            mSignatures[i] = mRows[i].mSignature;
+        }
+        cursor.moveToPosition(-1);
+        mBaseId = null == base ? NO_BASE : base.mId;
+        mChanges = null == base ? diff(new long[0], new int[0], mKeys, mSignatures) :
+                diff(base.mKeys, base.mSignatures, mKeys, mSignatures);
+    }
+
+    // The location's number in the top half and the Julian day in the bottom half, so that two
+    // rows share a key only if they are the same day of the same location
+    static long rowKey(String locationSetting, long date) {
+        int location;
+        synchronized (sLocationNumbers) {
+            Integer number = sLocationNumbers.get(locationSetting);
+            if (null == number) {
+                number = sLocationNumbers.size();
+                sLocationNumbers.put(locationSetting, number);
+            }
+            location = number;
+        }
+        return ((long) location << 32) | (JulianDays.fromMillis(date) & 0xffffffffL);
+    }
+
+    /*
+        Works from the old rows to the new ones one step at a time, applying every step to a
+        working copy of the keys so that each change's positions are the ones the RecyclerView
+        has at that point: first the removals, bottom up, then the new rows in order, each one
+        moved up into place or inserted, and marked changed if its signature differs.  Last come
+        the rebinds for a new first row.  A forecast is a couple of weeks of rows, so the linear
+        searches cost nothing.
+     */
+    static int[] diff(long[] oldKeys, int[] oldSignatures, long[] newKeys, int[] newSignatures) {
+        ArrayList<Long> keys = new ArrayList<Long>(Math.max(oldKeys.length, newKeys.length));
+        ArrayList<Integer> signatures =
+                new ArrayList<Integer>(Math.max(oldKeys.length, newKeys.length));
+        for (int i = 0; i < oldKeys.length; i++) {
+            keys.add(oldKeys[i]);
+            signatures.add(oldSignatures[i]);
+        }
+        ArrayList<Integer> changes = new ArrayList<Integer>();
+
+        for (int i = oldKeys.length - 1; i >= 0; i--) {
+            if (indexOf(newKeys, oldKeys[i]) < 0) {
+                keys.remove(i);
+                signatures.remove(i);
+                addChange(changes, OP_REMOVE, i, 0);
+            }
+        }
+
+        for (int i = 0; i < newKeys.length; i++) {
+            Long key = newKeys[i];
+            int from = keys.indexOf(key);
+            if (from < 0) {
+                keys.add(i, key);
+                signatures.add(i, newSignatures[i]);
+                addChange(changes, OP_INSERT, i, 0);
+                continue;
+            }
+            if (from != i) {
+                keys.add(i, keys.remove(from));
+                signatures.add(i, signatures.remove(from));
+                addChange(changes, OP_MOVE, from, i);
+            }
+            if (signatures.get(i) != newSignatures[i]) {
+                addChange(changes, OP_CHANGE, i, 0);
+            }
+        }
+
+        if (oldKeys.length > 0 && newKeys.length > 0 && oldKeys[0] != newKeys[0]) {
+            addChange(changes, OP_CHANGE_IF_TODAY_LAYOUT, 0, 0);
+            int oldFirst = indexOf(newKeys, oldKeys[0]);
+            if (oldFirst > 0) addChange(changes, OP_CHANGE_IF_TODAY_LAYOUT, oldFirst, 0);
+        }
+
+        int[] result = new int[changes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = changes.get(i);
+        }
+        return result;
+    }
+
+    private static void addChange(ArrayList<Integer> changes, int op, int a, int b) {
+        changes.add(op);
+        changes.add(a);
+        changes.add(b);
+    }
+
+    private static int indexOf(long[] keys, long key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    // The row count when the cursor was read, which stays good after the cursor is closed
+    int getRowCount() {
+        return mKeys.length;
+    }
+
+    long getRowKey(int position) {
+        return mKeys[position];
+    }
+
+    ForecastRow getRow(int position) {
+        return mRows[position];
+    }
+
+    int getId() {
+        return mId;
+    }
+
+    /**
+     * @return the getId() of the cursor the changes were worked out from, or NO_BASE if they
+     * start from an empty list
+     */
+    int getBaseId() {
+        return mBaseId;
+    }
+
+    /**
+     * @return the changes from the base to these rows, as (op, a, b) triples of the OP_
+     * constants
+     */
+    int[] getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * A CursorLoader whose cursors come back as ForecastCursors, their rows read and formatted,
+     * and their changes from the last rows delivered worked out, in loadInBackground() rather
+     * than on the main thread.
+     */
+    static class Loader extends CursorLoader {
+
+        // What the next load is diffed against: the last cursor delivered, or the rows the
+        // list showed before the first one.  Set on the main thread, read on the loader's.
+        private volatile ForecastCursor mBase;
+
+        Loader(Context context, Uri uri, String[] projection, String selection,
+               String[] selectionArgs, String sortOrder) {
+            super(context, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        /**
+         * Sets the rows the list shows before this loader delivers anything, such as the warm
+         * start rows.
+         */
+        void setBase(ForecastCursor base) {
+            mBase = base;
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            return null == cursor ? null : new ForecastCursor(getContext(), cursor, mBase);
+        }
+
+        @Override
+        public void deliverResult(Cursor cursor) {
+            if (!isReset()) mBase = (ForecastCursor) cursor;
+            super.deliverResult(cursor);
+        }
+    }
+}
@@ -28,7 +28,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -55,17 +54,21 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
+    private ForecastArtPrefetcher mArtPrefetcher;
+    private ListRenderStats.FrameMonitor mFrameMonitor;
     private boolean mUseTodayLayout, mAutoSelectView;
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Rows from the last sync shown until the loader delivers; we own it, so we close it
+    private ForecastCursor mWarmStartCursor;
 
     private static final String SELECTED_KEY = "selected_position";
 
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -80,7 +83,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP_F,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP_F
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +99,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_MAX_TEMP_F = 9;
+    static final int COL_WEATHER_MIN_TEMP_F = 10;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -200,6 +207,16 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Fetch the art pack images ahead of the rows that show them
+        mArtPrefetcher = new ForecastArtPrefetcher(getActivity(), mRecyclerView, mForecastAdapter);
+        mRecyclerView.addOnScrollListener(mArtPrefetcher);
+
+        // Time the frames while the list scrolls, for the render stats MainActivity dumps
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameMonitor = new ListRenderStats.FrameMonitor();
+            mRecyclerView.addOnScrollListener(mFrameMonitor);
+        }
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -248,6 +265,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
 
+        // On a fresh start, paint the rows saved by the last sync right away rather than an
+        // empty list; the loader's cursor replaces them as soon as it arrives.  That has to
+        // happen before the first frame, so these few rows are read here on the main thread.
+        if (savedInstanceState == null) {
+            Cursor warmStart = WarmStartSnapshot.read(getActivity(),
+                    Utility.getPreferredLocation(getActivity()));
+            if (null != warmStart) {
+                mWarmStartCursor = new ForecastCursor(getActivity(), warmStart, null);
+                mForecastAdapter.swapCursor(mWarmStartCursor);
+                mArtPrefetcher.onRowsLoaded();
+            }
+        }
+
         return rootView;
     }
 
@@ -316,17 +346,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        ForecastCursor.Loader loader = new ForecastCursor.Loader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
                 null,
                 sortOrder);
+        // The first load is diffed against whatever the list shows now
+        loader.setBase(mForecastAdapter.getCursor());
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        mForecastAdapter.swapCursor((ForecastCursor) data);
+        mArtPrefetcher.onRowsLoaded();
+        closeWarmStartCursor();
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
@@ -374,12 +409,23 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
 
+    private void closeWarmStartCursor() {
+        if (null != mWarmStartCursor) {
+            mWarmStartCursor.close();
+            mWarmStartCursor = null;
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
+        if (null != mFrameMonitor) {
+            mFrameMonitor.stop();
+        }
+        closeWarmStartCursor();
     }
 
     @Override
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * One forecast list row, with every string and image it shows already worked out, so that
+ * ForecastAdapter's bind is nothing but handing these to the views.  Rows are built with the
+ * settings of the moment; a change of units or art pack reloads the list, and so the rows.
+ */
+class ForecastRow {
+
+    final long mDate;
+    final int mWeatherId;
+
+    // The day as the list shows it, and as the first row shows it in the today layout
+    final String mDayText;
+    final String mLongDayText;
+
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+
+    // The day layout shows the icon, the today layout the larger art
+    final int mIconResource;
+    final int mArtResource;
+    // The art to load instead, or null when the built-in graphics are in use
+    final String mArtUrl;
+
+    // Changes whenever anything the row shows does
+    final int mSignature;
+
+    /**
+     * The settings every row of a load shares, read once per load rather than once per row.
+     */
+    static class Settings {
+        final boolean mIsMetric;
+        final boolean mLocalGraphics;
+
+        Settings(Context context) {
+            SunshineSettings.Snapshot settings = SunshineSettings.get(context).getSnapshot();
+            mIsMetric = settings.isMetric();
+            mLocalGraphics = settings.usingLocalGraphics();
+        }
+    }
+
+    /**
+     * Builds the row at the cursor's position, which must have the FORECAST_COLUMNS.
+     */
+    ForecastRow(Context context, Settings settings, Cursor cursor) {
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        mDayText = Utility.getFriendlyDayString(context, mDate, false);
+        mLongDayText = Utility.getFriendlyDayString(context, mDate, true);
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+
+        DisplayFormatter formatter = DisplayFormatter.get(context);
+        mHighText = formatter.formatTemperature(settings.mIsMetric ?
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP) :
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F));
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = formatter.formatTemperature(settings.mIsMetric ?
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP) :
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F));
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mArtUrl = settings.mLocalGraphics ? null :
+                Utility.getArtUrlForWeatherCondition(context, mWeatherId);
+
+        int signature = mDayText.hashCode();
+        signature = 31 * signature + mLongDayText.hashCode();
+        signature = 31 * signature + mDescription.hashCode();
+        signature = 31 * signature + mHighText.hashCode();
+        signature = 31 * signature + mLowText.hashCode();
+        signature = 31 * signature + mIconResource;
+        signature = 31 * signature + mArtResource;
+        signature = 31 * signature + (null == mArtUrl ? 0 : mArtUrl.hashCode());
+        mSignature = signature;
+    }
+}
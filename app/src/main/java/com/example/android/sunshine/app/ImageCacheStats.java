@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit rates of Glide's memory and disk caches, as set up by SunshineGlideModule, for the life
+ * of the process.  MainActivity dumps them with the rest of its state.
+ */
+class ImageCacheStats {
+
+    private static final AtomicLong sMemoryHits = new AtomicLong();
+    private static final AtomicLong sMemoryMisses = new AtomicLong();
+    private static final AtomicLong sDiskHits = new AtomicLong();
+    private static final AtomicLong sDiskMisses = new AtomicLong();
+
+    // The budgets the module chose, for the dump
+    private static volatile String sBudgets = "not configured";
+
+    static void setBudgets(String budgets) {
+        sBudgets = budgets;
+    }
+
+    static void reset() {
+        sMemoryHits.set(0);
+        sMemoryMisses.set(0);
+        sDiskHits.set(0);
+        sDiskMisses.set(0);
+    }
+
+    /**
+     * @return the fraction of memory cache lookups that found the image, or NaN before any
+     */
+    static double getMemoryHitRate() {
+        return rate(sMemoryHits.get(), sMemoryMisses.get());
+    }
+
+    /**
+     * @return the fraction of disk cache lookups that found the image, or NaN before any
+     */
+    static double getDiskHitRate() {
+        return rate(sDiskHits.get(), sDiskMisses.get());
+    }
+
+    private static double rate(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+
+    static void dump(PrintWriter writer) {
+        writer.println("Image caches (" + sBudgets + "):");
+        writer.printf("  memory hits=%d misses=%d rate=%.2f%n",
+                sMemoryHits.get(), sMemoryMisses.get(), getMemoryHitRate());
+        // Every image looks for its own size first and then for the download
+        writer.printf("  disk hits=%d misses=%d rate=%.2f%n",
+                sDiskHits.get(), sDiskMisses.get(), getDiskHitRate());
+    }
+
+    /*
+        Glide's memory cache, counting.  The engine takes an image out of the cache when it
+        uses it, and that's the only time it takes one out, so remove() is the lookup.
+     */
+    static class CountingMemoryCache extends LruResourceCache {
+        CountingMemoryCache(int size) {
+            super(size);
+        }
+
+        @Override
+        public Resource<?> remove(Key key) {
+            Resource<?> resource = super.remove(key);
+            (null == resource ? sMemoryMisses : sMemoryHits).incrementAndGet();
+            return resource;
+        }
+    }
+
+    /*
+        Glide's disk cache, counting.
+     */
+    static class CountingDiskCache implements DiskCache {
+        private final DiskCache mCache;
+
+        CountingDiskCache(DiskCache cache) {
+            mCache = cache;
+        }
+
+        @Override
+        public File get(Key key) {
+            File file = mCache.get(key);
+            (null == file ? sDiskMisses : sDiskHits).incrementAndGet();
+            return file;
+        }
+
+        @Override
+        public void put(Key key, Writer writer) {
+            mCache.put(key, writer);
+        }
+
+        @Override
+        public void delete(Key key) {
+            mCache.delete(key);
+        }
+    }
+}
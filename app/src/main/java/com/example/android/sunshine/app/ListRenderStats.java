@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms for the forecast list: how long ForecastAdapter takes to create and to
+ * bind each kind of row (the create count being the inflation count), and how long apart the
+ * frames are while the list scrolls.  Kept in memory for the life of the process, and dumped
+ * by MainActivity.
+ */
+class ListRenderStats {
+
+    static final int VIEW_TYPES = 2;
+    private static final String[] VIEW_TYPE_NAMES = {"today", "future_day"};
+
+    // Upper bounds of the histogram buckets, in microseconds.  Anything slower than the last
+    // bound lands in the overflow bucket.
+    private static final long[] ROW_BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1000, 2000, 4000, 8000, 16000, 32000
+    };
+    // A frame on time at 60fps is 16.7ms apart from the last; one dropped frame makes 33.3ms
+    private static final long[] FRAME_BUCKET_BOUNDS_MICROS = {
+            8000, 12000, 17000, 20000, 25000, 34000, 50000, 100000, 250000
+    };
+    private static final long FRAME_MICROS = 16667;
+
+    static class Histogram {
+        final long[] bounds;
+        final long[] buckets;
+        long count;
+        long totalMicros;
+        long maxMicros;
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            buckets = new long[bounds.length + 1];
+        }
+
+        void add(long micros) {
+            int bucket = 0;
+            while (bucket < bounds.length && micros > bounds[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalMicros += micros;
+            if (micros > maxMicros) maxMicros = micros;
+        }
+
+        // Returns the upper bound of the bucket holding the given percentile.  For the overflow
+        // bucket that is the slowest we have seen.
+        long percentile(int percent) {
+            if (0 == count) return 0;
+            long threshold = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= threshold) {
+                    return i < bounds.length ? bounds[i] : maxMicros;
+                }
+            }
+            return maxMicros;
+        }
+
+        void clear() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            totalMicros = 0;
+            maxMicros = 0;
+        }
+
+        void dump(PrintWriter writer, String name) {
+            writer.printf("  %-18s count=%d mean=%d p50<=%d p90<=%d p99<=%d max=%d%n", name, count,
+                    count == 0 ? 0 : totalMicros / count,
+                    percentile(50), percentile(90), percentile(99), maxMicros);
+            writer.print("    buckets:");
+            for (int b = 0; b < buckets.length; b++) {
+                if (b < bounds.length) {
+                    writer.print(" <=" + bounds[b] + "=" + buckets[b]);
+                } else {
+                    writer.print(" >" + bounds[b - 1] + "=" + buckets[b]);
+                }
+            }
+            writer.println();
+        }
+    }
+
+    private static final ListRenderStats sInstance = new ListRenderStats();
+
+    private final Histogram[] mCreates = new Histogram[VIEW_TYPES];
+    private final Histogram[] mBinds = new Histogram[VIEW_TYPES];
+    private final Histogram mFrames = new Histogram(FRAME_BUCKET_BOUNDS_MICROS);
+    // Frames that came later than the one after the last, so at least one was dropped
+    private long mLateFrames;
+
+    static ListRenderStats get() {
+        return sInstance;
+    }
+
+    private ListRenderStats() {
+        for (int i = 0; i < VIEW_TYPES; i++) {
+            mCreates[i] = new Histogram(ROW_BUCKET_BOUNDS_MICROS);
+            mBinds[i] = new Histogram(ROW_BUCKET_BOUNDS_MICROS);
+        }
+    }
+
+    /**
+     * Records one onCreateViewHolder(), which is one inflation.
+     *
+     * @param startNanos the System.nanoTime() taken when it started
+     */
+    synchronized void recordCreate(int viewType, long startNanos) {
+        mCreates[viewType].add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records one onBindViewHolder().
+     *
+     * @param startNanos the System.nanoTime() taken when it started
+     */
+    synchronized void recordBind(int viewType, long startNanos) {
+        mBinds[viewType].add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records the time between two frames drawn while the list scrolled.
+     */
+    synchronized void recordFrame(long micros) {
+        mFrames.add(micros);
+        if (micros > FRAME_MICROS * 3 / 2) mLateFrames++;
+    }
+
+    synchronized long getInflations(int viewType) {
+        return mCreates[viewType].count;
+    }
+
+    synchronized long getBinds(int viewType) {
+        return mBinds[viewType].count;
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < VIEW_TYPES; i++) {
+            mCreates[i].clear();
+            mBinds[i].clear();
+        }
+        mFrames.clear();
+        mLateFrames = 0;
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Forecast list rows (latencies in us):");
+        for (int i = 0; i < VIEW_TYPES; i++) {
+            mCreates[i].dump(writer, "create " + VIEW_TYPE_NAMES[i]);
+        }
+        for (int i = 0; i < VIEW_TYPES; i++) {
+            mBinds[i].dump(writer, "bind " + VIEW_TYPE_NAMES[i]);
+        }
+        // Before Jelly Bean there is no Choreographer to time frames with, so this stays empty
+        writer.println("Forecast list scrolling (frame intervals in us):");
+        mFrames.dump(writer, "frame");
+        writer.println("  late frames=" + mLateFrames);
+    }
+
+    /**
+     * Times the frames while the list it listens to scrolls.  Needs Jelly Bean's Choreographer;
+     * only add it on those.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static class FrameMonitor extends RecyclerView.OnScrollListener
+            implements Choreographer.FrameCallback {
+        private boolean mRunning;
+        private long mLastFrameNanos;
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (RecyclerView.SCROLL_STATE_IDLE == newState) {
+                stop();
+            } else if (!mRunning) {
+                mRunning = true;
+                mLastFrameNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            if (mRunning) {
+                mRunning = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            if (0 != mLastFrameNanos) {
+                sInstance.recordFrame((frameTimeNanos - mLastFrameNanos) / 1000);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -15,20 +15,30 @@
  */
 package com.example.android.sunshine.app;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.database.Cursor;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
+import android.widget.ListPopupWindow;
+
+import com.example.android.sunshine.app.data.WeatherContract;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -40,6 +50,9 @@ public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
+    // Only set while the dialog is showing, and only from Honeycomb on
+    private LocationSuggestions mSuggestions;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -108,6 +121,10 @@ public class LocationEditTextPreference extends EditTextPreference {
         super.showDialog(state);
 
         EditText et = getEditText();
+        // ListPopupWindow arrived with Honeycomb; older devices just go without suggestions
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mSuggestions = new LocationSuggestions(getContext(), et);
+        }
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -136,7 +153,111 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                if (null != mSuggestions) {
+                    mSuggestions.filter(s);
+                }
             }
         });
     }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (null != mSuggestions) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+        }
+        super.onDialogClosed(positiveResult);
+    }
+
+    /*
+        Offers the locations and catalog cities whose names start with what has been typed, from
+        the provider's location search.  Picking one fills in a location setting the weather
+        service is known to understand.  The search runs on the adapter's filter thread, and a
+        newer keystroke supersedes an older search that hasn't finished yet.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class LocationSuggestions
+            implements FilterQueryProvider, AdapterView.OnItemClickListener {
+
+        private static final String[] SUGGESTION_COLUMNS = {
+                WeatherContract.LocationSearchEntry._ID,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+        };
+
+        // Enough to pick from without the popup covering the dialog's buttons
+        private static final int SUGGESTION_LIMIT = 5;
+
+        private final Context mContext;
+        private final EditText mEditText;
+        private final SimpleCursorAdapter mAdapter;
+        private final ListPopupWindow mPopup;
+
+        // Set while a picked suggestion is written to the EditText, so it isn't searched for
+        private boolean mPicking;
+
+        LocationSuggestions(Context context, EditText editText) {
+            mContext = context;
+            mEditText = editText;
+            mAdapter = new SimpleCursorAdapter(context,
+                    android.R.layout.simple_list_item_2,
+                    null,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    new int[]{android.R.id.text1, android.R.id.text2},
+                    0);
+            mAdapter.setFilterQueryProvider(this);
+
+            mPopup = new ListPopupWindow(context);
+            mPopup.setAnchorView(editText);
+            mPopup.setAdapter(mAdapter);
+            // Keep the keyboard up, so that typing carries on while the popup shows
+            mPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+            mPopup.setOnItemClickListener(this);
+        }
+
+        void filter(CharSequence text) {
+            if (mPicking) return;
+            mAdapter.getFilter().filter(text, new Filter.FilterListener() {
+                @Override
+                public void onFilterComplete(int count) {
+                    if (count > 0 && null != mEditText.getWindowToken()) {
+                        mPopup.show();
+                    } else {
+                        mPopup.dismiss();
+                    }
+                }
+            });
+        }
+
+        // Called on the filter thread
+        @Override
+        public Cursor runQuery(CharSequence constraint) {
+            if (null == constraint || constraint.length() == 0) return null;
+            return mContext.getContentResolver().query(
+                    WeatherContract.LocationSearchEntry.buildSearchUri(
+                            constraint.toString(), SUGGESTION_LIMIT),
+                    SUGGESTION_COLUMNS,
+                    null,
+                    null,
+                    null);
+        }
+
+        @Override
+        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            Cursor cursor = mAdapter.getCursor();
+            if (null == cursor || !cursor.moveToPosition(position)) return;
+            String locationSetting = cursor.getString(2);
+            mPicking = true;
+            mEditText.setText(locationSetting);
+            mEditText.setSelection(locationSetting.length());
+            mPicking = false;
+            mPopup.dismiss();
+        }
+
+        void dismiss() {
+            mPopup.dismiss();
+            mAdapter.changeCursor(null);
+        }
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -23,6 +25,7 @@ import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.util.Pair;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
@@ -36,6 +39,10 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -89,7 +96,15 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Looking up (and the first time creating) the sync account goes through the account
+        // manager service, which is a round trip we don't want in front of the first frame
+        final Context appContext = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncAdapter.initializeSyncAdapter(appContext);
+            }
+        }, "initializeSyncAdapter").start();
 
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
@@ -113,6 +128,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_render_stats).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -127,11 +143,49 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         if (id == R.id.action_settings) {
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
+        } else if (id == R.id.action_render_stats) {
+            showRenderStats();
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    // Reached with: adb shell dumpsys activity com.example.android.sunshine.app
+    // Add "reset" to the end to start the counts over after dumping them.
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        ImageCacheStats.dump(writer);
+        ListRenderStats.get().dump(writer);
+        if (null != args && args.length > 0 && "reset".equals(args[args.length - 1])) {
+            ImageCacheStats.reset();
+            ListRenderStats.get().reset();
+            writer.println("Stats reset");
+        }
+    }
+
+    // The debug build's menu shows the forecast list's render stats on the device
+    private void showRenderStats() {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        ListRenderStats.get().dump(writer);
+        writer.flush();
+        Log.d(LOG_TAG, text.toString());
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_render_stats)
+                .setMessage(text.toString())
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.render_stats_reset,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                ListRenderStats.get().reset();
+                            }
+                        })
+                .show();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
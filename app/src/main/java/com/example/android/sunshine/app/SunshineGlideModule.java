@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.support.v4.app.ActivityManagerCompat;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.module.GlideModule;
+
+import java.io.InputStream;
+
+/**
+ * Glide's setup for the whole app, read from the manifest when Glide first starts.  Every
+ * image the app shows is weather art of a few fixed sizes, so the caches are sized by how much
+ * memory the device has rather than left at Glide's defaults, the art is decoded at 16 bits a
+ * pixel (it is all opaque), images are fetched through SunshineHttp like the sync's data, and
+ * both caches count their hits for ImageCacheStats.
+ */
+public class SunshineGlideModule implements GlideModule {
+    private static final String LOG_TAG = SunshineGlideModule.class.getSimpleName();
+
+    // Devices with no more memory per app than this are treated as low end
+    private static final int LOW_MEMORY_CLASS_MB = 64;
+    private static final int HIGH_MEMORY_CLASS_MB = 192;
+
+    private static final int LOW_DISK_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_DISK_CACHE_BYTES = 48 * 1024 * 1024;
+    private static final int HIGH_DISK_CACHE_BYTES = 96 * 1024 * 1024;
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass();
+        boolean lowEnd = isLowEnd(ActivityManagerCompat.isLowRamDevice(activityManager),
+                memoryClass);
+
+        MemorySizeCalculator calculator = new MemorySizeCalculator(context);
+        int memoryCacheSize = getMemoryBudget(calculator.getMemoryCacheSize(), lowEnd);
+        int bitmapPoolSize = getMemoryBudget(calculator.getBitmapPoolSize(), lowEnd);
+        int diskCacheSize = getDiskCacheBytes(lowEnd, memoryClass);
+
+        builder.setMemoryCache(new ImageCacheStats.CountingMemoryCache(memoryCacheSize));
+        builder.setBitmapPool(new LruBitmapPool(bitmapPoolSize));
+        builder.setDiskCache(new ImageCacheStats.CountingDiskCache(
+                DiskLruCacheWrapper.get(Glide.getPhotoCacheDir(context), diskCacheSize)));
+        builder.setDecodeFormat(DecodeFormat.PREFER_RGB_565);
+
+        String budgets = (lowEnd ? "low end" : "memory class " + memoryClass + "MB") +
+                ", memory " + memoryCacheSize / 1024 + "KB, bitmap pool " +
+                bitmapPoolSize / 1024 + "KB, disk " + diskCacheSize / 1024 / 1024 + "MB";
+        ImageCacheStats.setBudgets(budgets);
+        Log.d(LOG_TAG, "Image caches: " + budgets);
+    }
+
+    static boolean isLowEnd(boolean lowRamDevice, int memoryClass) {
+        return lowRamDevice || memoryClass <= LOW_MEMORY_CLASS_MB;
+    }
+
+    /**
+     * Glide's own sizes allow for a few screens of full size photos.  Ours are icons and a
+     * single piece of art, so low end devices make do with half of that.
+     *
+     * @param glideSize the memory cache or bitmap pool size Glide would have used, in bytes
+     */
+    static int getMemoryBudget(int glideSize, boolean lowEnd) {
+        return lowEnd ? glideSize / 2 : glideSize;
+    }
+
+    static int getDiskCacheBytes(boolean lowEnd, int memoryClass) {
+        if (lowEnd) return LOW_DISK_CACHE_BYTES;
+        return memoryClass >= HIGH_MEMORY_CLASS_MB ? HIGH_DISK_CACHE_BYTES :
+                DEFAULT_DISK_CACHE_BYTES;
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class, new ArtUrlLoader.Factory());
+    }
+}
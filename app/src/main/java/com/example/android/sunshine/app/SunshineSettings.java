@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The app's settings, typed, and read from an immutable Snapshot kept in memory rather than
+ * from SharedPreferences on every call.  A preference listener swaps in a fresh snapshot
+ * whenever anything changes.
+ *
+ * The settings the app writes itself (the location status and the last-run times) go into
+ * the snapshot at once, and to SharedPreferences a moment later with a single apply(), so a
+ * sync that writes several of them costs one write and never blocks on the disk.
+ */
+public class SunshineSettings implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // How long writes wait for company before they go out together
+    private static final long WRITE_DELAY_MILLIS = 250;
+
+    private static SunshineSettings sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The keys and defaults, looked up once
+    private final String mLocationKey;
+    private final String mLocationDefault;
+    private final String mLatitudeKey;
+    private final String mLongitudeKey;
+    private final String mLocationStatusKey;
+    private final String mUnitsKey;
+    private final String mUnitsMetric;
+    private final String mArtPackKey;
+    private final String mArtPackSunshine;
+    private final String mNotificationsKey;
+    private final boolean mNotificationsDefault;
+    private final String mLastNotificationKey;
+    private final String mLastMaintenanceKey;
+    private final String mLastCatalogImportKey;
+
+    private volatile Snapshot mSnapshot;
+    // Written to the snapshot but not yet to the preferences, by key
+    private final Map<String, Object> mPendingWrites = new HashMap<String, Object>();
+
+    /**
+     * The settings at one moment.  Read what one piece of work needs from a single snapshot,
+     * so that it sees them all as they were together.
+     */
+    public static final class Snapshot {
+        private final String mLocation;
+        private final boolean mHasLatLong;
+        private final float mLatitude;
+        private final float mLongitude;
+        private final int mLocationStatus;
+        private final boolean mIsMetric;
+        private final String mArtPack;
+        private final boolean mLocalGraphics;
+        private final boolean mNotificationsEnabled;
+        private final long mLastNotification;
+        private final long mLastMaintenance;
+        private final long mLastCatalogImport;
+
+        private Snapshot(SunshineSettings settings) {
+            SharedPreferences prefs = settings.mPrefs;
+            mLocation = prefs.getString(settings.mLocationKey, settings.mLocationDefault);
+            mHasLatLong = prefs.contains(settings.mLatitudeKey) &&
+                    prefs.contains(settings.mLongitudeKey);
+            mLatitude = prefs.getFloat(settings.mLatitudeKey, Utility.DEFAULT_LATLONG);
+            mLongitude = prefs.getFloat(settings.mLongitudeKey, Utility.DEFAULT_LATLONG);
+            mLocationStatus = (Integer) settings.read(settings.mLocationStatusKey,
+                    SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            mIsMetric = prefs.getString(settings.mUnitsKey, settings.mUnitsMetric)
+                    .equals(settings.mUnitsMetric);
+            mArtPack = prefs.getString(settings.mArtPackKey, settings.mArtPackSunshine);
+            mLocalGraphics = mArtPack.equals(settings.mArtPackSunshine);
+            mNotificationsEnabled = prefs.getBoolean(settings.mNotificationsKey,
+                    settings.mNotificationsDefault);
+            mLastNotification = (Long) settings.read(settings.mLastNotificationKey, 0L);
+            mLastMaintenance = (Long) settings.read(settings.mLastMaintenanceKey, 0L);
+            mLastCatalogImport = (Long) settings.read(settings.mLastCatalogImportKey, 0L);
+        }
+
+        public String getLocation() {
+            return mLocation;
+        }
+
+        public boolean hasLatLong() {
+            return mHasLatLong;
+        }
+
+        public float getLatitude() {
+            return mLatitude;
+        }
+
+        public float getLongitude() {
+            return mLongitude;
+        }
+
+        @SuppressWarnings("ResourceType")
+        @SunshineSyncAdapter.LocationStatus
+        public int getLocationStatus() {
+            return mLocationStatus;
+        }
+
+        public boolean isMetric() {
+            return mIsMetric;
+        }
+
+        /**
+         * @return the art pack's url format, with a %s for the picture's name
+         */
+        public String getArtPack() {
+            return mArtPack;
+        }
+
+        public boolean usingLocalGraphics() {
+            return mLocalGraphics;
+        }
+
+        public boolean areNotificationsEnabled() {
+            return mNotificationsEnabled;
+        }
+
+        public long getLastNotification() {
+            return mLastNotification;
+        }
+
+        public long getLastMaintenance() {
+            return mLastMaintenance;
+        }
+
+        public long getLastCatalogImport() {
+            return mLastCatalogImport;
+        }
+    }
+
+    public static synchronized SunshineSettings get(Context context) {
+        if (null == sInstance) {
+            sInstance = new SunshineSettings(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SunshineSettings(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationKey = context.getString(R.string.pref_location_key);
+        mLocationDefault = context.getString(R.string.pref_location_default);
+        mLatitudeKey = context.getString(R.string.pref_location_latitude);
+        mLongitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        mUnitsMetric = context.getString(R.string.pref_units_metric);
+        mArtPackKey = context.getString(R.string.pref_art_pack_key);
+        mArtPackSunshine = context.getString(R.string.pref_art_pack_sunshine);
+        mNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        mNotificationsDefault = Boolean.parseBoolean(
+                context.getString(R.string.pref_enable_notifications_default));
+        mLastNotificationKey = context.getString(R.string.pref_last_notification);
+        mLastMaintenanceKey = context.getString(R.string.pref_last_maintenance);
+        mLastCatalogImportKey = context.getString(R.string.pref_last_catalog_import);
+
+        mSnapshot = new Snapshot(this);
+        // The preferences only hold their listeners weakly, which is fine: sInstance keeps us
+        mPrefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        reload();
+    }
+
+    /**
+     * Takes a fresh snapshot of the preferences.  Our listener does this after every change,
+     * but anyone reacting to a change from a listener of their own can't count on ours having
+     * run first, so they should call this before they read the settings.
+     */
+    public synchronized void reload() {
+        mSnapshot = new Snapshot(this);
+    }
+
+    public void setLocationStatus(@SunshineSyncAdapter.LocationStatus int locationStatus) {
+        write(mLocationStatusKey, locationStatus);
+    }
+
+    public void setLastNotification(long timeInMillis) {
+        write(mLastNotificationKey, timeInMillis);
+    }
+
+    public void setLastMaintenance(long timeInMillis) {
+        write(mLastMaintenanceKey, timeInMillis);
+    }
+
+    public void setLastCatalogImport(long timeInMillis) {
+        write(mLastCatalogImportKey, timeInMillis);
+    }
+
+    private synchronized void write(String key, Object value) {
+        boolean scheduled = !mPendingWrites.isEmpty();
+        mPendingWrites.put(key, value);
+        mSnapshot = new Snapshot(this);
+        if (!scheduled) {
+            mHandler.postDelayed(mFlush, WRITE_DELAY_MILLIS);
+        }
+    }
+
+    // A pending write if there is one, else what the preferences hold; ints and longs only
+    private Object read(String key, Object defaultValue) {
+        if (mPendingWrites.containsKey(key)) {
+            return mPendingWrites.get(key);
+        }
+        if (defaultValue instanceof Integer) {
+            return mPrefs.getInt(key, (Integer) defaultValue);
+        }
+        return mPrefs.getLong(key, (Long) defaultValue);
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SunshineSettings.this) {
+                SharedPreferences.Editor editor = mPrefs.edit();
+                for (Map.Entry<String, Object> write : mPendingWrites.entrySet()) {
+                    if (write.getValue() instanceof Integer) {
+                        editor.putInt(write.getKey(), (Integer) write.getValue());
+                    } else {
+                        editor.putLong(write.getKey(), (Long) write.getValue());
+                    }
+                }
+                mPendingWrites.clear();
+                // Lands in memory now and on disk in the background; our listener then takes
+                // the snapshot again, which changes nothing
+                editor.apply();
+            }
+        }
+    };
+}
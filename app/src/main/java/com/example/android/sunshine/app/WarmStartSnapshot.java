@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The first screen of the forecast list, kept in a tiny file so that ForecastFragment can show
+ * it before its loader has even started.  The sync rewrites it after every successful fetch.
+ *
+ * Rows are stored as the raw FORECAST_COLUMNS values rather than as formatted text, so the
+ * adapter binds them exactly as it binds the loader's cursor, and a change of units or locale
+ * since the file was written still shows correctly.
+ */
+public class WarmStartSnapshot {
+    private static final String LOG_TAG = WarmStartSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "warm_start.snapshot";
+    private static final int FORMAT_VERSION = 2;
+
+    // Enough rows to fill the first screen of the tallest phone layout
+    static final int ROWS = 8;
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Rewrites the snapshot from what the provider holds now for the preferred location.
+     * Does disk and database work, so keep it off the main thread.
+     */
+    public static void update(Context context) {
+        if (Utility.isDatabaseInMemory(context)) {
+            // The cache stays off the disk; drop any file left from before the switch too, so
+            // that read() doesn't show it
+            getFile(context).delete();
+            return;
+        }
+        String locationSetting = Utility.getPreferredLocation(context);
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (null == cursor) return;
+        try {
+            write(context, locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the first ROWS rows of cursor, which must have the FORECAST_COLUMNS, as the
+     * snapshot for locationSetting.
+     */
+    static void write(Context context, String locationSetting, Cursor cursor) {
+        AtomicFile file = new AtomicFile(getFile(context));
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            int rows = Math.min(ROWS, cursor.getCount());
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(locationSetting);
+            out.writeInt(rows);
+            for (int i = 0; i < rows && cursor.moveToPosition(i); i++) {
+                out.writeLong(cursor.getLong(ForecastFragment.COL_WEATHER_ID));
+                out.writeLong(cursor.getLong(ForecastFragment.COL_WEATHER_DATE));
+                out.writeUTF(cursor.getString(ForecastFragment.COL_WEATHER_DESC));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+                out.writeUTF(cursor.getString(ForecastFragment.COL_LOCATION_SETTING));
+                out.writeInt(cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_COORD_LAT));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_COORD_LONG));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP_F));
+                out.writeDouble(cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP_F));
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't write the warm start snapshot", e);
+            if (null != fos) file.failWrite(fos);
+        }
+    }
+
+    /**
+     * Reads the snapshot back as a cursor shaped like the forecast loader's, without the days
+     * that have gone by since it was written.  Small enough to read on the main thread.
+     *
+     * @return the rows, or null if there is no usable snapshot for this location
+     */
+    public static Cursor read(Context context, String locationSetting) {
+        AtomicFile file = new AtomicFile(getFile(context));
+        if (!file.getBaseFile().exists()) return null;
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()));
+            if (in.readInt() != FORMAT_VERSION || !locationSetting.equals(in.readUTF())) {
+                return null;
+            }
+            int rows = in.readInt();
+            MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS, rows);
+            for (int i = 0; i < rows; i++) {
+                Object[] row = {
+                        in.readLong(),
+                        in.readLong(),
+                        in.readUTF(),
+                        in.readDouble(),
+                        in.readDouble(),
+                        in.readUTF(),
+                        in.readInt(),
+                        in.readDouble(),
+                        in.readDouble(),
+                        in.readDouble(),
+                        in.readDouble()
+                };
+                if ((Long) row[ForecastFragment.COL_WEATHER_DATE] >= today) {
+                    cursor.addRow(row);
+                }
+            }
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                return null;
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't read the warm start snapshot", e);
+            return null;
+        }
+    }
+}
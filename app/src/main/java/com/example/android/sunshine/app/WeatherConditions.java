@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Everything Utility shows for an OpenWeatherMap condition code (icon, art, description, art
+ * pack url and Muzei image) looked up in tables indexed by the code, in place of a chain of
+ * range checks per call.
+ *
+ * The icon, art and image tables are fixed.  The descriptions depend on the locale and the
+ * art urls on the art pack in SunshineSettings, so those are kept by the one instance, built
+ * once per locale and art pack and shared by everything that shows a forecast.
+ */
+class WeatherConditions {
+
+    // Based on weather code data found at:
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    private static final int FIRST_CODE = 200;
+    private static final int LAST_CODE = 962;
+
+    // The kinds of weather with their own picture, indexed by sKinds
+    private static final byte NO_KIND = -1;
+    private static final byte KIND_STORM = 0;
+    private static final byte KIND_LIGHT_RAIN = 1;
+    private static final byte KIND_RAIN = 2;
+    private static final byte KIND_SNOW = 3;
+    private static final byte KIND_FOG = 4;
+    // Squalls and tornadoes get the storm pictures, but Muzei shows them as raised dust
+    private static final byte KIND_SQUALL = 5;
+    private static final byte KIND_CLEAR = 6;
+    private static final byte KIND_LIGHT_CLOUDS = 7;
+    private static final byte KIND_CLOUDS = 8;
+    private static final int KINDS = 9;
+
+    private static final int[] KIND_ICONS = {
+            R.drawable.ic_storm, R.drawable.ic_light_rain, R.drawable.ic_rain, R.drawable.ic_snow,
+            R.drawable.ic_fog, R.drawable.ic_storm, R.drawable.ic_clear,
+            R.drawable.ic_light_clouds, R.drawable.ic_cloudy
+    };
+
+    private static final int[] KIND_ARTS = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain,
+            R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_storm, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
+
+    // What each kind is called in the art pack urls
+    private static final String[] KIND_ART_KEYS = {
+            "storm", "light_rain", "rain", "snow", "fog", "storm", "clear", "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] KIND_IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // The description of each code that has its own, as (code, string id) pairs
+    private static final int[] CODE_STRINGS = {
+            500, R.string.condition_500, 501, R.string.condition_501,
+            502, R.string.condition_502, 503, R.string.condition_503,
+            504, R.string.condition_504, 511, R.string.condition_511,
+            520, R.string.condition_520, 531, R.string.condition_531,
+            600, R.string.condition_600, 601, R.string.condition_601,
+            602, R.string.condition_602, 611, R.string.condition_611,
+            612, R.string.condition_612, 615, R.string.condition_615,
+            616, R.string.condition_616, 620, R.string.condition_620,
+            621, R.string.condition_621, 622, R.string.condition_622,
+            701, R.string.condition_701, 711, R.string.condition_711,
+            721, R.string.condition_721, 731, R.string.condition_731,
+            741, R.string.condition_741, 751, R.string.condition_751,
+            761, R.string.condition_761, 762, R.string.condition_762,
+            771, R.string.condition_771, 781, R.string.condition_781,
+            800, R.string.condition_800, 801, R.string.condition_801,
+            802, R.string.condition_802, 803, R.string.condition_803,
+            804, R.string.condition_804, 900, R.string.condition_900,
+            901, R.string.condition_901, 902, R.string.condition_902,
+            903, R.string.condition_903, 904, R.string.condition_904,
+            905, R.string.condition_905, 906, R.string.condition_906,
+            951, R.string.condition_951, 952, R.string.condition_952,
+            953, R.string.condition_953, 954, R.string.condition_954,
+            955, R.string.condition_955, 956, R.string.condition_956,
+            957, R.string.condition_957, 958, R.string.condition_958,
+            959, R.string.condition_959, 960, R.string.condition_960,
+            961, R.string.condition_961, 962, R.string.condition_962
+    };
+
+    // Indexed by code less FIRST_CODE
+    private static final byte[] sKinds = new byte[LAST_CODE - FIRST_CODE + 1];
+    private static final int[] sStringIds = new int[LAST_CODE - FIRST_CODE + 1];
+
+    static {
+        Arrays.fill(sKinds, NO_KIND);
+        fillKind(200, 232, KIND_STORM);
+        fillKind(300, 321, KIND_LIGHT_RAIN);
+        fillKind(500, 504, KIND_RAIN);
+        fillKind(511, 511, KIND_SNOW);
+        fillKind(520, 531, KIND_RAIN);
+        fillKind(600, 622, KIND_SNOW);
+        // 761, dust, is fog rather than a squall
+        fillKind(701, 761, KIND_FOG);
+        fillKind(781, 781, KIND_SQUALL);
+        fillKind(800, 800, KIND_CLEAR);
+        fillKind(801, 801, KIND_LIGHT_CLOUDS);
+        fillKind(802, 804, KIND_CLOUDS);
+
+        // Thunderstorms and drizzle are described as a group
+        for (int code = 200; code <= 232; code++) {
+            sStringIds[code - FIRST_CODE] = R.string.condition_2xx;
+        }
+        for (int code = 300; code <= 321; code++) {
+            sStringIds[code - FIRST_CODE] = R.string.condition_3xx;
+        }
+        for (int i = 0; i < CODE_STRINGS.length; i += 2) {
+            sStringIds[CODE_STRINGS[i] - FIRST_CODE] = CODE_STRINGS[i + 1];
+        }
+    }
+
+    private static void fillKind(int first, int last, byte kind) {
+        for (int code = first; code <= last; code++) {
+            sKinds[code - FIRST_CODE] = kind;
+        }
+    }
+
+    private static int kindOf(int weatherId) {
+        if (weatherId < FIRST_CODE || weatherId > LAST_CODE) return NO_KIND;
+        return sKinds[weatherId - FIRST_CODE];
+    }
+
+    /**
+     * @return the icon for the code, or -1 if it has none
+     */
+    static int getIconResource(int weatherId) {
+        int kind = kindOf(weatherId);
+        return NO_KIND == kind ? -1 : KIND_ICONS[kind];
+    }
+
+    /**
+     * @return the art for the code, or -1 if it has none
+     */
+    static int getArtResource(int weatherId) {
+        int kind = kindOf(weatherId);
+        return NO_KIND == kind ? -1 : KIND_ARTS[kind];
+    }
+
+    /**
+     * @return the Muzei image for the code, or null if it has none
+     */
+    static String getImageUrl(int weatherId) {
+        int kind = kindOf(weatherId);
+        return NO_KIND == kind ? null : KIND_IMAGE_URLS[kind];
+    }
+
+    private static WeatherConditions sInstance;
+
+    private final Context mContext;
+    private final SunshineSettings mSettings;
+
+    // The art pack the urls were built for
+    private String mArtPack;
+    private final String[] mArtUrls = new String[KINDS];
+
+    private Locale mLocale;
+    private final String[] mDescriptions = new String[LAST_CODE - FIRST_CODE + 1];
+
+    static synchronized WeatherConditions get(Context context) {
+        if (null == sInstance) {
+            sInstance = new WeatherConditions(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherConditions(Context context) {
+        mContext = context;
+        mSettings = SunshineSettings.get(context);
+    }
+
+    /**
+     * @return true if the built-in graphics are in use rather than an art pack
+     */
+    boolean usingLocalGraphics() {
+        return mSettings.getSnapshot().usingLocalGraphics();
+    }
+
+    /**
+     * @return the art pack url for the code, or null if it has none
+     */
+    synchronized String getArtUrl(int weatherId) {
+        int kind = kindOf(weatherId);
+        if (NO_KIND == kind) return null;
+
+        checkArtPack();
+        return mArtUrls[kind];
+    }
+
+    /**
+     * @return every art pack url, each once, for fetching the whole art pack ahead
+     */
+    synchronized List<String> getArtUrls() {
+        checkArtPack();
+        List<String> artUrls = new ArrayList<String>(KINDS);
+        for (String artUrl : mArtUrls) {
+            // Some kinds share a picture
+            if (!artUrls.contains(artUrl)) artUrls.add(artUrl);
+        }
+        return artUrls;
+    }
+
+    private void checkArtPack() {
+        // A new art pack comes with a new snapshot, so checking the string is the same one
+        // is almost always enough
+        String artPack = mSettings.getSnapshot().getArtPack();
+        if (artPack != mArtPack && !artPack.equals(mArtPack)) {
+            mArtPack = artPack;
+            for (int i = 0; i < KINDS; i++) {
+                mArtUrls[i] = String.format(Locale.US, artPack, KIND_ART_KEYS[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the code's description in the current locale
+     */
+    synchronized String getDescription(int weatherId) {
+        Locale locale = Locale.getDefault();
+        if (locale != mLocale) {
+            mLocale = locale;
+            Arrays.fill(mDescriptions, null);
+        }
+
+        int stringId = weatherId < FIRST_CODE || weatherId > LAST_CODE ? 0 :
+                sStringIds[weatherId - FIRST_CODE];
+        if (0 == stringId) {
+            return mContext.getString(R.string.condition_unknown, weatherId);
+        }
+        String description = mDescriptions[weatherId - FIRST_CODE];
+        if (null == description) {
+            description = mContext.getString(stringId);
+            mDescriptions[weatherId - FIRST_CODE] = description;
+        }
+        return description;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.ChangeEntry;
+
+/**
+ * The change log behind the changes URI.  WeatherProvider records every write here; the log
+ * lives in weather.db whichever ForecastStore holds the forecasts.
+ */
+class ChangeLog {
+
+    // How many entries are kept.  Anyone further behind than this gets a KIND_RESET.
+    static final int MAX_ENTRIES = 5000;
+
+    private static final String[] ALL_COLUMNS = {
+            ChangeEntry._ID,
+            ChangeEntry.COLUMN_LOC_KEY,
+            ChangeEntry.COLUMN_DATE,
+            ChangeEntry.COLUMN_KIND,
+            ChangeEntry.COLUMN_EPOCH
+    };
+
+    //INSERT INTO changes (location_id, date, kind) VALUES (?, ?, ?)
+    private static final String sInsertEntry =
+            "INSERT INTO " + ChangeEntry.TABLE_NAME + " (" +
+                    ChangeEntry.COLUMN_LOC_KEY + ", " +
+                    ChangeEntry.COLUMN_DATE + ", " +
+                    ChangeEntry.COLUMN_KIND + ") VALUES (?, ?, ?)";
+
+    //changes._id > ?
+    private static final String sSinceSelection = ChangeEntry._ID + " > ?";
+
+    private final WeatherDbHelper mOpenHelper;
+
+    ChangeLog(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    void record(int kind, long locationId, long date) {
+        SQLiteStatement insert = mOpenHelper.getWritableDatabase().compileStatement(sInsertEntry);
+        try {
+            bind(insert, kind, locationId, date);
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Records one entry per row of weather values, each keyed by its location and date.
+     */
+    void recordAll(int kind, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(sInsertEntry);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (null == locationId || null == date) continue;
+                bind(insert, kind, locationId, date);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Records one entry per row of the cursor, which holds the location id in its first column
+     * and, when it has a second, the date.  Closes the cursor.
+     */
+    void recordRows(int kind, Cursor rows) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(sInsertEntry);
+        db.beginTransaction();
+        try {
+            boolean hasDate = rows.getColumnCount() > 1;
+            while (rows.moveToNext()) {
+                bind(insert, kind, rows.getLong(0), hasDate ? rows.getLong(1) : 0);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            rows.close();
+        }
+    }
+
+    private static void bind(SQLiteStatement insert, int kind, long locationId, long date) {
+        insert.bindLong(1, locationId);
+        insert.bindLong(2, date);
+        insert.bindLong(3, kind);
+    }
+
+    /**
+     * @return the entries after since, oldest first, or a single KIND_RESET entry when epoch
+     * isn't the current one or the log doesn't reach back that far
+     */
+    Cursor query(String[] projection, long epoch, long since) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        if (null == projection) projection = ALL_COLUMNS;
+        long currentEpoch = DatabaseUtils.longForQuery(db,
+                "SELECT " + ChangeEntry.COLUMN_EPOCH + " FROM " + ChangeEntry.EPOCH_TABLE_NAME, null);
+        long newest = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_NAME, null);
+        long oldest = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MIN(" + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_NAME, null);
+
+        // Another epoch means the database was created again since the caller last read, and its
+        // since is a sequence of the old one.  A sequence from the future means the same.  An
+        // oldest entry past since + 1 means entries it hasn't seen were trimmed.  (A rolled back
+        // write can leave a gap that looks the same; a needless reset is the safe mistake.)
+        if (epoch != currentEpoch || since > newest || (newest > 0 && oldest > since + 1)) {
+            MatrixCursor reset = new MatrixCursor(projection, 1);
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                if (ChangeEntry._ID.equals(projection[i])) {
+                    row[i] = newest;
+                } else if (ChangeEntry.COLUMN_KIND.equals(projection[i])) {
+                    row[i] = ChangeEntry.KIND_RESET;
+                } else if (ChangeEntry.COLUMN_EPOCH.equals(projection[i])) {
+                    row[i] = currentEpoch;
+                } else {
+                    row[i] = 0;
+                }
+            }
+            reset.addRow(row);
+            return reset;
+        }
+
+        // The epoch isn't stored with each entry, so it goes into the query as a constant
+        String[] columns = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = ChangeEntry.COLUMN_EPOCH.equals(projection[i]) ?
+                    currentEpoch + " AS " + ChangeEntry.COLUMN_EPOCH : projection[i];
+        }
+        return db.query(ChangeEntry.TABLE_NAME,
+                columns,
+                sSinceSelection,
+                new String[]{Long.toString(since)},
+                null,
+                null,
+                ChangeEntry._ID + " ASC");
+    }
+
+    /**
+     * Drops all but the newest MAX_ENTRIES entries.
+     *
+     * @return the number of entries dropped
+     */
+    static int trim(SQLiteDatabase db) {
+        return db.delete(ChangeEntry.TABLE_NAME,
+                ChangeEntry._ID + " <= (SELECT MAX(" + ChangeEntry._ID + ") FROM " +
+                        ChangeEntry.TABLE_NAME + ") - " + MAX_ENTRIES,
+                null);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SnapshotEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes and reads a compact binary copy of the location and weather tables, so that a wiped
+ * or rebuilt database can be filled again without going to the network.
+ *
+ * The file is a header (magic, format version, creation time), the locations, the forecasts,
+ * and a CRC32 of everything before it.  Columns are written one by one rather than as a copy
+ * of the database pages, so a snapshot outlives schema upgrades.  Files are replaced through
+ * AtomicFile, so a reader only ever sees a complete snapshot or the previous one.
+ */
+class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    // Kept under getFilesDir(), which the platform backup includes
+    static final String FILE_NAME = "forecast.snapshot";
+
+    private static final int MAGIC = 0x53554e53; // "SUNS"
+    // 2: the location's city id
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * Writes every location and forecast to the snapshot file, replacing the previous one.
+     *
+     * @return the counts, keyed by the SnapshotEntry constants
+     */
+    static Bundle write(SQLiteDatabase db, ForecastStore store, File file) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        long created = System.currentTimeMillis();
+        int locationCount = 0;
+        int weatherCount = 0;
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = atomicFile.startWrite();
+        try {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(fos, crc)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(created);
+
+            Cursor locations = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                    null, null, null, null, LocationEntry._ID + " ASC");
+            try {
+                locationCount = locations.getCount();
+                out.writeInt(locationCount);
+                while (locations.moveToNext()) {
+                    out.writeLong(locations.getLong(0));
+                    out.writeUTF(locations.getString(1));
+                    out.writeUTF(locations.getString(2));
+                    out.writeDouble(locations.getDouble(3));
+                    out.writeDouble(locations.getDouble(4));
+                    // Null until the weather service has told us
+                    boolean hasCityId = !locations.isNull(5);
+                    out.writeBoolean(hasCityId);
+                    if (hasCityId) out.writeLong(locations.getLong(5));
+                }
+            } finally {
+                locations.close();
+            }
+
+            Cursor weather = store.queryWeather(WEATHER_COLUMNS, null, null, null, 0, null);
+            try {
+                weatherCount = weather.getCount();
+                out.writeInt(weatherCount);
+                while (weather.moveToNext()) {
+                    out.writeLong(weather.getLong(0));
+                    out.writeLong(weather.getLong(1));
+                    out.writeUTF(weather.getString(2));
+                    out.writeInt(weather.getInt(3));
+                    for (int i = 4; i < WEATHER_COLUMNS.length; i++) {
+                        out.writeDouble(weather.getDouble(i));
+                    }
+                }
+            } finally {
+                weather.close();
+            }
+
+            out.flush();
+            // The checksum itself goes straight to the file, outside of what it covers
+            new DataOutputStream(fos).writeLong(crc.getValue());
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            atomicFile.failWrite(fos);
+            throw e;
+        } catch (RuntimeException e) {
+            atomicFile.failWrite(fos);
+            throw e;
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(SnapshotEntry.LOCATION_COUNT, locationCount);
+        result.putInt(SnapshotEntry.WEATHER_COUNT, weatherCount);
+        result.putLong(SnapshotEntry.SIZE_BYTES, file.length());
+        result.putLong(SnapshotEntry.CREATED, created);
+        result.putLong(SnapshotEntry.ELAPSED_MILLIS, SystemClock.elapsedRealtime() - start);
+        Log.d(LOG_TAG, "Snapshot written: " + locationCount + " locations, " + weatherCount +
+                " forecasts, " + file.length() + " bytes");
+        return result;
+    }
+
+    /**
+     * Replaces the location and weather tables with the contents of the snapshot file.  The
+     * file is checked in full before anything is touched, so a missing, truncated or corrupt
+     * snapshot leaves the tables as they were.  A KIND_RESET goes into the change log, and the
+     * today rows are worked out again, in the same transaction as the new rows.
+     *
+     * @return the counts, keyed by the SnapshotEntry constants, or null if there was no valid
+     * snapshot to read
+     */
+    static Bundle read(SQLiteDatabase db, ForecastStore store, ChangeLog changeLog,
+                       TodayForecast todayForecast, File file) {
+        long start = SystemClock.elapsedRealtime();
+        AtomicFile atomicFile = new AtomicFile(file);
+        if (!atomicFile.getBaseFile().exists()) return null;
+
+        long created;
+        ContentValues[] locations;
+        ContentValues[] weather;
+        try {
+            byte[] data = atomicFile.readFully();
+            if (data.length < 8) {
+                Log.w(LOG_TAG, "Snapshot is truncated");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(data.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                Log.w(LOG_TAG, "Snapshot failed its checksum");
+                return null;
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                Log.w(LOG_TAG, "Snapshot is not in a format we can read");
+                return null;
+            }
+            created = in.readLong();
+
+            locations = new ContentValues[in.readInt()];
+            for (int i = 0; i < locations.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry._ID, in.readLong());
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, in.readUTF());
+                values.put(LocationEntry.COLUMN_CITY_NAME, in.readUTF());
+                values.put(LocationEntry.COLUMN_COORD_LAT, in.readDouble());
+                values.put(LocationEntry.COLUMN_COORD_LONG, in.readDouble());
+                if (in.readBoolean()) {
+                    values.put(LocationEntry.COLUMN_CITY_ID, in.readLong());
+                }
+                locations[i] = values;
+            }
+
+            weather = new ContentValues[in.readInt()];
+            for (int i = 0; i < weather.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_LOC_KEY, in.readLong());
+                values.put(WeatherEntry.COLUMN_DATE, in.readLong());
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, in.readUTF());
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, in.readInt());
+                for (int c = 4; c < WEATHER_COLUMNS.length; c++) {
+                    values.put(WEATHER_COLUMNS[c], in.readDouble());
+                }
+                // Only the raw columns are kept in the snapshot; the rest follow from them
+                weather[i] = WeatherEnrichment.enrich(values);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't read the snapshot", e);
+            return null;
+        }
+
+        db.beginTransaction();
+        try {
+            // Everything is replaced at once, so consumers have to start over
+            changeLog.record(WeatherContract.ChangeEntry.KIND_RESET, 0, 0);
+            db.delete(LocationEntry.TABLE_NAME, null, null);
+            for (ContentValues values : locations) {
+                db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            store.deleteWeather(null, null);
+            store.bulkInsertWeather(weather);
+            todayForecast.refresh(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(SnapshotEntry.LOCATION_COUNT, locations.length);
+        result.putInt(SnapshotEntry.WEATHER_COUNT, weather.length);
+        result.putLong(SnapshotEntry.SIZE_BYTES, file.length());
+        result.putLong(SnapshotEntry.CREATED, created);
+        result.putLong(SnapshotEntry.ELAPSED_MILLIS, SystemClock.elapsedRealtime() - start);
+        Log.d(LOG_TAG, "Snapshot restored: " + locations.length + " locations, " +
+                weather.length + " forecasts in " +
+                result.getLong(SnapshotEntry.ELAPSED_MILLIS) + "ms");
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * The storage engine behind the weather URIs of WeatherProvider.  Locations always live in the
+ * location table of weather.db; a store only decides where the forecast rows themselves are
+ * kept and how they are read back.
+ *
+ * Dates handed to a store have already been normalized by the provider.  Query cursors that
+ * join in the location may name columns the way WeatherProvider's callers do, qualified
+ * ("weather._id") or not.
+ */
+interface ForecastStore {
+
+    /**
+     * "weather": every forecast row, without the location columns.
+     *
+     * @param pageSize  when greater than 0, return at most this many rows ordered by
+     *                  (location_id, date) and ignore sortOrder
+     * @param pageAfter when paging, the (location_id, date) key of the last row of the previous
+     *                  page, or null for the first page
+     */
+    Cursor queryWeather(String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, int pageSize, long[] pageAfter);
+
+    /**
+     * "weather/*": the forecast for one location from startDate on, joined with its location
+     * row.  A startDate of 0 returns every day stored for the location.  Paging works as for
+     * {@link #queryWeather}.
+     */
+    Cursor queryWeatherByLocation(String locationSetting, long startDate, String[] projection,
+                                  String sortOrder, int pageSize, long[] pageAfter);
+
+    /**
+     * "weather/*&#47;#": the forecast for one location and day, joined with its location row.
+     */
+    Cursor queryWeatherByLocationAndDate(String locationSetting, long date, String[] projection,
+                                         String sortOrder);
+
+    /**
+     * Stores one forecast row, replacing any row for the same location and day.
+     *
+     * @return the row id of the new row, or -1 if it could not be stored
+     */
+    long insertWeather(ContentValues values);
+
+    /**
+     * Stores a batch of forecast rows, with the same replace rule as insertWeather.
+     *
+     * @return the number of rows stored
+     */
+    int bulkInsertWeather(ContentValues[] values);
+
+    /**
+     * Changes the matching rows.  When values change an input of a derived column, the derived
+     * columns of each row are worked out again from its stored inputs and the new ones.
+     *
+     * @return the number of rows changed
+     */
+    int updateWeather(ContentValues values, String selection, String[] selectionArgs);
+
+    /**
+     * @param selection null deletes every row
+     * @return the number of rows deleted
+     */
+    int deleteWeather(String selection, String[] selectionArgs);
+
+    /**
+     * Deletes every forecast row of the given locations.  WeatherProvider calls this when it
+     * deletes locations, as their ids can be handed out again to new ones.
+     *
+     * @param locationIds null deletes the rows of every location
+     */
+    void deleteLocationForecasts(long[] locationIds);
+
+    /**
+     * @return true when the forecast rows are kept in weather.db, so that a write made inside
+     * one of its transactions commits or rolls back with it
+     */
+    boolean isInDatabase();
+
+    void close();
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Julian days and calendar dates worked out with arithmetic on longs and ints, in place of
+ * android.text.format.Time, which costs an object (and its strings) every time it is used.
+ * Nothing here allocates.
+ *
+ * The methods without a TimeZone work in the default one, which is kept rather than fetched
+ * on every call (TimeZone.getDefault() hands back a fresh copy each time).
+ * TimeZoneChangedReceiver drops it when the time zone changes, and the next call fetches it
+ * again.
+ */
+public final class JulianDays {
+
+    // The Julian day of 1 January 1970, as in Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    public static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // How far either side of a UTC midnight the local midnight can be, with room to spare
+    private static final long MAX_OFFSET_MILLIS = 15 * 60 * 60 * 1000;
+
+    private static volatile TimeZone sTimeZone;
+
+    private JulianDays() {
+    }
+
+    /**
+     * @return the default time zone, as of the last time zone change
+     */
+    public static TimeZone getTimeZone() {
+        TimeZone timeZone = sTimeZone;
+        if (null == timeZone) {
+            timeZone = TimeZone.getDefault();
+            sTimeZone = timeZone;
+        }
+        return timeZone;
+    }
+
+    /**
+     * Forgets the default time zone, so the next call fetches it again.
+     */
+    static void onTimeZoneChanged() {
+        sTimeZone = null;
+    }
+
+    /**
+     * The Julian day a moment falls on, for a given offset from UTC.  The same as
+     * Time.getJulianDay() for every moment since 1970, and right before it too.
+     */
+    public static int fromMillis(long millis, int gmtOffSeconds) {
+        return (int) floorDiv(millis + gmtOffSeconds * 1000L, DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the Julian day a moment falls on in the default time zone
+     */
+    public static int fromMillis(long millis) {
+        return fromMillis(millis, getGmtOffset(millis));
+    }
+
+    /**
+     * @return today's Julian day in the default time zone
+     */
+    public static int today() {
+        return fromMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the default time zone's offset from UTC at a moment, in seconds
+     */
+    public static int getGmtOffset(long millis) {
+        return getTimeZone().getOffset(millis) / 1000;
+    }
+
+    /**
+     * @return the moment a Julian day starts in UTC
+     */
+    public static long toUtcMillis(int julianDay) {
+        return (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+    }
+
+    /**
+     * @return the moment a Julian day starts in the default time zone, which is what
+     * Time.setJulianDay() gave
+     */
+    public static long toMillis(int julianDay) {
+        return toMillis(julianDay, getTimeZone());
+    }
+
+    /**
+     * The moment a Julian day starts in a time zone: local midnight, or the first midnight
+     * where the clocks go back over it, or the moment they go forward where they skip it.
+     */
+    public static long toMillis(int julianDay, TimeZone timeZone) {
+        long utcMidnight = toUtcMillis(julianDay);
+        // Midnight by the offsets in force well before and well after it; away from a
+        // change of offset the two agree
+        int earlyOffset = timeZone.getOffset(utcMidnight - MAX_OFFSET_MILLIS);
+        int lateOffset = timeZone.getOffset(utcMidnight + MAX_OFFSET_MILLIS);
+        long early = utcMidnight - earlyOffset;
+        if (earlyOffset == lateOffset) {
+            return early;
+        }
+        long late = utcMidnight - lateOffset;
+        boolean earlyIsMidnight = early + timeZone.getOffset(early) == utcMidnight;
+        boolean lateIsMidnight = late + timeZone.getOffset(late) == utcMidnight;
+        if (earlyIsMidnight && lateIsMidnight) {
+            return Math.min(early, late);
+        } else if (earlyIsMidnight) {
+            return early;
+        } else if (lateIsMidnight) {
+            return late;
+        }
+
+        // The clocks went forward over midnight, so the day starts when they did, somewhere
+        // between the two.  Rare enough that searching for the moment is fine.
+        long low = Math.min(early, late);
+        long high = Math.max(early, late);
+        while (low < high) {
+            long middle = low + (high - low) / 2;
+            if (timeZone.getOffset(middle) == lateOffset) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return the minute of the day a moment falls on, for a given offset from UTC
+     */
+    public static int getMinuteOfDay(long millis, int gmtOffSeconds) {
+        return (int) (floorMod(millis + gmtOffSeconds * 1000L, DAY_IN_MILLIS) / (60 * 1000));
+    }
+
+    /**
+     * @return the day of the week, 0 for Sunday through 6 for Saturday, as in Time.weekDay
+     */
+    public static int getWeekDay(int julianDay) {
+        return (int) floorMod(julianDay + 1, 7);
+    }
+
+    /**
+     * @return the Gregorian year of a Julian day
+     */
+    public static int getYear(int julianDay) {
+        return toYearMonthDay(julianDay) / 10000;
+    }
+
+    /**
+     * @return the month of a Julian day, 0 for January through 11, as in Time.month
+     */
+    public static int getMonth(int julianDay) {
+        return toYearMonthDay(julianDay) / 100 % 100 - 1;
+    }
+
+    /**
+     * @return the day of the month of a Julian day, from 1, as in Time.monthDay
+     */
+    public static int getMonthDay(int julianDay) {
+        return toYearMonthDay(julianDay) % 100;
+    }
+
+    /**
+     * @return the Julian day of a Gregorian date; month from 0 and day from 1, as in Time
+     */
+    public static int fromDate(int year, int month, int monthDay) {
+        // Count from March, so that the leap day ends the year
+        int m = month + 1;
+        long y = m <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + monthDay - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        // 719468 days from 1 March 0000 to 1 January 1970
+        return (int) (era * 146097 + dayOfEra - 719468) + EPOCH_JULIAN_DAY;
+    }
+
+    /*
+        The Gregorian date of a Julian day as yyyymmdd, the months from 1.  This is the usual
+        count of 400 year eras starting on 1 March, which keeps the leap day at the end.
+     */
+    private static int toYearMonthDay(int julianDay) {
+        long days = (long) julianDay - EPOCH_JULIAN_DAY + 719468;
+        long era = floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * marchMonth + 2) / 5 + 1;
+        long month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 10000 + month * 100 + day);
+    }
+
+    // Math.floorDiv() and floorMod() only arrived in Java 8
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
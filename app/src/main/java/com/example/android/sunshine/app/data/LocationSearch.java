@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationSearchEntry;
+
+/**
+ * The location search behind location/search, and the city catalog it searches along with the
+ * location table.  Both tables have an FTS3 index that WeatherDbHelper's triggers keep current,
+ * so a search is a lookup in the full text index rather than a LIKE scan.
+ */
+class LocationSearch {
+
+    private static final String[] ALL_COLUMNS = {
+            LocationSearchEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationSearchEntry.COLUMN_SOURCE
+    };
+
+    // The location setting a catalog city is fetched with
+    //city.city_name || ',' || city.country
+    static final String CATALOG_LOCATION_SETTING =
+            CityEntry.TABLE_NAME + "." + CityEntry.COLUMN_CITY_NAME + " || ',' || " +
+                    CityEntry.TABLE_NAME + "." + CityEntry.COLUMN_COUNTRY;
+
+    //SELECT location._id AS _id, location.location_setting AS location_setting, ...,
+    //      0 AS source
+    //  FROM location_search JOIN location ON location._id = location_search.docid
+    //  WHERE location_search MATCH ?
+    //UNION ALL
+    //SELECT city._id AS _id, city.city_name || ',' || city.country AS location_setting, ...,
+    //      1 AS source
+    //  FROM city_search JOIN city ON city._id = city_search.docid
+    //  WHERE city_search MATCH ? AND location_setting NOT IN (SELECT location_setting FROM location)
+    private static final String sSearchTables = "(" +
+            "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " AS " +
+            LocationSearchEntry._ID + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " AS " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME + " AS " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LAT + " AS " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LONG + " AS " +
+            LocationEntry.COLUMN_COORD_LONG + ", " +
+            LocationSearchEntry.SOURCE_LOCATION + " AS " + LocationSearchEntry.COLUMN_SOURCE +
+            " FROM " + LocationSearchEntry.TABLE_NAME + " JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = " +
+            LocationSearchEntry.TABLE_NAME + ".docid" +
+            " WHERE " + LocationSearchEntry.TABLE_NAME + " MATCH ?" +
+            " UNION ALL " +
+            "SELECT " +
+            CityEntry.TABLE_NAME + "." + CityEntry._ID + ", " +
+            CATALOG_LOCATION_SETTING + ", " +
+            CityEntry.TABLE_NAME + "." + CityEntry.COLUMN_CITY_NAME + ", " +
+            CityEntry.TABLE_NAME + "." + CityEntry.COLUMN_COORD_LAT + ", " +
+            CityEntry.TABLE_NAME + "." + CityEntry.COLUMN_COORD_LONG + ", " +
+            LocationSearchEntry.SOURCE_CATALOG +
+            " FROM " + LocationSearchEntry.CITY_TABLE_NAME + " JOIN " + CityEntry.TABLE_NAME +
+            " ON " + CityEntry.TABLE_NAME + "." + CityEntry._ID + " = " +
+            LocationSearchEntry.CITY_TABLE_NAME + ".docid" +
+            " WHERE " + LocationSearchEntry.CITY_TABLE_NAME + " MATCH ?" +
+            // A city we already hold a location for is listed once, as that location
+            " AND " + CATALOG_LOCATION_SETTING + " NOT IN (SELECT " +
+            LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME + ")" +
+            ")";
+
+    //INSERT OR REPLACE INTO city (_id, city_name, country, coord_lat, coord_long)
+    //  VALUES (?, ?, ?, ?, ?)
+    private static final String sInsertCity =
+            "INSERT OR REPLACE INTO " + CityEntry.TABLE_NAME + " (" +
+                    CityEntry._ID + ", " +
+                    CityEntry.COLUMN_CITY_NAME + ", " +
+                    CityEntry.COLUMN_COUNTRY + ", " +
+                    CityEntry.COLUMN_COORD_LAT + ", " +
+                    CityEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)";
+
+    //source ASC, city_name ASC
+    private static final String sDefaultSortOrder =
+            LocationSearchEntry.COLUMN_SOURCE + " ASC, " +
+                    LocationEntry.COLUMN_CITY_NAME + " ASC";
+
+    private static final SQLiteQueryBuilder sSearchQueryBuilder;
+
+    static {
+        sSearchQueryBuilder = new SQLiteQueryBuilder();
+        sSearchQueryBuilder.setTables(sSearchTables);
+    }
+
+    private final WeatherDbHelper mOpenHelper;
+
+    LocationSearch(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * @return the locations and catalog cities matching the text, or no rows at all if the text
+     * has nothing to search for
+     */
+    Cursor query(String[] projection, String text, String sortOrder, int limit) {
+        String match = toMatchExpression(text);
+        if (null == match) {
+            return new MatrixCursor(null == projection ? ALL_COLUMNS : projection, 0);
+        }
+        if (null == sortOrder) sortOrder = sDefaultSortOrder;
+        return sSearchQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                null,
+                new String[]{match, match},
+                null,
+                null,
+                sortOrder,
+                Integer.toString(limit));
+    }
+
+    /*
+        Turns free text into an FTS3 MATCH expression: every run of letters and digits becomes a
+        prefix term, and the terms are ANDed together.  Everything else is dropped, which keeps
+        quotes, '-', '*' and the like from being read as query syntax.  ASCII letters are lower
+        cased so that "OR" and "NOT" stay words rather than operators; the default tokenizer
+        folds ASCII case the same way when indexing.
+
+        Returns null when there is no word in the text at all.
+     */
+    static String toMatchExpression(String text) {
+        if (null == text) return null;
+        StringBuilder match = new StringBuilder(text.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && match.length() > 0) match.append(' ');
+                match.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                inWord = true;
+            } else if (inWord) {
+                match.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) match.append('*');
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * Adds cities to the catalog in one transaction, replacing any with the same id.  Cities
+     * missing a column are skipped.
+     *
+     * @return the number of cities stored
+     */
+    int bulkInsertCities(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        // One statement compiled for the whole batch, rather than one per row as insert() does;
+        // with catalog sized batches the compiling is most of the cost.
+        SQLiteStatement insert = db.compileStatement(sInsertCity);
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                Long id = value.getAsLong(CityEntry._ID);
+                String name = value.getAsString(CityEntry.COLUMN_CITY_NAME);
+                String country = value.getAsString(CityEntry.COLUMN_COUNTRY);
+                Double lat = value.getAsDouble(CityEntry.COLUMN_COORD_LAT);
+                Double lon = value.getAsDouble(CityEntry.COLUMN_COORD_LONG);
+                if (null == id || null == name || null == country || null == lat || null == lon) {
+                    continue;
+                }
+                insert.bindLong(1, id);
+                insert.bindString(2, name);
+                insert.bindString(3, country);
+                insert.bindDouble(4, lat);
+                insert.bindDouble(5, lon);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return returnCount;
+    }
+}
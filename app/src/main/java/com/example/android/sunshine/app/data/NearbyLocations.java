@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.location.Location;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.NearbyLocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * The nearest neighbour search behind location/near.  The (coord_lat, coord_long) index turns
+ * the bounding box of the search circle into a range scan over one latitude band; the few rows
+ * in the box are then measured exactly and sorted here.
+ */
+class NearbyLocations {
+
+    // Mean radius of the earth, in meters
+    private static final double EARTH_RADIUS = 6371009;
+
+    private static final String[] ALL_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            NearbyLocationEntry.COLUMN_DISTANCE,
+            LocationEntry.COLUMN_LAST_FETCHED
+    };
+
+    // The location columns, in ALL_COLUMNS order
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_LAST_FETCHED
+    };
+
+    //coord_lat BETWEEN ? AND ? AND coord_long BETWEEN ? AND ?
+    private static final String sBoxSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND " +
+                    LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?";
+
+    //coord_lat BETWEEN ? AND ? AND (coord_long >= ? OR coord_long <= ?)
+    private static final String sAntimeridianBoxSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND (" +
+                    LocationEntry.COLUMN_COORD_LONG + " >= ? OR " +
+                    LocationEntry.COLUMN_COORD_LONG + " <= ?)";
+
+    //coord_lat BETWEEN ? AND ?
+    private static final String sBandSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ?";
+
+    private final WeatherDbHelper mOpenHelper;
+
+    NearbyLocations(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * @return at most limit locations within radius meters of (lat, lon), nearest first
+     */
+    Cursor query(String[] projection, double lat, double lon, double radius, int limit) {
+        if (null == projection) projection = ALL_COLUMNS;
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(projection[i]);
+        }
+
+        // A degree of latitude is the same length everywhere; a degree of longitude shrinks
+        // with the cosine of the latitude, down to nothing at the poles.
+        double latDelta = Math.toDegrees(radius / EARTH_RADIUS);
+        double minLat = Math.max(-90, lat - latDelta);
+        double maxLat = Math.min(90, lat + latDelta);
+        double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+        double lonDelta = cosLat > 0 ? latDelta / cosLat : 360;
+
+        String selection;
+        String[] selectionArgs;
+        if (lonDelta >= 180) {
+            // The circle reaches round the pole, so every longitude is in
+            selection = sBandSelection;
+            selectionArgs = new String[]{Double.toString(minLat), Double.toString(maxLat)};
+        } else {
+            double minLon = lon - lonDelta;
+            double maxLon = lon + lonDelta;
+            if (minLon < -180 || maxLon > 180) {
+                // The box straddles the antimeridian, so it is two boxes at either end
+                selection = sAntimeridianBoxSelection;
+                if (minLon < -180) minLon += 360;
+                if (maxLon > 180) maxLon -= 360;
+            } else {
+                selection = sBoxSelection;
+            }
+            selectionArgs = new String[]{Double.toString(minLat), Double.toString(maxLat),
+                    Double.toString(minLon), Double.toString(maxLon)};
+        }
+
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(LocationEntry.TABLE_NAME,
+                LOCATION_COLUMNS, selection, selectionArgs, null, null, null);
+        try {
+            float[] distance = new float[1];
+            while (cursor.moveToNext()) {
+                double rowLat = cursor.getDouble(3);
+                double rowLon = cursor.getDouble(4);
+                Location.distanceBetween(lat, lon, rowLat, rowLon, distance);
+                // The corners of the box are further away than its sides
+                if (distance[0] > radius) continue;
+                rows.add(new Object[]{
+                        cursor.getLong(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        rowLat,
+                        rowLon,
+                        (double) distance[0],
+                        cursor.isNull(5) ? null : cursor.getLong(5)
+                });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare((Double) lhs[5], (Double) rhs[5]);
+            }
+        });
+
+        int count = Math.min(limit, rows.size());
+        MatrixCursor nearby = new MatrixCursor(projection, count);
+        for (int i = 0; i < count; i++) {
+            Object[] row = rows.get(i);
+            Object[] values = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                values[c] = row[columns[c]];
+            }
+            nearby.addRow(values);
+        }
+        return nearby;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            if (ALL_COLUMNS[i].equals(column)) return i;
+        }
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+}
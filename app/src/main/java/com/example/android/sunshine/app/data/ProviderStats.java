@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Binder;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.DiagnosticsEntry;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms, row counts and caller counts for each WeatherProvider operation, broken
+ * down by URI match code.  Everything is kept in memory for the life of the provider process.
+ */
+class ProviderStats {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete"
+    };
+
+    // Upper bounds of the histogram buckets, in microseconds.  Anything slower than the last
+    // bound lands in the overflow bucket.
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000
+    };
+
+    private static class Histogram {
+        final int operation;
+        final int match;
+        final long[] buckets = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        long count;
+        long rows;
+        long totalMicros;
+        long maxMicros;
+
+        Histogram(int operation, int match) {
+            this.operation = operation;
+            this.match = match;
+        }
+
+        void add(long micros, int rowCount) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            rows += rowCount;
+            totalMicros += micros;
+            if (micros > maxMicros) maxMicros = micros;
+        }
+
+        // Returns the upper bound of the bucket holding the given percentile.  For the overflow
+        // bucket that is the slowest call we have seen.
+        long percentile(int percent) {
+            long threshold = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= threshold) {
+                    return i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] : maxMicros;
+                }
+            }
+            return maxMicros;
+        }
+    }
+
+    private final SparseArray<Histogram> mHistograms = new SparseArray<Histogram>();
+    private final SparseIntArray mCallerCounts = new SparseIntArray();
+
+    /**
+     * Records one finished operation.
+     *
+     * @param operation one of the OP_ constants
+     * @param match     the UriMatcher code of the URI the operation ran against
+     * @param rowCount  rows returned or affected
+     * @param startNanos the System.nanoTime() taken when the operation started
+     */
+    void record(int operation, int match, int rowCount, long startNanos) {
+        record(operation, match, rowCount, startNanos, Binder.getCallingUid());
+    }
+
+    /**
+     * As above, for an operation that finishes after the binder call it came in on, such as a
+     * query whose rows are read later.
+     *
+     * @param uid the caller's uid, taken while the call was still being served
+     */
+    void record(int operation, int match, int rowCount, long startNanos, int uid) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int key = (operation << 16) | (match & 0xffff);
+        synchronized (this) {
+            Histogram histogram = mHistograms.get(key);
+            if (null == histogram) {
+                histogram = new Histogram(operation, match);
+                mHistograms.put(key, histogram);
+            }
+            histogram.add(micros, rowCount);
+            mCallerCounts.put(uid, mCallerCounts.get(uid) + 1);
+        }
+    }
+
+    synchronized void reset() {
+        mHistograms.clear();
+        mCallerCounts.clear();
+    }
+
+    /**
+     * @return one row per operation and URI match code, with the columns from DiagnosticsEntry
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                DiagnosticsEntry.COLUMN_OPERATION,
+                DiagnosticsEntry.COLUMN_URI_MATCH,
+                DiagnosticsEntry.COLUMN_COUNT,
+                DiagnosticsEntry.COLUMN_ROWS,
+                DiagnosticsEntry.COLUMN_MEAN_MICROS,
+                DiagnosticsEntry.COLUMN_P50_MICROS,
+                DiagnosticsEntry.COLUMN_P90_MICROS,
+                DiagnosticsEntry.COLUMN_P99_MICROS,
+                DiagnosticsEntry.COLUMN_MAX_MICROS
+        }, mHistograms.size());
+        for (int i = 0; i < mHistograms.size(); i++) {
+            Histogram h = mHistograms.valueAt(i);
+            cursor.addRow(new Object[]{
+                    OPERATION_NAMES[h.operation],
+                    WeatherProvider.getMatchName(h.match),
+                    h.count,
+                    h.rows,
+                    h.totalMicros / h.count,
+                    h.percentile(50),
+                    h.percentile(90),
+                    h.percentile(99),
+                    h.maxMicros
+            });
+        }
+        return cursor;
+    }
+
+    synchronized void dump(PrintWriter writer, PackageManager pm) {
+        writer.println("WeatherProvider operations (latencies in us):");
+        for (int i = 0; i < mHistograms.size(); i++) {
+            Histogram h = mHistograms.valueAt(i);
+            writer.printf("  %-10s %-32s count=%d rows=%d mean=%d p50<=%d p90<=%d p99<=%d max=%d%n",
+                    OPERATION_NAMES[h.operation], WeatherProvider.getMatchName(h.match),
+                    h.count, h.rows, h.totalMicros / h.count,
+                    h.percentile(50), h.percentile(90), h.percentile(99), h.maxMicros);
+            writer.print("    buckets:");
+            for (int b = 0; b < h.buckets.length; b++) {
+                if (b < BUCKET_BOUNDS_MICROS.length) {
+                    writer.print(" <=" + BUCKET_BOUNDS_MICROS[b] + "=" + h.buckets[b]);
+                } else {
+                    writer.print(" >" + BUCKET_BOUNDS_MICROS[b - 1] + "=" + h.buckets[b]);
+                }
+            }
+            writer.println();
+        }
+        writer.println("Callers:");
+        for (int i = 0; i < mCallerCounts.size(); i++) {
+            int uid = mCallerCounts.keyAt(i);
+            writer.println("  " + pm.getNameForUid(uid) + " (uid " + uid + ") calls=" +
+                    mCallerCounts.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+/**
+ * Keeps the forecasts in the weather table of weather.db, next to the locations.  Anything a
+ * caller can express in SQL works here, which makes this the default store.
+ *
+ * Reads for a location go to current_forecast, the copy of the weather table with the location
+ * columns inline that WeatherDbHelper's triggers maintain, and are range scans of its
+ * (location_setting, date) index.
+ */
+class SqliteForecastStore implements ForecastStore {
+
+    private final WeatherDbHelper mOpenHelper;
+
+    private static final SQLiteQueryBuilder sCurrentForecastQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder;
+
+    static{
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+
+        sCurrentForecastQueryBuilder = new SQLiteQueryBuilder();
+
+        //current_forecast already holds the location columns, so there is no join.  It goes by
+        //the weather table's name, so projections and selections qualified with "weather." work
+        //as they did against the join:
+        //current_forecast AS weather
+        sCurrentForecastQueryBuilder.setTables(
+                WeatherContract.CurrentForecastEntry.TABLE_NAME + " AS " +
+                        WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+
+    //weather.location_setting = ?
+    private static final String sLocationSettingSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //weather.location_setting = ? AND date >= ?
+    private static final String sLocationSettingWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_setting = ? AND date = ?
+    private static final String sLocationSettingAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //(weather.location_id > ? OR (weather.location_id = ? AND weather.date > ?))
+    private static final String sAfterPageKeySelection =
+            "(" + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " > ? OR (" +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?))";
+
+    //weather.location_id ASC, weather.date ASC
+    private static final String sPageSortOrder =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " ASC, " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    //_id followed by the inputs of the derived columns
+    private static final String[] sInputProjection =
+            new String[WeatherEnrichment.INPUT_COLUMNS.length + 1];
+
+    static{
+        sInputProjection[0] = WeatherContract.WeatherEntry._ID;
+        System.arraycopy(WeatherEnrichment.INPUT_COLUMNS, 0, sInputProjection, 1,
+                WeatherEnrichment.INPUT_COLUMNS.length);
+    }
+
+    SqliteForecastStore(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    @Override
+    public Cursor queryWeather(String[] projection, String selection, String[] selectionArgs,
+                               String sortOrder, int pageSize, long[] pageAfter) {
+        return queryPage(sWeatherQueryBuilder, projection, selection, selectionArgs, sortOrder,
+                pageSize, pageAfter);
+    }
+
+    @Override
+    public Cursor queryWeatherByLocation(String locationSetting, long startDate,
+                                         String[] projection, String sortOrder,
+                                         int pageSize, long[] pageAfter) {
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selection = sLocationSettingWithStartDateSelection;
+        }
+
+        return queryPage(sCurrentForecastQueryBuilder,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder,
+                pageSize,
+                pageAfter
+        );
+    }
+
+    @Override
+    public Cursor queryWeatherByLocationAndDate(String locationSetting, long date,
+                                                String[] projection, String sortOrder) {
+        return sCurrentForecastQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAndDaySelection,
+                new String[]{locationSetting, Long.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        Runs the query, restricted to a single page when asked for one.  Pages are ordered by
+        (location_id, date) and start after the given key, which the (location_id, date) index
+        turns into a range scan instead of an OFFSET skip.
+     */
+    private Cursor queryPage(SQLiteQueryBuilder builder, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder,
+                             int pageSize, long[] after) {
+        String limit = null;
+        if (pageSize > 0) {
+            if (null != after) {
+                selection = (null == selection) ? sAfterPageKeySelection :
+                        "(" + selection + ") AND " + sAfterPageKeySelection;
+                int argCount = (null == selectionArgs) ? 0 : selectionArgs.length;
+                String[] pageArgs = new String[argCount + 3];
+                if (argCount > 0) {
+                    System.arraycopy(selectionArgs, 0, pageArgs, 0, argCount);
+                }
+                pageArgs[argCount] = Long.toString(after[0]);
+                pageArgs[argCount + 1] = Long.toString(after[0]);
+                pageArgs[argCount + 2] = Long.toString(after[1]);
+                selectionArgs = pageArgs;
+            }
+            sortOrder = sPageSortOrder;
+            limit = Integer.toString(pageSize);
+        }
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit
+        );
+    }
+
+    @Override
+    public long insertWeather(ContentValues values) {
+        return mOpenHelper.getWritableDatabase().insert(
+                WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+    }
+
+    @Override
+    public int bulkInsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    @Override
+    public int updateWeather(ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!WeatherEnrichment.changesInput(values)) {
+            return db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+        }
+        // The derived columns of each row come from its stored inputs as well as the new ones,
+        // so every row is read and written back on its own
+        int rowsUpdated = 0;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, sInputProjection,
+                    selection, selectionArgs, null, null, null);
+            try {
+                ContentValues stored = new ContentValues();
+                String[] idArgs = new String[1];
+                while (cursor.moveToNext()) {
+                    for (int i = 1; i < sInputProjection.length; i++) {
+                        stored.put(sInputProjection[i], cursor.getDouble(i));
+                    }
+                    idArgs[0] = Long.toString(cursor.getLong(0));
+                    rowsUpdated += db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherEnrichment.enrichUpdate(values, stored),
+                            WeatherContract.WeatherEntry._ID + " = ?", idArgs);
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    @Override
+    public int deleteWeather(String selection, String[] selectionArgs) {
+        // this makes delete all rows return the number of rows deleted
+        if ( null == selection ) selection = "1";
+        return mOpenHelper.getWritableDatabase().delete(
+                WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    @Override
+    public void deleteLocationForecasts(long[] locationIds) {
+        String selection = null;
+        if (null != locationIds) {
+            if (locationIds.length == 0) return;
+            StringBuilder in = new StringBuilder(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                    .append(" IN (");
+            for (int i = 0; i < locationIds.length; i++) {
+                if (i > 0) in.append(',');
+                in.append(locationIds[i]);
+            }
+            selection = in.append(')').toString();
+        }
+        deleteWeather(selection, null);
+    }
+
+    @Override
+    public boolean isInDatabase() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // The helper belongs to the provider, which closes it itself
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.CrossProcessCursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.os.Binder;
+
+/**
+ * Times a WeatherProvider query up to the first time its rows are counted, read or copied into
+ * a window for another process, which is when SQLite actually runs it.  query() itself then
+ * only has to compile the statement, and a caller that reads just the first row isn't made to
+ * wait for the whole result up front.  A cursor closed without being read never ran its query,
+ * so it isn't recorded.
+ *
+ * Stays a CrossProcessCursor, so a cursor sent to another process is still filled a window at a
+ * time by the cursor underneath rather than row by row through the wrapper.
+ */
+class TimedCursor extends CursorWrapper implements CrossProcessCursor {
+
+    private final CrossProcessCursor mCursor;
+    private final ProviderStats mStats;
+    private final int mMatch;
+    private final long mStartNanos;
+    // Taken in query(), as a window may be filled later on another binder call
+    private final int mCallingUid;
+    private boolean mRecorded;
+
+    TimedCursor(CrossProcessCursor cursor, ProviderStats stats, int match, long startNanos) {
+        super(cursor);
+        mCursor = cursor;
+        mStats = stats;
+        mMatch = match;
+        mStartNanos = startNanos;
+        mCallingUid = Binder.getCallingUid();
+    }
+
+    // Called after the cursor underneath ran the query, so its count is known and cheap
+    private void recordOnce() {
+        if (mRecorded) return;
+        mRecorded = true;
+        mStats.record(ProviderStats.OP_QUERY, mMatch, mCursor.getCount(), mStartNanos,
+                mCallingUid);
+    }
+
+    @Override
+    public int getCount() {
+        int count = super.getCount();
+        recordOnce();
+        return count;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        boolean moved = super.move(offset);
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        boolean moved = super.moveToPosition(position);
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        boolean moved = super.moveToFirst();
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public boolean moveToLast() {
+        boolean moved = super.moveToLast();
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        boolean moved = super.moveToNext();
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        boolean moved = super.moveToPrevious();
+        recordOnce();
+        return moved;
+    }
+
+    @Override
+    public CursorWindow getWindow() {
+        return mCursor.getWindow();
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        mCursor.fillWindow(position, window);
+        recordOnce();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        return mCursor.onMove(oldPosition, newPosition);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.TodayForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Keeps the today_forecast table, the precomputed row behind METHOD_GET_TODAY.  The provider
+ * calls refresh() inside every transaction that writes the forecast, so the row changes
+ * together with the forecast it is taken from.
+ *
+ * A row is worked out for the day of the write.  It still holds on a later day as long as that
+ * day hasn't passed the row's date, since no day in between was stored.  Once it has (or if the
+ * clock went back), get() has no answer and the provider reads current_forecast itself.
+ */
+class TodayForecast {
+
+    private static final String[] SUMMARY_COLUMNS = {
+            TodayForecastEntry.COLUMN_AS_OF,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private static final String COPIED_COLUMNS =
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP;
+
+    // Every location's first day from the given day on.  The subquery is a range scan of
+    // current_forecast's (location_setting, date) index.
+    private static final String SQL_FILL =
+            "INSERT INTO " + TodayForecastEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    TodayForecastEntry.COLUMN_AS_OF + ", " + COPIED_COLUMNS + ")" +
+            " SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + ", ?, " + COPIED_COLUMNS +
+            " FROM " + CurrentForecastEntry.TABLE_NAME + " AS c" +
+            " WHERE " + WeatherEntry.COLUMN_DATE + " = (SELECT MIN(" +
+                    WeatherEntry.COLUMN_DATE + ") FROM " + CurrentForecastEntry.TABLE_NAME +
+                    " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = c." +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ?)";
+
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private final WeatherDbHelper mOpenHelper;
+
+    TodayForecast(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Works every location's row out again from current_forecast.  Joins the caller's
+     * transaction when there is one.
+     */
+    void refresh(SQLiteDatabase db) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        db.beginTransaction();
+        try {
+            db.delete(TodayForecastEntry.TABLE_NAME, null, null);
+            db.execSQL(SQL_FILL, new Object[]{today, today});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the METHOD_GET_TODAY Bundle for a location setting, or null when there is no row
+     * for it that holds today
+     */
+    Bundle get(String locationSetting, long today) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(TodayForecastEntry.TABLE_NAME,
+                SUMMARY_COLUMNS, sLocationSettingSelection, new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst() || cursor.getLong(0) > today || cursor.getLong(1) < today) {
+                return null;
+            }
+            Bundle summary = new Bundle();
+            summary.putLong(WeatherEntry.COLUMN_DATE, cursor.getLong(1));
+            summary.putInt(WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(2));
+            summary.putString(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(3));
+            summary.putDouble(WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(4));
+            summary.putDouble(WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(5));
+            return summary;
+        } finally {
+            cursor.close();
+        }
+    }
+}
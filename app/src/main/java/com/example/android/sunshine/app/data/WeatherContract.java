@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,40 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
+    public static final String PATH_SNAPSHOT = "snapshot";
+    public static final String PATH_CHANGES = "changes";
+    // Below PATH_LOCATION: location/search/<text>, location/catalog and location/near/<lat>/<lon>
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_CATALOG = "catalog";
+    public static final String PATH_NEAR = "near";
+
+    // Methods understood by WeatherProvider.call().  These skip the cursor machinery entirely and
+    // hand back a small Bundle, which is all the widgets and notifications really need.
+    // The arg is the location setting; the Bundle is keyed by the WeatherEntry column names
+    // (date, weather_id, short_desc, max, min) and is null when nothing is stored yet.
+    public static final String METHOD_GET_TODAY = "get_today";
+    // Runs database maintenance (ANALYZE, incremental vacuum, integrity check).  Slow; only call
+    // it off the main thread.  Returns a Bundle keyed by the MaintenanceResult constants.  A
+    // database that fails the check is deleted and starts over empty.
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+    // Write a snapshot of every location and forecast to a file, or replace both tables with
+    // the last snapshot written.  Both return a Bundle keyed by the SnapshotEntry constants, or
+    // null when the snapshot couldn't be written or there is no valid snapshot to read.  Both
+    // do nothing and return null while the database is kept in memory.
+    public static final String METHOD_EXPORT_SNAPSHOT = "export_snapshot";
+    public static final String METHOD_IMPORT_SNAPSHOT = "import_snapshot";
+    // Whether the provider keeps its database in memory (R.bool.in_memory_database).  The cache
+    // then never touches the disk, and callers keep their own copies of it off the disk too.
+    // Returns a Bundle holding the boolean IN_MEMORY.
+    public static final String METHOD_IS_IN_MEMORY = "is_in_memory";
+    public static final String IN_MEMORY = "in_memory";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return JulianDays.toMillis(JulianDays.fromMillis(startDate));
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,11 +105,161 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The weather service's id for the city, once a fetch or the city catalog has told us.
+        // Null until then.  Lets a sync ask for the city by id, and lets different spellings of
+        // the same city share a single row.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // When the sync last stored a forecast it fetched for this location, in milliseconds
+        // since the epoch.  Null for a location whose forecast was only ever copied from a
+        // nearby one.
+        public static final String COLUMN_LAST_FETCHED = "last_fetched";
+
+        // Index over (coord_lat, coord_long), for the nearby search
+        public static final String INDEX_COORD = "location_coord";
+        // Index over city_id
+        public static final String INDEX_CITY_ID = "location_city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /*
+        Locations that match what the user has typed so far.  Every word of the text is matched
+        as a prefix of a word in the location setting or city name, so "moun vi" finds
+        "Mountain View".  Locations we already hold come first, then matches from the city
+        catalog; a catalog row's location setting is "<city>,<country>", which the weather
+        service understands.  Read-only.
+     */
+    public static final class LocationSearchEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = LocationEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_SEARCH).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_LOCATION + "/" + PATH_SEARCH;
+
+        // Full text indexes over the location and city tables
+        public static final String TABLE_NAME = "location_search";
+        public static final String CITY_TABLE_NAME = "city_search";
+
+        // Besides _ID and these, rows have the LocationEntry setting, city name and coordinates
+        public static final String COLUMN_SOURCE = "source";
+
+        // A location we hold (_ID is its location row) or a catalog city (_ID is its city id)
+        public static final int SOURCE_LOCATION = 0;
+        public static final int SOURCE_CATALOG = 1;
+
+        // At most this many rows; 20 if not given
+        public static final String PARAM_LIMIT = "limit";
+
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(text).build();
+        }
+
+        public static Uri buildSearchUri(String text, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(text)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static String getTextFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limit && limit.length() > 0)
+                return Integer.parseInt(limit);
+            else
+                return 20;
+        }
+    }
+
+    /*
+        Locations within a radius of a point, nearest first.  Rows have the LocationEntry columns
+        and their distance from the point.  Read-only.
+     */
+    public static final class NearbyLocationEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = LocationEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_NEAR).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_LOCATION + "/" + PATH_NEAR;
+
+        // In meters
+        public static final String COLUMN_DISTANCE = "distance";
+
+        // In meters; 2000 if not given
+        public static final String PARAM_RADIUS = "radius";
+        // At most this many rows; 10 if not given
+        public static final String PARAM_LIMIT = "limit";
+
+        public static Uri buildNearbyUri(double lat, double lon, double radius, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Double.toString(lat))
+                    .appendPath(Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radius))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getPathSegments().get(2));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getPathSegments().get(3));
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            String radius = uri.getQueryParameter(PARAM_RADIUS);
+            if (null != radius && radius.length() > 0)
+                return Double.parseDouble(radius);
+            else
+                return 2000;
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limit && limit.length() > 0)
+                return Integer.parseInt(limit);
+            else
+                return 10;
+        }
+    }
+
+    /*
+        The city catalog: cities the weather service knows, loaded in bulk so that the location
+        search can suggest places we have never fetched a forecast for.  _ID is the weather
+        service's own city id.  Starts out empty; bulkInsert into CONTENT_URI fills it, replacing
+        cities with the same id, and delete with no selection empties it.  The catalog is large
+        (the full list has hundreds of thousands of cities), so load it in batches of a few
+        thousand rows rather than in a single call.
+     */
+    public static final class CityEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = LocationEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_CATALOG).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_LOCATION + "/" + PATH_CATALOG;
+
+        public static final String TABLE_NAME = "city";
+
+        // Index over (city_name, country), to resolve a "<city>,<country>" location setting
+        public static final String INDEX_NAME = "city_name_country";
+
+        public static final String COLUMN_CITY_NAME = "city_name";
+        // Two letter ISO country code
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -99,6 +273,9 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index over (location_id, date)
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -126,6 +303,41 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        /*
+            Derived columns.  WeatherEnrichment works these out from the columns above once, as
+            a row is stored, so that showing a forecast is a lookup rather than arithmetic.
+            Rows written through the provider get them filled in if they arrive without them.
+         */
+
+        // The min and max temperatures in Fahrenheit
+        public static final String COLUMN_MIN_TEMP_F = "min_f";
+        public static final String COLUMN_MAX_TEMP_F = "max_f";
+
+        // The wind speed in mph, next to COLUMN_WIND_SPEED's km/h
+        public static final String COLUMN_WIND_SPEED_MPH = "wind_mph";
+
+        // The compass sector the wind blows from: one of the WIND_SECTOR constants
+        public static final String COLUMN_WIND_SECTOR = "wind_sector";
+
+        // What the day's high feels like given the wind and humidity, in Celsius and Fahrenheit
+        public static final String COLUMN_FEELS_LIKE = "feels_like";
+        public static final String COLUMN_FEELS_LIKE_F = "feels_like_f";
+
+        // The dew point at the day's high, in Celsius and Fahrenheit
+        public static final String COLUMN_DEW_POINT = "dew_point";
+        public static final String COLUMN_DEW_POINT_F = "dew_point_f";
+
+        // COLUMN_WIND_SECTOR values, clockwise from north in 45 degree steps
+        public static final int WIND_SECTOR_UNKNOWN = -1;
+        public static final int WIND_SECTOR_N = 0;
+        public static final int WIND_SECTOR_NE = 1;
+        public static final int WIND_SECTOR_E = 2;
+        public static final int WIND_SECTOR_SE = 3;
+        public static final int WIND_SECTOR_S = 4;
+        public static final int WIND_SECTOR_SW = 5;
+        public static final int WIND_SECTOR_W = 6;
+        public static final int WIND_SECTOR_NW = 7;
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +356,60 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /*
+            Paging.  Rather than OFFSET scans, large result sets from the weather and weather/*
+            URIs can be read a page at a time, ordered by (location_id, date).  Each page URI
+            carries the page size and the key of the last row already seen; the next page starts
+            right after it, so every page costs the same no matter how far in we are.  The
+            sort order passed to query() is ignored for paged URIs, and the projection must
+            include COLUMN_LOC_KEY and COLUMN_DATE to build the next page from the last row.
+         */
+        public static final String PARAM_PAGE_SIZE = "page_size";
+        public static final String PARAM_AFTER = "after";
+
+        public static Uri buildFirstPageUri(Uri uri, int pageSize) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_PAGE_SIZE, Integer.toString(pageSize)).build();
+        }
+
+        // Returns the URI for the page following the one whose last row had this location and date
+        public static Uri buildNextPageUri(Uri pageUri, long lastLocationId, long lastDate) {
+            // Keep every other parameter (start date, page size) and swap in the new key.
+            // getQueryParameterNames() would be neater but needs Honeycomb.
+            StringBuilder query = new StringBuilder();
+            String encodedQuery = pageUri.getEncodedQuery();
+            if (null != encodedQuery) {
+                for (String parameter : encodedQuery.split("&")) {
+                    if (parameter.length() == 0 || parameter.startsWith(PARAM_AFTER + "=")) continue;
+                    if (query.length() > 0) query.append('&');
+                    query.append(parameter);
+                }
+            }
+            return pageUri.buildUpon().encodedQuery(query.length() > 0 ? query.toString() : null)
+                    .appendQueryParameter(PARAM_AFTER, lastLocationId + ":" + lastDate)
+                    .build();
+        }
+
+        public static int getPageSizeFromUri(Uri uri) {
+            String pageSize = uri.getQueryParameter(PARAM_PAGE_SIZE);
+            if (null != pageSize && pageSize.length() > 0)
+                return Integer.parseInt(pageSize);
+            else
+                return 0;
+        }
+
+        // Returns {location_id, date} of the last row seen, or null for the first page
+        public static long[] getPageKeyFromUri(Uri uri) {
+            String after = uri.getQueryParameter(PARAM_AFTER);
+            if (null == after || after.length() == 0) return null;
+            int separator = after.indexOf(':');
+            if (separator < 0) throw new IllegalArgumentException("Bad page token: " + after);
+            return new long[]{
+                    Long.parseLong(after.substring(0, separator)),
+                    Long.parseLong(after.substring(separator + 1))
+            };
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -165,4 +431,165 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        The weather table with its location's setting, city name and coordinates copied into
+        every row, so that the weather/* URIs read one table instead of joining two.  Rows keep
+        the _ID of the weather row they copy, and the columns keep their WeatherEntry and
+        LocationEntry names.  Triggers on the weather and location tables keep it current; it
+        is never written directly, and has no URI of its own.
+     */
+    public static final class CurrentForecastEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "current_forecast";
+
+        // Index over location_id, for the location triggers
+        public static final String INDEX_LOCATION = "current_forecast_location";
+    }
+
+    /*
+        For every location, the first day of its current_forecast from today on, which is what
+        METHOD_GET_TODAY answers with.  WeatherProvider works it out again in the same
+        transaction as every write to the forecast, so the call reads one row by its key.  The
+        columns keep their WeatherEntry and LocationEntry names.  It is never written from
+        outside the provider, and has no URI of its own.
+     */
+    public static final class TodayForecastEntry {
+
+        public static final String TABLE_NAME = "today_forecast";
+
+        // The day the row was worked out on.  It holds for any later day up to its own date.
+        public static final String COLUMN_AS_OF = "as_of";
+    }
+
+    /*
+        Append-only log of writes to the location and weather tables.  Every row written, replaced
+        or deleted gets an entry with an increasing sequence number (its _ID), so a consumer that
+        remembers the last sequence it saw can ask for just what changed since.  Location writes
+        are logged with a date of 0.  Read-only.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CHANGES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        public static final String TABLE_NAME = "changes";
+        // A single row holding the current epoch
+        public static final String EPOCH_TABLE_NAME = "changes_epoch";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_DATE = "date";
+        // One of the KIND_ constants
+        public static final String COLUMN_KIND = "kind";
+        // A random id drawn whenever the database is created, which starts the sequence over.
+        // Every row carries it; pass it back with the next since, or get a KIND_RESET.
+        public static final String COLUMN_EPOCH = "epoch";
+
+        // A row was inserted, or replaced an existing row for the same location and day
+        public static final int KIND_INSERT = 0;
+        public static final int KIND_UPDATE = 1;
+        public static final int KIND_DELETE = 2;
+        // Everything was replaced at once (a snapshot import), the epoch asked for isn't the
+        // current one (the database was created again, or the caller has none yet), or the log no
+        // longer reaches back to the requested sequence (it only keeps the most recent entries).
+        // Re-read everything, then carry on from this row's epoch and sequence.
+        public static final int KIND_RESET = 3;
+
+        public static final String PARAM_EPOCH = "epoch";
+        public static final String PARAM_SINCE = "since";
+
+        // Entries of the given epoch with a sequence greater than since, oldest first.  Start
+        // with an epoch of 0 to be handed the current one in a KIND_RESET.
+        public static Uri buildChangesSinceUri(long epoch, long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_EPOCH, Long.toString(epoch))
+                    .appendQueryParameter(PARAM_SINCE, Long.toString(since)).build();
+        }
+
+        public static long getEpochFromUri(Uri uri) {
+            String epoch = uri.getQueryParameter(PARAM_EPOCH);
+            if (null != epoch && epoch.length() > 0)
+                return Long.parseLong(epoch);
+            else
+                return 0;
+        }
+
+        public static long getSinceFromUri(Uri uri) {
+            String since = uri.getQueryParameter(PARAM_SINCE);
+            if (null != since && since.length() > 0)
+                return Long.parseLong(since);
+            else
+                return 0;
+        }
+    }
+
+    /*
+        Read-only view of the WeatherProvider operation statistics.  One row per operation and
+        URI type; deleting from this URI resets the counters.
+     */
+    public static final class DiagnosticsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // query, insert, bulkInsert, update or delete
+        public static final String COLUMN_OPERATION = "operation";
+        // Name of the UriMatcher code the operation ran against, e.g. "WEATHER_WITH_LOCATION"
+        public static final String COLUMN_URI_MATCH = "uri_match";
+        // Number of calls, and the total number of rows they returned or touched
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+
+        // Latencies in microseconds.  Percentiles are the upper bound of the histogram bucket
+        // they fall in, so they are an over-estimate by at most one bucket.
+        public static final String COLUMN_MEAN_MICROS = "mean_us";
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+    }
+
+    /* Keys of the Bundle returned by METHOD_RUN_MAINTENANCE */
+    public static final class MaintenanceResult {
+        // Database file size in bytes
+        public static final String FILE_SIZE_BEFORE = "file_size_before";
+        public static final String FILE_SIZE_AFTER = "file_size_after";
+        // Pages in the database, and how many of those were free
+        public static final String PAGE_COUNT_BEFORE = "page_count_before";
+        public static final String PAGE_COUNT_AFTER = "page_count_after";
+        public static final String FREE_PAGES_BEFORE = "free_pages_before";
+        public static final String FREE_PAGES_AFTER = "free_pages_after";
+        // Whether PRAGMA quick_check came back clean
+        public static final String INTEGRITY_OK = "integrity_ok";
+        // True when the check failed and the database was deleted and created again empty
+        public static final String DATABASE_RESET = "database_reset";
+    }
+
+    /*
+        The binary snapshot of the location and weather tables.  Opening CONTENT_URI for reading
+        returns the last snapshot written (writing one first if there is none yet).
+     */
+    public static final class SnapshotEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SNAPSHOT).build();
+
+        public static final String CONTENT_TYPE = "application/octet-stream";
+
+        // Keys of the Bundle returned by METHOD_EXPORT_SNAPSHOT and METHOD_IMPORT_SNAPSHOT
+        public static final String LOCATION_COUNT = "location_count";
+        public static final String WEATHER_COUNT = "weather_count";
+        // Size of the snapshot file in bytes
+        public static final String SIZE_BYTES = "size_bytes";
+        // When the snapshot was written, in milliseconds since the epoch
+        public static final String CREATED = "created";
+        // How long the export or import took
+        public static final String ELAPSED_MILLIS = "elapsed_millis";
+    }
 }
@@ -16,28 +16,203 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.support.annotation.IntDef;
 
+import com.example.android.sunshine.app.data.WeatherContract.ChangeEntry;
+import com.example.android.sunshine.app.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.app.data.WeatherContract.CurrentForecastEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationSearchEntry;
+import com.example.android.sunshine.app.data.WeatherContract.TodayForecastEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.security.SecureRandom;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 12;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The name that keeps the database in memory rather than in a file.  Nothing is written to
+    // disk, and the whole database is gone once the helper is closed or the process ends.
+    static final String IN_MEMORY = null;
+
+    // PRAGMA auto_vacuum values
+    private static final int AUTO_VACUUM_NONE = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // How the database file is read.  DEFAULT leaves SQLite alone (pread() into a small page
+    // cache), LARGE_CACHE only grows the page cache, and MMAP also maps the file into memory so
+    // reads skip the copy into the page cache.  See TestStorageProfiles for how they compare.
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STORAGE_PROFILE_DEFAULT, STORAGE_PROFILE_LARGE_CACHE, STORAGE_PROFILE_MMAP})
+    public @interface StorageProfile {}
+
+    public static final int STORAGE_PROFILE_DEFAULT = 0;
+    public static final int STORAGE_PROFILE_LARGE_CACHE = 1;
+    public static final int STORAGE_PROFILE_MMAP = 2;
+
+    // The profile WeatherProvider opens the database with
+    static final int DEFAULT_STORAGE_PROFILE = STORAGE_PROFILE_DEFAULT;
+
+    // The whole cache is a few hundred KB, so these comfortably hold all of it
+    static final int PROFILE_PAGE_SIZE = 4096;
+    private static final int PROFILE_CACHE_SIZE_KB = 2048;
+    private static final long PROFILE_MMAP_SIZE = 8 * 1024 * 1024;
+
+    private final int mStorageProfile;
+
+    // Set by onCreate(), so that onOpen() can check the new file took its file-wide settings
+    private boolean mCreated;
+
+    // The current_forecast columns in table order: the weather row, then its location
+    private static final String CURRENT_FORECAST_COLUMNS =
+            CurrentForecastEntry._ID + ", " +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP_F + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP_F + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED_MPH + ", " +
+                    WeatherEntry.COLUMN_WIND_SECTOR + ", " +
+                    WeatherEntry.COLUMN_FEELS_LIKE + ", " +
+                    WeatherEntry.COLUMN_FEELS_LIKE_F + ", " +
+                    WeatherEntry.COLUMN_DEW_POINT + ", " +
+                    WeatherEntry.COLUMN_DEW_POINT_F + ", " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    LocationEntry.COLUMN_CITY_NAME + ", " +
+                    LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG;
+
+    // The WeatherEnrichment columns, as they appear in the weather and current_forecast tables
+    private static final String DERIVED_WEATHER_COLUMN_DEFINITIONS =
+            WeatherEntry.COLUMN_MIN_TEMP_F + " REAL, " +
+                    WeatherEntry.COLUMN_MAX_TEMP_F + " REAL, " +
+                    WeatherEntry.COLUMN_WIND_SPEED_MPH + " REAL, " +
+                    WeatherEntry.COLUMN_WIND_SECTOR + " INTEGER, " +
+                    WeatherEntry.COLUMN_FEELS_LIKE + " REAL, " +
+                    WeatherEntry.COLUMN_FEELS_LIKE_F + " REAL, " +
+                    WeatherEntry.COLUMN_DEW_POINT + " REAL, " +
+                    WeatherEntry.COLUMN_DEW_POINT_F + " REAL, ";
+
+    /*
+        The values for CURRENT_FORECAST_COLUMNS, taken from the weather row w and the location
+        row l of a trigger (NEW, OLD, or a table name).
+     */
+    private static String currentForecastValues(String w, String l) {
+        return w + "." + WeatherEntry._ID + ", " +
+                w + "." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                w + "." + WeatherEntry.COLUMN_DATE + ", " +
+                w + "." + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                w + "." + WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                w + "." + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                w + "." + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                w + "." + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                w + "." + WeatherEntry.COLUMN_PRESSURE + ", " +
+                w + "." + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                w + "." + WeatherEntry.COLUMN_DEGREES + ", " +
+                w + "." + WeatherEntry.COLUMN_MIN_TEMP_F + ", " +
+                w + "." + WeatherEntry.COLUMN_MAX_TEMP_F + ", " +
+                w + "." + WeatherEntry.COLUMN_WIND_SPEED_MPH + ", " +
+                w + "." + WeatherEntry.COLUMN_WIND_SECTOR + ", " +
+                w + "." + WeatherEntry.COLUMN_FEELS_LIKE + ", " +
+                w + "." + WeatherEntry.COLUMN_FEELS_LIKE_F + ", " +
+                w + "." + WeatherEntry.COLUMN_DEW_POINT + ", " +
+                w + "." + WeatherEntry.COLUMN_DEW_POINT_F + ", " +
+                l + "." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                l + "." + LocationEntry.COLUMN_CITY_NAME + ", " +
+                l + "." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                l + "." + LocationEntry.COLUMN_COORD_LONG;
+    }
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, DEFAULT_STORAGE_PROFILE);
+    }
+
+    WeatherDbHelper(Context context, String name, @StorageProfile int storageProfile) {
+        super(context, name, null, DATABASE_VERSION);
+        mStorageProfile = storageProfile;
+    }
+
+    /**
+     * @return true if the database lives only in memory
+     */
+    boolean isInMemory() {
+        return null == getDatabaseName();
+    }
+
+    // The page size is a setting of the file, so it is chosen when the file is created
+    private boolean usesProfilePageSize() {
+        return mStorageProfile != STORAGE_PROFILE_DEFAULT && !isInMemory();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        if (mCreated) {
+            mCreated = false;
+            // Android creates its android_metadata table as it opens the file, so a setting
+            // that only changes before the first table may not have taken in onCreate().  A new
+            // file holds nothing but the schema, so the VACUUM that applies it costs nothing.
+            // onOpen() runs outside the creating transaction, as VACUUM needs.
+            if (!isInMemory()) {
+                boolean pageSizePending = usesProfilePageSize() &&
+                        DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_size", null)
+                                != PROFILE_PAGE_SIZE;
+                if (pageSizePending) {
+                    sqLiteDatabase.execSQL("PRAGMA page_size = " + PROFILE_PAGE_SIZE);
+                }
+                if (!ensureIncrementalAutoVacuum(sqLiteDatabase) && pageSizePending) {
+                    sqLiteDatabase.execSQL("VACUUM");
+                }
+            }
+        }
+        // The profiles are about reading the file, and an in-memory database has none
+        if (mStorageProfile == STORAGE_PROFILE_DEFAULT || isInMemory()) return;
+
+        // cache_size and mmap_size are per connection, so they are set on every open.
+        // A negative cache_size is in KB rather than pages
+        sqLiteDatabase.execSQL("PRAGMA cache_size = -" + PROFILE_CACHE_SIZE_KB);
+
+        // mmap_size arrived in SQLite 3.7.17, which first shipped with Lollipop.  It answers
+        // with the new size, so it has to go through rawQuery rather than execSQL.
+        if (mStorageProfile == STORAGE_PROFILE_MMAP &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA mmap_size = " + PROFILE_MMAP_SIZE, null);
+            cursor.moveToFirst();
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // File-wide settings go before any of our tables.  Incremental auto-vacuum lets the
+        // maintenance give free pages back without rewriting the whole file.
+        if (usesProfilePageSize()) {
+            sqLiteDatabase.execSQL("PRAGMA page_size = " + PROFILE_PAGE_SIZE);
+        }
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        mCreated = true;
+
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -45,7 +220,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_LAST_FETCHED + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -70,6 +247,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
 
+                // The derived columns.  They may be NULL, but only for rows written straight to
+                // the database; the provider fills them in on the way.
+                DERIVED_WEATHER_COLUMN_DEFINITIONS +
+
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
@@ -79,8 +260,244 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The UNIQUE constraint above indexes (date, location_id).  Reads are almost always for
+        // one location, and paged reads walk (location_id, date), so index that order too.
+        final String SQL_CREATE_WEATHER_LOCATION_INDEX = "CREATE INDEX " +
+                WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+        // AUTOINCREMENT, so that a sequence number is never handed out twice even after the
+        // newest entries have been trimmed away
+        final String SQL_CREATE_CHANGE_TABLE = "CREATE TABLE " + ChangeEntry.TABLE_NAME + " (" +
+                ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                ChangeEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ChangeEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ChangeEntry.COLUMN_KIND + " INTEGER NOT NULL);";
+
+        final String SQL_CREATE_CHANGE_EPOCH_TABLE = "CREATE TABLE " +
+                ChangeEntry.EPOCH_TABLE_NAME + " (" +
+                ChangeEntry.COLUMN_EPOCH + " INTEGER NOT NULL);";
+
+        // The nearby search reads a latitude band out of this, and checks the longitudes
+        // without going back to the table
+        final String SQL_CREATE_LOCATION_COORD_INDEX = "CREATE INDEX " +
+                LocationEntry.INDEX_COORD + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG + ");";
+
+        final String SQL_CREATE_LOCATION_CITY_ID_INDEX = "CREATE INDEX " +
+                LocationEntry.INDEX_CITY_ID + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_CITY_ID + ");";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_COORD_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_CITY_ID_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_EPOCH_TABLE);
+        // A new database starts its change sequence over, so it gets an epoch of its own
+        sqLiteDatabase.execSQL("INSERT INTO " + ChangeEntry.EPOCH_TABLE_NAME + " VALUES (?)",
+                new Object[]{newEpoch()});
+        createCurrentForecast(sqLiteDatabase);
+        createLocationSearch(sqLiteDatabase);
+
+        final String SQL_CREATE_TODAY_FORECAST_TABLE = "CREATE TABLE " +
+                TodayForecastEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT PRIMARY KEY, " +
+                TodayForecastEntry.COLUMN_AS_OF + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL);";
+        sqLiteDatabase.execSQL(SQL_CREATE_TODAY_FORECAST_TABLE);
+    }
+
+    /*
+        Creates the city catalog and the full text indexes behind the location search, with the
+        triggers that keep each index in step with its table.  An index row's docid is the _ID of
+        the row it indexes.  FTS3 rather than FTS4, which needs Honeycomb's SQLite.
+     */
+    private static void createLocationSearch(SQLiteDatabase sqLiteDatabase) {
+        // _ID is the weather service's city id rather than one of ours
+        final String SQL_CREATE_CITY_TABLE = "CREATE TABLE " + CityEntry.TABLE_NAME + " (" +
+                CityEntry._ID + " INTEGER PRIMARY KEY," +
+                CityEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                CityEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+                CityEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                CityEntry.COLUMN_COORD_LONG + " REAL NOT NULL);";
+
+        final String SQL_CREATE_CITY_NAME_INDEX = "CREATE INDEX " + CityEntry.INDEX_NAME +
+                " ON " + CityEntry.TABLE_NAME + " (" + CityEntry.COLUMN_CITY_NAME + ", " +
+                CityEntry.COLUMN_COUNTRY + ");";
+
+        final String SQL_CREATE_LOCATION_SEARCH_TABLE = "CREATE VIRTUAL TABLE " +
+                LocationSearchEntry.TABLE_NAME + " USING fts3(" +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ");";
+
+        final String SQL_CREATE_CITY_SEARCH_TABLE = "CREATE VIRTUAL TABLE " +
+                LocationSearchEntry.CITY_TABLE_NAME + " USING fts3(" +
+                CityEntry.COLUMN_CITY_NAME + ", " +
+                CityEntry.COLUMN_COUNTRY + ");";
+
+        final String INDEX_NEW_LOCATION = "INSERT INTO " + LocationSearchEntry.TABLE_NAME +
+                " (docid, " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ") VALUES (NEW." + LocationEntry._ID +
+                ", NEW." + LocationEntry.COLUMN_LOCATION_SETTING +
+                ", NEW." + LocationEntry.COLUMN_CITY_NAME + "); ";
+
+        final String UNINDEX_OLD_LOCATION = "DELETE FROM " + LocationSearchEntry.TABLE_NAME +
+                " WHERE docid = OLD." + LocationEntry._ID + "; ";
+
+        final String INDEX_NEW_CITY = "INSERT INTO " + LocationSearchEntry.CITY_TABLE_NAME +
+                " (docid, " + CityEntry.COLUMN_CITY_NAME + ", " + CityEntry.COLUMN_COUNTRY +
+                ") VALUES (NEW." + CityEntry._ID + ", NEW." + CityEntry.COLUMN_CITY_NAME +
+                ", NEW." + CityEntry.COLUMN_COUNTRY + "); ";
+
+        // A city replaced through INSERT OR REPLACE is deleted without firing the delete
+        // trigger, so its old index row is cleared here first
+        final String UNINDEX_NEW_CITY = "DELETE FROM " + LocationSearchEntry.CITY_TABLE_NAME +
+                " WHERE docid = NEW." + CityEntry._ID + "; ";
+
+        final String UNINDEX_OLD_CITY = "DELETE FROM " + LocationSearchEntry.CITY_TABLE_NAME +
+                " WHERE docid = OLD." + CityEntry._ID + "; ";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_CITY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CITY_NAME_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SEARCH_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CITY_SEARCH_TABLE);
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + INDEX_NEW_LOCATION + "END;");
+        // Only the indexed columns; the sync stamps last_fetched on every fetch
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE OF " +
+                LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + " ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + UNINDEX_OLD_LOCATION +
+                INDEX_NEW_LOCATION + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + UNINDEX_OLD_LOCATION + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER city_search_insert AFTER INSERT ON " +
+                CityEntry.TABLE_NAME + " BEGIN " + UNINDEX_NEW_CITY + INDEX_NEW_CITY + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER city_search_update AFTER UPDATE ON " +
+                CityEntry.TABLE_NAME + " BEGIN " + UNINDEX_OLD_CITY + INDEX_NEW_CITY + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER city_search_delete AFTER DELETE ON " +
+                CityEntry.TABLE_NAME + " BEGIN " + UNINDEX_OLD_CITY + "END;");
+    }
+
+    /*
+        Creates the current_forecast table and the triggers that keep it in step with the
+        weather and location tables.  The triggers run inside the statement that fires them, so
+        the copy changes in the same transaction as the rows it copies and a reader never sees
+        one without the other.
+     */
+    private static void createCurrentForecast(SQLiteDatabase sqLiteDatabase) {
+        // The UNIQUE constraint indexes (location_setting, date), which is exactly what the
+        // weather/* URIs filter and sort on
+        final String SQL_CREATE_CURRENT_FORECAST_TABLE = "CREATE TABLE " +
+                CurrentForecastEntry.TABLE_NAME + " (" +
+                CurrentForecastEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                DERIVED_WEATHER_COLUMN_DEFINITIONS +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                " UNIQUE (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_CURRENT_FORECAST_LOCATION_INDEX = "CREATE INDEX " +
+                CurrentForecastEntry.INDEX_LOCATION + " ON " + CurrentForecastEntry.TABLE_NAME +
+                " (" + WeatherEntry.COLUMN_LOC_KEY + ");";
+
+        final String INSERT_FROM_NEW_WEATHER =
+                "INSERT OR REPLACE INTO " + CurrentForecastEntry.TABLE_NAME +
+                        " (" + CURRENT_FORECAST_COLUMNS + ") SELECT " +
+                        currentForecastValues("NEW", LocationEntry.TABLE_NAME) +
+                        " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+                        " = NEW." + WeatherEntry.COLUMN_LOC_KEY + "; ";
+
+        final String INSERT_FOR_NEW_LOCATION =
+                "INSERT OR REPLACE INTO " + CurrentForecastEntry.TABLE_NAME +
+                        " (" + CURRENT_FORECAST_COLUMNS + ") SELECT " +
+                        currentForecastValues(WeatherEntry.TABLE_NAME, "NEW") +
+                        " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+                        " = NEW." + LocationEntry._ID + "; ";
+
+        final String DELETE_OLD_WEATHER =
+                "DELETE FROM " + CurrentForecastEntry.TABLE_NAME +
+                        " WHERE " + CurrentForecastEntry._ID + " = OLD." + WeatherEntry._ID + "; ";
+
+        final String DELETE_OLD_LOCATION =
+                "DELETE FROM " + CurrentForecastEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = OLD." + LocationEntry._ID + "; ";
+
+        // A weather row replaced through its UNIQUE constraint is deleted without firing the
+        // delete trigger (recursive_triggers is off), but its copy is replaced the same way by
+        // the insert, since both tables are unique on the day.
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_FORECAST_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_FORECAST_LOCATION_INDEX);
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_weather_insert AFTER INSERT ON " +
+                WeatherEntry.TABLE_NAME + " BEGIN " + INSERT_FROM_NEW_WEATHER + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_weather_update AFTER UPDATE ON " +
+                WeatherEntry.TABLE_NAME + " BEGIN " + DELETE_OLD_WEATHER +
+                INSERT_FROM_NEW_WEATHER + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_weather_delete AFTER DELETE ON " +
+                WeatherEntry.TABLE_NAME + " BEGIN " + DELETE_OLD_WEATHER + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_location_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + INSERT_FOR_NEW_LOCATION + "END;");
+        // Only the copied columns, so a location's copies aren't rewritten whenever the sync
+        // stamps its last_fetched or city_id
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_location_update AFTER UPDATE OF " +
+                LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + " ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + DELETE_OLD_LOCATION +
+                INSERT_FOR_NEW_LOCATION + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER current_forecast_location_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + DELETE_OLD_LOCATION + "END;");
+    }
+
+    /**
+     * Switches the database to incremental auto-vacuum, so that free pages can be given back
+     * with PRAGMA incremental_vacuum instead of a full rebuild.  New files are created that
+     * way; this is for files made before that.  FULL changes to INCREMENTAL in place, but a file
+     * without auto-vacuum only changes through one VACUUM, so this must not be called inside a
+     * transaction.  A no-op once the mode is INCREMENTAL.
+     *
+     * @return true if it had to VACUUM
+     */
+    static boolean ensureIncrementalAutoVacuum(SQLiteDatabase sqLiteDatabase) {
+        long mode = DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA auto_vacuum", null);
+        if (mode != AUTO_VACUUM_INCREMENTAL) {
+            sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            if (mode == AUTO_VACUUM_NONE) {
+                sqLiteDatabase.execSQL("VACUUM");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A random positive epoch; never 0, which is what a client without one sends
+    private static long newEpoch() {
+        SecureRandom random = new SecureRandom();
+        long epoch;
+        do {
+            epoch = random.nextLong() & Long.MAX_VALUE;
+        } while (epoch == 0);
+        return epoch;
     }
 
     @Override
@@ -93,6 +510,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ChangeEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ChangeEntry.EPOCH_TABLE_NAME);
+        // Takes its triggers with it; the others went with the tables they were on
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentForecastEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TodayForecastEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CityEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationSearchEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationSearchEntry.CITY_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
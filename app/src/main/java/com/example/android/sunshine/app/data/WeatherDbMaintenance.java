@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.MaintenanceResult;
+
+import java.io.File;
+
+/**
+ * Housekeeping for weather.db.  The daily delete of old forecasts and the REPLACE churn of every
+ * sync leave free pages behind and stale planner statistics; this gives the space back and
+ * refreshes the statistics.  Meant to be run rarely, when the device is idle and charging.
+ */
+class WeatherDbMaintenance {
+    private static final String LOG_TAG = WeatherDbMaintenance.class.getSimpleName();
+
+    /**
+     * Trims the change log, then runs ANALYZE, an incremental vacuum and a quick integrity check.
+     *
+     * @param db     the writable database
+     * @param dbFile the database file, to measure its size, or null for an in-memory database
+     * @return the sizes before and after, keyed by the MaintenanceResult constants
+     */
+    static Bundle run(SQLiteDatabase db, File dbFile) {
+        Bundle result = new Bundle();
+        result.putLong(MaintenanceResult.FILE_SIZE_BEFORE, fileSize(dbFile));
+        result.putLong(MaintenanceResult.PAGE_COUNT_BEFORE, pragmaLong(db, "page_count"));
+        result.putLong(MaintenanceResult.FREE_PAGES_BEFORE, pragmaLong(db, "freelist_count"));
+
+        ChangeLog.trim(db);
+        WeatherDbHelper.ensureIncrementalAutoVacuum(db);
+
+        // incremental_vacuum frees one page per step, so step through it all rather than use
+        // execSQL, which would only take the first.
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            while (cursor.moveToNext()) {
+                // keep stepping
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("ANALYZE");
+
+        String integrity = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null);
+        boolean integrityOk = "ok".equalsIgnoreCase(integrity);
+        if (!integrityOk) {
+            Log.e(LOG_TAG, "quick_check failed: " + integrity);
+        }
+        result.putBoolean(MaintenanceResult.INTEGRITY_OK, integrityOk);
+
+        result.putLong(MaintenanceResult.FILE_SIZE_AFTER, fileSize(dbFile));
+        result.putLong(MaintenanceResult.PAGE_COUNT_AFTER, pragmaLong(db, "page_count"));
+        result.putLong(MaintenanceResult.FREE_PAGES_AFTER, pragmaLong(db, "freelist_count"));
+
+        Log.d(LOG_TAG, "Maintenance done. Size " +
+                result.getLong(MaintenanceResult.FILE_SIZE_BEFORE) + " -> " +
+                result.getLong(MaintenanceResult.FILE_SIZE_AFTER) + " bytes, pages " +
+                result.getLong(MaintenanceResult.PAGE_COUNT_BEFORE) + " -> " +
+                result.getLong(MaintenanceResult.PAGE_COUNT_AFTER) + ", free pages " +
+                result.getLong(MaintenanceResult.FREE_PAGES_BEFORE) + " -> " +
+                result.getLong(MaintenanceResult.FREE_PAGES_AFTER) + ", integrity " + integrity);
+        return result;
+    }
+
+    private static long fileSize(File dbFile) {
+        return null == dbFile ? 0 : dbFile.length();
+    }
+
+    private static long pragmaLong(SQLiteDatabase db, String pragma) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+    }
+}
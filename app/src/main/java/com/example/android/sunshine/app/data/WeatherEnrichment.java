@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Works out the derived weather columns (both unit systems, the wind's compass sector, feels
+ * like and dew point) from the raw ones the weather service sends.  The sync runs every row
+ * through this as it parses the forecast, and the provider does the same for rows that reach
+ * it without, so the derived columns are always there to read.
+ */
+public class WeatherEnrichment {
+
+    private static final double KMH_TO_MPH = .621371192237334;
+
+    // Magnus formula coefficients, good to a few tenths of a degree from -45C to 60C
+    private static final double MAGNUS_A = 17.62;
+    private static final double MAGNUS_B = 243.12;
+
+    // Wind chill is only defined at or below 10C with the wind above 4.8 km/h
+    private static final double WIND_CHILL_MAX_TEMP = 10;
+    private static final double WIND_CHILL_MIN_WIND = 4.8;
+
+    // The heat index is only defined at or above 80F (26.7C) and 40% humidity
+    private static final double HEAT_INDEX_MIN_TEMP_F = 80;
+    private static final double HEAT_INDEX_MIN_HUMIDITY = 40;
+
+    // The raw columns the derived ones are worked out from
+    static final String[] INPUT_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * Adds every derived column whose inputs are in values, replacing any already there.  Values
+     * missing some of the inputs get only the columns they have all the inputs for; to update a
+     * stored row, use enrichUpdate() instead.
+     *
+     * @return values, for chaining
+     */
+    public static ContentValues enrich(ContentValues values) {
+        Double min = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        Double max = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        Double wind = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        Double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+        if (null != min) {
+            values.put(WeatherEntry.COLUMN_MIN_TEMP_F, toFahrenheit(min));
+        }
+        if (null != max) {
+            values.put(WeatherEntry.COLUMN_MAX_TEMP_F, toFahrenheit(max));
+        }
+        if (null != wind) {
+            values.put(WeatherEntry.COLUMN_WIND_SPEED_MPH, wind * KMH_TO_MPH);
+        }
+        if (null != degrees) {
+            values.put(WeatherEntry.COLUMN_WIND_SECTOR, windSector(degrees));
+        }
+        if (null != max && null != humidity) {
+            double dewPoint = dewPoint(max, humidity);
+            values.put(WeatherEntry.COLUMN_DEW_POINT, dewPoint);
+            values.put(WeatherEntry.COLUMN_DEW_POINT_F, toFahrenheit(dewPoint));
+            if (null != wind) {
+                double feelsLike = feelsLike(max, humidity, wind);
+                values.put(WeatherEntry.COLUMN_FEELS_LIKE, feelsLike);
+                values.put(WeatherEntry.COLUMN_FEELS_LIKE_F, toFahrenheit(feelsLike));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Works out the derived columns of an update to one stored row.  The row's own inputs fill in
+     * whichever ones the update leaves out, so changing only max_temp still moves the dew point
+     * and feels like.
+     *
+     * @param stored the INPUT_COLUMNS of the row as they are now
+     * @return a copy of update with the row's inputs and every derived column added
+     */
+    static ContentValues enrichUpdate(ContentValues update, ContentValues stored) {
+        ContentValues row = new ContentValues(stored);
+        row.putAll(update);
+        return enrich(row);
+    }
+
+    /**
+     * @return true if values changes one of the INPUT_COLUMNS
+     */
+    static boolean changesInput(ContentValues values) {
+        for (String column : INPUT_COLUMNS) {
+            if (values.containsKey(column)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if values has every derived column, as a row from enrich() does
+     */
+    static boolean isEnriched(ContentValues values) {
+        return values.containsKey(WeatherEntry.COLUMN_MIN_TEMP_F) &&
+                values.containsKey(WeatherEntry.COLUMN_MAX_TEMP_F) &&
+                values.containsKey(WeatherEntry.COLUMN_WIND_SPEED_MPH) &&
+                values.containsKey(WeatherEntry.COLUMN_WIND_SECTOR) &&
+                values.containsKey(WeatherEntry.COLUMN_FEELS_LIKE) &&
+                values.containsKey(WeatherEntry.COLUMN_FEELS_LIKE_F) &&
+                values.containsKey(WeatherEntry.COLUMN_DEW_POINT) &&
+                values.containsKey(WeatherEntry.COLUMN_DEW_POINT_F);
+    }
+
+    static double toFahrenheit(double celsius) {
+        return celsius * 1.8 + 32;
+    }
+
+    /**
+     * @return the WIND_SECTOR the meteorological degrees fall in, or WIND_SECTOR_UNKNOWN if
+     * they are negative or not a number
+     */
+    static int windSector(double degrees) {
+        if (!(degrees >= 0)) return WeatherEntry.WIND_SECTOR_UNKNOWN;
+        // Each sector is centred on its direction, so north runs from 337.5 round to 22.5
+        return (int) ((degrees + 22.5) / 45) % 8;
+    }
+
+    static double dewPoint(double celsius, double humidity) {
+        // The logarithm runs away at 0%; no air on earth is that dry anyway
+        double gamma = Math.log(Math.max(humidity, 1) / 100) +
+                MAGNUS_A * celsius / (MAGNUS_B + celsius);
+        return MAGNUS_B * gamma / (MAGNUS_A - gamma);
+    }
+
+    /*
+        The wind chill in the cold (the Canadian and US formula, wind in km/h), the heat index in
+        the heat (Rothfusz's regression, which works in Fahrenheit), and the air temperature
+        itself in between.
+     */
+    static double feelsLike(double celsius, double humidity, double windKmh) {
+        if (celsius <= WIND_CHILL_MAX_TEMP && windKmh > WIND_CHILL_MIN_WIND) {
+            double v = Math.pow(windKmh, 0.16);
+            return 13.12 + 0.6215 * celsius - 11.37 * v + 0.3965 * celsius * v;
+        }
+        double t = toFahrenheit(celsius);
+        if (t >= HEAT_INDEX_MIN_TEMP_F && humidity >= HEAT_INDEX_MIN_HUMIDITY) {
+            double r = humidity;
+            double heatIndex = -42.379 + 2.04901523 * t + 10.14333127 * r
+                    - .22475541 * t * r - .00683783 * t * t - .05481717 * r * r
+                    + .00122874 * t * t * r + .00085282 * t * r * r - .00000199 * t * t * r * r;
+            return (heatIndex - 32) / 1.8;
+        }
+        return celsius;
+    }
+}
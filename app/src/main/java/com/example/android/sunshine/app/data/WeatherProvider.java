@@ -19,78 +19,88 @@ import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.database.CrossProcessCursor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final ProviderStats mStats = new ProviderStats();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
-
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
-
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
-    }
-
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
-
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
-
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+    static final int LOCATION_SEARCH = 301;
+    static final int CITY_CATALOG = 302;
+    static final int NEARBY_LOCATIONS = 303;
+    static final int DIAGNOSTICS = 900;
+    static final int SNAPSHOT = 901;
+    static final int CHANGES = 902;
+
+    // Where weather.db is kept.  ON_DISK is the usual file; IN_MEMORY keeps the whole database in
+    // memory for as long as the provider lives, which makes for a cache that never touches the
+    // disk and for test runs that don't pay for file I/O or have to delete anything afterwards.
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DATABASE_ON_DISK, DATABASE_IN_MEMORY})
+    public @interface DatabaseMode {}
+
+    static final int DATABASE_ON_DISK = 0;
+    static final int DATABASE_IN_MEMORY = 1;
+
+    // Set by the constructor for a provider built in code; the one the platform builds leaves it
+    // null and reads R.bool.in_memory_database, so a build can switch modes with a resource.
+    private final Integer mDatabaseMode;
+
+    private ForecastStore mStore;
+    private ChangeLog mChangeLog;
+    private LocationSearch mLocationSearch;
+    private NearbyLocations mNearbyLocations;
+    private TodayForecast mTodayForecast;
+
+    // What the change log needs to know about the rows an update or delete is about to touch
+    private static final String[] WEATHER_KEY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+    private static final String[] LOCATION_KEY_COLUMNS = {
+            WeatherContract.LocationEntry._ID
+    };
+
+    private static final String[] TODAY_SUMMARY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
-
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
-        } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
-        }
-
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return mStore.queryWeatherByLocation(locationSetting, startDate, projection, sortOrder,
+                WeatherContract.WeatherEntry.getPageSizeFromUri(uri),
+                WeatherContract.WeatherEntry.getPageKeyFromUri(uri));
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
@@ -98,14 +108,7 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        return mStore.queryWeatherByLocationAndDate(locationSetting, date, projection, sortOrder);
     }
 
     /*
@@ -130,19 +133,87 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_SEARCH + "/*", LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_CATALOG, CITY_CATALOG);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAR + "/*/*", NEARBY_LOCATIONS);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
+        matcher.addURI(authority, WeatherContract.PATH_SNAPSHOT, SNAPSHOT);
+        matcher.addURI(authority, WeatherContract.PATH_CHANGES, CHANGES);
         return matcher;
     }
 
+    // Readable names for the match codes, used by the diagnostics cursor and dump output
+    static String getMatchName(int match) {
+        switch (match) {
+            case WEATHER:
+                return "WEATHER";
+            case WEATHER_WITH_LOCATION:
+                return "WEATHER_WITH_LOCATION";
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return "WEATHER_WITH_LOCATION_AND_DATE";
+            case LOCATION:
+                return "LOCATION";
+            case LOCATION_SEARCH:
+                return "LOCATION_SEARCH";
+            case CITY_CATALOG:
+                return "CITY_CATALOG";
+            case NEARBY_LOCATIONS:
+                return "NEARBY_LOCATIONS";
+            case DIAGNOSTICS:
+                return "DIAGNOSTICS";
+            case SNAPSHOT:
+                return "SNAPSHOT";
+            case CHANGES:
+                return "CHANGES";
+            default:
+                return "NO_MATCH(" + match + ")";
+        }
+    }
+
+    public WeatherProvider() {
+        mDatabaseMode = null;
+    }
+
+    /**
+     * A provider whose database is kept as mode says, whatever the resources say.  It still
+     * needs attachInfo() before use.
+     */
+    WeatherProvider(@DatabaseMode int mode) {
+        mDatabaseMode = mode;
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        if (getDatabaseMode() == DATABASE_IN_MEMORY) {
+            mOpenHelper = new WeatherDbHelper(getContext(), WeatherDbHelper.IN_MEMORY,
+                    WeatherDbHelper.DEFAULT_STORAGE_PROFILE);
+        } else {
+            mOpenHelper = new WeatherDbHelper(getContext());
+        }
+        // The forecasts live in weather.db next to the locations
+        mStore = new SqliteForecastStore(mOpenHelper);
+        mChangeLog = new ChangeLog(mOpenHelper);
+        mLocationSearch = new LocationSearch(mOpenHelper);
+        mNearbyLocations = new NearbyLocations(mOpenHelper);
+        mTodayForecast = new TodayForecast(mOpenHelper);
         return true;
     }
 
+    @DatabaseMode
+    private int getDatabaseMode() {
+        if (null != mDatabaseMode) return mDatabaseMode;
+        return getContext().getResources().getBoolean(R.bool.in_memory_database) ?
+                DATABASE_IN_MEMORY : DATABASE_ON_DISK;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +235,18 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.LocationSearchEntry.CONTENT_TYPE;
+            case CITY_CATALOG:
+                return WeatherContract.CityEntry.CONTENT_TYPE;
+            case NEARBY_LOCATIONS:
+                return WeatherContract.NearbyLocationEntry.CONTENT_TYPE;
+            case DIAGNOSTICS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
+            case SNAPSHOT:
+                return WeatherContract.SnapshotEntry.CONTENT_TYPE;
+            case CHANGES:
+                return WeatherContract.ChangeEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,8 +257,10 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -189,8 +274,20 @@ public class WeatherProvider extends ContentProvider {
             }
             // "weather"
             case WEATHER: {
+                retCursor = mStore.queryWeather(
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder,
+                        WeatherContract.WeatherEntry.getPageSizeFromUri(uri),
+                        WeatherContract.WeatherEntry.getPageKeyFromUri(uri)
+                );
+                break;
+            }
+            // "location"
+            case LOCATION: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
@@ -200,10 +297,27 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
-            // "location"
-            case LOCATION: {
+            // "location/search/*"
+            case LOCATION_SEARCH: {
+                retCursor = mLocationSearch.query(projection,
+                        WeatherContract.LocationSearchEntry.getTextFromUri(uri),
+                        sortOrder,
+                        WeatherContract.LocationSearchEntry.getLimitFromUri(uri));
+                break;
+            }
+            // "location/near/*/*"
+            case NEARBY_LOCATIONS: {
+                retCursor = mNearbyLocations.query(projection,
+                        WeatherContract.NearbyLocationEntry.getLatitudeFromUri(uri),
+                        WeatherContract.NearbyLocationEntry.getLongitudeFromUri(uri),
+                        WeatherContract.NearbyLocationEntry.getRadiusFromUri(uri),
+                        WeatherContract.NearbyLocationEntry.getLimitFromUri(uri));
+                break;
+            }
+            // "location/catalog"
+            case CITY_CATALOG: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
+                        WeatherContract.CityEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
@@ -213,11 +327,28 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "changes?epoch=<id>&since=<seq>"
+            case CHANGES: {
+                retCursor = mChangeLog.query(projection,
+                        WeatherContract.ChangeEntry.getEpochFromUri(uri),
+                        WeatherContract.ChangeEntry.getSinceFromUri(uri));
+                break;
+            }
+            // "diagnostics" is served from memory, and not timed itself
+            case DIAGNOSTICS: {
+                return mStats.toCursor();
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // The query only runs when its rows are first counted or read, so the timing waits for
+        // that rather than forcing it here on the caller's thread
+        if (retCursor instanceof CrossProcessCursor) {
+            return new TimedCursor((CrossProcessCursor) retCursor, mStats, match, start);
+        }
+        mStats.record(ProviderStats.OP_QUERY, match, retCursor.getCount(), start);
         return retCursor;
     }
 
@@ -226,14 +357,25 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                final ContentValues[] rows = {enrich(values)};
+                long _id = new LoggedWrite() {
+                    @Override
+                    void log(Cursor keys) {
+                        mChangeLog.recordAll(WeatherContract.ChangeEntry.KIND_INSERT, rows);
+                    }
+
+                    @Override
+                    long write() {
+                        return mStore.insertWeather(rows[0]);
+                    }
+                }.run();
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,7 +383,18 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 ) {
+                        mChangeLog.record(WeatherContract.ChangeEntry.KIND_INSERT, _id, 0);
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,36 +404,167 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
+        mStats.record(ProviderStats.OP_INSERT, match, 1, start);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                final String weatherSelection = selection;
+                final String[] weatherSelectionArgs = selectionArgs;
+                rowsDeleted = (int) new LoggedWrite() {
+                    @Override
+                    Cursor readKeys() {
+                        return queryWeatherKeys(weatherSelection, weatherSelectionArgs);
+                    }
+
+                    @Override
+                    void log(Cursor keys) {
+                        mChangeLog.recordRows(WeatherContract.ChangeEntry.KIND_DELETE, keys);
+                    }
+
+                    @Override
+                    long write() {
+                        return mStore.deleteWeather(weatherSelection, weatherSelectionArgs);
+                    }
+                }.run();
                 break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+            }
+            case LOCATION: {
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                final boolean together = mStore.isInDatabase();
+                long[] ids;
+                db.beginTransaction();
+                try {
+                    Cursor keys = queryLocationKeys(selection, selectionArgs);
+                    ids = readIds(keys);
+                    mChangeLog.recordRows(WeatherContract.ChangeEntry.KIND_DELETE, keys);
+                    // this makes delete all rows return the number of rows deleted
+                    if ( null == selection ) selection = "1";
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    // A later location may be given one of these ids, and mustn't inherit the
+                    // forecast
+                    if (together && rowsDeleted != 0) {
+                        mStore.deleteLocationForecasts(ids);
+                    }
+                    mTodayForecast.refresh(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Left until after the commit for the same reason as in LoggedWrite.  A crash
+                // before this leaves forecasts behind that such a store has to drop itself.
+                if (!together && rowsDeleted != 0) {
+                    mStore.deleteLocationForecasts(ids);
+                }
                 break;
+            }
+            case CITY_CATALOG: {
+                // The catalog is reference data rather than something we fetched, so it stays
+                // out of the change log
+                if ( null == selection ) selection = "1";
+                rowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.CityEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                mStats.record(ProviderStats.OP_DELETE, match, rowsDeleted, start);
+                return rowsDeleted;
+            }
+            case DIAGNOSTICS:
+                // Deleting the diagnostics just starts the counters over
+                mStats.reset();
+                return 0;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
+        mStats.record(ProviderStats.OP_DELETE, match, rowsDeleted, start);
         return rowsDeleted;
     }
 
+    /*
+        A forecast write together with the change log entries that describe it, and the today
+        rows worked out again from the result.  The entries are recorded first.  When the store
+        keeps its rows in weather.db, all of it then commits in one transaction.  A store that keeps them in files of its own can't join the transaction, so
+        the entries are committed before its files are touched: a crash in between leaves an
+        entry for a change that never happened, which only costs a consumer a re-read, rather
+        than a change no consumer hears about.
+     */
+    private abstract class LoggedWrite {
+        // The rows the entries are made from, read before they change; null when log() needs none
+        Cursor readKeys() {
+            return null;
+        }
+
+        abstract void log(Cursor keys);
+
+        abstract long write();
+
+        long run() {
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            final boolean together = mStore.isInDatabase();
+            // A store outside weather.db takes its own lock before it reads the location table,
+            // so it is never called while we hold a transaction
+            Cursor keys = together ? null : readKeys();
+            long result = 0;
+            db.beginTransaction();
+            try {
+                if (together) keys = readKeys();
+                log(keys);
+                if (together) {
+                    result = write();
+                    mTodayForecast.refresh(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (together) return result;
+            result = write();
+            mTodayForecast.refresh(db);
+            return result;
+        }
+    }
+
+    // The change log is written with the table, so anyone watching it hears about it too
+    private void notifyChange(Uri uri) {
+        getContext().getContentResolver().notifyChange(uri, null);
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.ChangeEntry.CONTENT_URI, null);
+    }
+
+    // The (location_id, date) of the weather rows a selection covers, read before they change
+    private Cursor queryWeatherKeys(String selection, String[] selectionArgs) {
+        return mStore.queryWeather(WEATHER_KEY_COLUMNS, selection, selectionArgs, null, 0, null);
+    }
+
+    private Cursor queryLocationKeys(String selection, String[] selectionArgs) {
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.LocationEntry.TABLE_NAME,
+                LOCATION_KEY_COLUMNS, selection, selectionArgs, null, null, null);
+    }
+
+    // Reads the first column of every row, leaving the cursor where it was before the first
+    private static long[] readIds(Cursor cursor) {
+        long[] ids = new long[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids[cursor.getPosition()] = cursor.getLong(0);
+        }
+        cursor.moveToPosition(-1);
+        return ids;
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -289,65 +573,282 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    // Rows from the sync arrive with their derived columns; anything else gets a copy with them
+    // added, leaving the caller's values as they were.
+    private static ContentValues enrich(ContentValues values) {
+        if (WeatherEnrichment.isEnriched(values)) return values;
+        return WeatherEnrichment.enrich(new ContentValues(values));
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // The store works the derived columns out again for each row it changes, from the
+                // row's stored inputs and the new ones
+                final ContentValues weatherValues = values;
+                final String weatherSelection = selection;
+                final String[] weatherSelectionArgs = selectionArgs;
+                rowsUpdated = (int) new LoggedWrite() {
+                    @Override
+                    Cursor readKeys() {
+                        return queryWeatherKeys(weatherSelection, weatherSelectionArgs);
+                    }
+
+                    @Override
+                    void log(Cursor keys) {
+                        mChangeLog.recordRows(WeatherContract.ChangeEntry.KIND_UPDATE, keys);
+                    }
+
+                    @Override
+                    long write() {
+                        return mStore.updateWeather(weatherValues, weatherSelection,
+                                weatherSelectionArgs);
+                    }
+                }.run();
                 break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+            }
+            case LOCATION: {
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    mChangeLog.recordRows(WeatherContract.ChangeEntry.KIND_UPDATE,
+                            queryLocationKeys(selection, selectionArgs));
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    // A new location setting moves the location's today row with it
+                    mTodayForecast.refresh(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
+        mStats.record(ProviderStats.OP_UPDATE, match, rowsUpdated, start);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                final ContentValues[] rows = new ContentValues[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    normalizeDate(values[i]);
+                    rows[i] = enrich(values[i]);
+                }
+                // Rows a store refuses get logged too; a spurious entry only costs the
+                // consumer a re-read
+                int returnCount = (int) new LoggedWrite() {
+                    @Override
+                    void log(Cursor keys) {
+                        mChangeLog.recordAll(WeatherContract.ChangeEntry.KIND_INSERT, rows);
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+
+                    @Override
+                    long write() {
+                        return mStore.bulkInsertWeather(rows);
+                    }
+                }.run();
+                notifyChange(uri);
+                mStats.record(ProviderStats.OP_BULK_INSERT, match, returnCount, start);
+                return returnCount;
+            case LOCATION:
+                int locationCount = bulkInsertLocations(values);
+                if (locationCount > 0) {
+                    notifyChange(uri);
                 }
+                mStats.record(ProviderStats.OP_BULK_INSERT, match, locationCount, start);
+                return locationCount;
+            case CITY_CATALOG:
+                int cityCount = mLocationSearch.bulkInsertCities(values);
                 getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                mStats.record(ProviderStats.OP_BULK_INSERT, match, cityCount, start);
+                return cityCount;
             default:
-                return super.bulkInsert(uri, values);
+                // The default implementation inserts one row at a time through insert(), which
+                // records each of those on its own as well
+                int count = super.bulkInsert(uri, values);
+                mStats.record(ProviderStats.OP_BULK_INSERT, match, count, start);
+                return count;
         }
     }
 
+    /*
+        Inserts locations in one transaction, with one notification at the end.  A location whose
+        setting is already stored is skipped rather than failing the batch, so the same list can
+        be loaded twice.
+     */
+    private int bulkInsertLocations(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                long _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME,
+                        null, value, SQLiteDatabase.CONFLICT_IGNORE);
+                if (_id != -1) {
+                    mChangeLog.record(WeatherContract.ChangeEntry.KIND_INSERT, _id, 0);
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_TODAY.equals(method)) {
+            return getTodaySummary(arg);
+        } else if (WeatherContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance();
+        } else if (WeatherContract.METHOD_IS_IN_MEMORY.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(WeatherContract.IN_MEMORY, mOpenHelper.isInMemory());
+            return result;
+        } else if (WeatherContract.METHOD_EXPORT_SNAPSHOT.equals(method)) {
+            return exportSnapshot();
+        } else if (WeatherContract.METHOD_IMPORT_SNAPSHOT.equals(method)) {
+            // A cache in memory starts out empty every time, and stays off the disk
+            if (mOpenHelper.isInMemory()) return null;
+            Bundle result = ForecastSnapshot.read(mOpenHelper.getWritableDatabase(), mStore,
+                    mChangeLog, mTodayForecast, getSnapshotFile());
+            if (null != result) {
+                notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle runMaintenance() {
+        Bundle result = WeatherDbMaintenance.run(mOpenHelper.getWritableDatabase(),
+                mOpenHelper.isInMemory() ? null :
+                        getContext().getDatabasePath(WeatherDbHelper.DATABASE_NAME));
+        if (!result.getBoolean(WeatherContract.MaintenanceResult.INTEGRITY_OK)) {
+            // The database is only a cache, so a damaged file is thrown away rather than patched
+            // up row by row; deleting rows would leave the damage where it is
+            Log.e(LOG_TAG, "Weather database failed its integrity check, deleting it");
+            resetDatabase();
+            result.putBoolean(WeatherContract.MaintenanceResult.DATABASE_RESET, true);
+        }
+        return result;
+    }
+
+    /*
+        Deletes weather.db; the next getWritableDatabase() creates it again, empty.  The helper's
+        lock keeps other threads from reopening the file between the close and the delete.
+     */
+    private void resetDatabase() {
+        synchronized (mOpenHelper) {
+            mOpenHelper.close();
+            if (!mOpenHelper.isInMemory()) {
+                getContext().deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            }
+        }
+        // The new database hands out location ids from 1 again
+        mStore.deleteLocationForecasts(null);
+        mChangeLog.record(WeatherContract.ChangeEntry.KIND_RESET, 0, 0);
+        notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+    }
+
+    private File getSnapshotFile() {
+        return new File(getContext().getFilesDir(), ForecastSnapshot.FILE_NAME);
+    }
+
+    private Bundle exportSnapshot() {
+        if (mOpenHelper.isInMemory()) return null;
+        try {
+            return ForecastSnapshot.write(mOpenHelper.getReadableDatabase(), mStore,
+                    getSnapshotFile());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't write the snapshot", e);
+            return null;
+        }
+    }
+
+    // The snapshot file, read-only.  AtomicFile replaces it by renaming, so a descriptor handed
+    // out here keeps reading the snapshot it was opened on even if a new one is written.
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != SNAPSHOT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The snapshot is read-only, can't open it with mode " + mode);
+        }
+        if (mOpenHelper.isInMemory()) {
+            throw new FileNotFoundException("No snapshot while the database is kept in memory");
+        }
+        File file = getSnapshotFile();
+        if (!file.exists() && null == exportSnapshot()) {
+            throw new FileNotFoundException("Couldn't write a snapshot");
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    private Bundle getTodaySummary(String locationSetting) {
+        if (null == locationSetting) return null;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        Bundle summary = mTodayForecast.get(locationSetting, today);
+        if (null != summary) return summary;
+
+        // The row was worked out before the day it holds went by, so read the forecast itself.
+        // A one row page starting today is the first day of the forecast.
+        Cursor cursor = mStore.queryWeatherByLocation(locationSetting, today,
+                TODAY_SUMMARY_COLUMNS, null, 1, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            summary = new Bundle();
+            summary.putLong(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+            summary.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+            summary.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(4));
+            return summary;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Operation statistics, e.g.
+    // adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStats.dump(writer, getContext().getPackageManager());
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mStore.close();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Loads the weather service's city list into the city catalog.  The list is read as a stream
+ * and handed to the provider a batch at a time, so memory use stays flat however long the list
+ * is, and never more than one batch is held.
+ *
+ * Both forms the service has published are understood: one JSON object per line, and a single
+ * JSON array of the same objects.  Each object looks like
+ * {"id":2643743,"name":"London","country":"GB","coord":{"lon":-0.12574,"lat":51.50853}}
+ * (older lists call the id "_id"); anything else in it is skipped.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class CityCatalogImporter {
+
+    // The full list, as gzipped JSON
+    public static final String CITY_LIST_URL =
+            "http://bulk.openweathermap.org/sample/city.list.json.gz";
+
+    // Cities per bulkInsert.  Each batch is one transaction in the provider and one Binder
+    // call, and at around a hundred bytes a city it stays far below the Binder's 1MB limit.
+    public static final int BATCH_SIZE = 2000;
+
+    /**
+     * Reads the list to its end and adds every city in it to the catalog, replacing cities
+     * already there.  Does not close the stream.
+     *
+     * @return the number of cities stored
+     */
+    public static int importCatalog(ContentResolver resolver, InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        // Lenient, so that one object after another with no array around them is accepted
+        reader.setLenient(true);
+
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        int batchCount = 0;
+        int total = 0;
+
+        boolean inArray = reader.peek() == JsonToken.BEGIN_ARRAY;
+        if (inArray) reader.beginArray();
+        while (inArray ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+            ContentValues city = readCity(reader);
+            if (null == city) continue;
+            batch[batchCount++] = city;
+            if (batchCount == BATCH_SIZE) {
+                total += resolver.bulkInsert(WeatherContract.CityEntry.CONTENT_URI, batch);
+                batchCount = 0;
+            }
+        }
+        if (batchCount > 0) {
+            total += resolver.bulkInsert(WeatherContract.CityEntry.CONTENT_URI,
+                    Arrays.copyOf(batch, batchCount));
+        }
+        return total;
+    }
+
+    /**
+     * @return the city at the reader, or null if it lacks an id, name or coordinates
+     */
+    static ContentValues readCity(JsonReader reader) throws IOException {
+        long id = -1;
+        String name = null;
+        String country = "";
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if ("id".equals(key) || "_id".equals(key)) {
+                id = reader.nextLong();
+            } else if ("name".equals(key)) {
+                name = reader.nextString();
+            } else if ("country".equals(key)) {
+                country = reader.nextString();
+            } else if ("coord".equals(key)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coord = reader.nextName();
+                    if ("lat".equals(coord)) {
+                        lat = reader.nextDouble();
+                    } else if ("lon".equals(coord)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (id < 0 || null == name || name.length() == 0 || Double.isNaN(lat) || Double.isNaN(lon)) {
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.CityEntry._ID, id);
+        values.put(WeatherContract.CityEntry.COLUMN_CITY_NAME, name);
+        values.put(WeatherContract.CityEntry.COLUMN_COUNTRY, country);
+        values.put(WeatherContract.CityEntry.COLUMN_COORD_LAT, lat);
+        values.put(WeatherContract.CityEntry.COLUMN_COORD_LONG, lon);
+        return values;
+    }
+}
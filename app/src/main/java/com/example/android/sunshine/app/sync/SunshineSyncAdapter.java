@@ -2,7 +2,7 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -12,30 +12,38 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.net.ConnectivityManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
+import android.os.BatteryManager;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.PowerManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.support.v4.net.ConnectivityManagerCompat;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.util.Util;
+import com.example.android.sunshine.app.ArtCache;
 import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.ForecastArtPrefetcher;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WarmStartSnapshot;
+import com.example.android.sunshine.app.data.JulianDays;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherEnrichment;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -49,6 +57,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,8 +67,10 @@ import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -72,19 +83,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // How close a location we already hold has to be for its forecast to stand in for a newly
+    // picked place, in meters.  Locations sit at the weather service's city centres, so this is
+    // roughly "the same town".
+    private static final double NEARBY_RADIUS = 2000;
+    private static final int NEARBY_CANDIDATES = 5;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
+    // How often the city catalog is loaded again from the weather service's list
+    private static final long CATALOG_IMPORT_INTERVAL = 30 * DAY_IN_MILLIS;
+
+    private static final String[] NEARBY_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.NearbyLocationEntry.COLUMN_DISTANCE,
+            WeatherContract.LocationEntry.COLUMN_LAST_FETCHED
+    };
+
+    // The weather columns copied from a nearby forecast, all but the first three being doubles
+    private static final String[] NEARBY_FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -114,12 +140,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         mGoogleApiClient.connect();
 
+        restoreSnapshotIfEmpty();
+
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
+        // Read once, so the whole sync works from the same settings
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        SunshineSettings.Snapshot settings = SunshineSettings.get(context).getSnapshot();
+        String locationQuery = settings.getLocation();
+        String locationLatitude = String.valueOf(settings.getLatitude());
+        String locationLongitude = String.valueOf(settings.getLongitude());
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
@@ -134,12 +164,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         int numDays = 14;
 
         try {
+            // A place picked right next to a location we already hold a fresh forecast for is
+            // served from that forecast, without going to the network.
+            int[] reusedWeatherIds = settings.hasLatLong() ?
+                    reuseNearbyForecast(locationQuery, settings.getLatitude(),
+                            settings.getLongitude()) : null;
+            if (null != reusedWeatherIds) {
+                updateWidgets();
+                updateMuzei();
+                notifyWeather();
+                finishSync(reusedWeatherIds);
+                return;
+            }
+
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
             final String FORECAST_BASE_URL =
                     "http://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
+            final String ID_PARAM = "id";
             final String LAT_PARAM = "lat";
             final String LON_PARAM = "lon";
             final String FORMAT_PARAM = "mode";
@@ -155,9 +199,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
+            // Failing that, a city id saves the service from having to geocode the text, and
+            // can't be resolved to a different city than last time.
+            long cityId;
+            if (settings.hasLatLong()) {
                 uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
                         .appendQueryParameter(LON_PARAM, locationLongitude);
+            } else if ((cityId = lookupCityId(locationQuery)) > 0) {
+                uriBuilder.appendQueryParameter(ID_PARAM, Long.toString(cityId));
             } else {
                 uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
             }
@@ -171,8 +220,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             URL url = new URL(builtUri.toString());
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
+            urlConnection = SunshineHttp.open(url);
             urlConnection.connect();
 
             // Read the input stream into a String
@@ -247,6 +295,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // Location information
         final String OWM_CITY = "city";
         final String OWM_CITY_NAME = "name";
+        final String OWM_CITY_ID = "id";
         final String OWM_COORD = "coord";
 
         // Location coordinate
@@ -296,15 +345,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
             String cityName = cityJson.getString(OWM_CITY_NAME);
+            long cityId = cityJson.optLong(OWM_CITY_ID, 0);
 
             JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude,
+                    cityId);
 
             // Insert the new weather information into the database
             Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            int[] weatherIds = new int[weatherArray.length()];
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -314,14 +366,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = JulianDays.today();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -341,7 +387,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = JulianDays.toMillis(julianStartDay+i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -354,6 +400,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
                 description = weatherObject.getString(OWM_DESCRIPTION);
                 weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+                weatherIds[i] = weatherId;
 
                 // Temperatures are in a child object called "temp".  Try not to name variables
                 // "temp" when working with temperature.  It confuses everybody.
@@ -374,7 +421,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
-                cVVector.add(weatherValues);
+                // Work out the unit conversions, wind sector, feels like and dew point now,
+                // once, so that showing the forecast is only a matter of reading them back
+                cVVector.add(WeatherEnrichment.enrich(weatherValues));
             }
 
             int inserted = 0;
@@ -384,17 +433,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 cVVector.toArray(cvArray);
                 getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
 
+                // What reuseNearbyForecast goes by when another place wants this forecast
+                ContentValues fetchedValues = new ContentValues();
+                fetchedValues.put(WeatherContract.LocationEntry.COLUMN_LAST_FETCHED,
+                        System.currentTimeMillis());
+                getContext().getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI,
+                        fetchedValues, WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+
                 // delete old data so we don't build up an endless history
                 getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                        new String[] {Long.toString(JulianDays.toMillis(julianStartDay-1))});
 
                 updateWidgets();
                 updateMuzei();
                 notifyWeather();
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            finishSync(weatherIds);
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
@@ -403,6 +460,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    // What every sync that stored a forecast does last, whether it was fetched or reused.
+    // weatherIds are the forecast's condition codes, today first, for its art.
+    private void finishSync(int[] weatherIds) {
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        if (maintainDatabase()) {
+            // The database was damaged and has been replaced by an empty one, so fetch
+            // again rather than export an empty snapshot over the last good one
+            syncImmediately(getContext());
+            return;
+        }
+        exportSnapshot();
+        WarmStartSnapshot.update(getContext());
+        importCityCatalogIfDue();
+        // Have the new forecast's art ready for the list.  Last, as it waits on the downloads.
+        ForecastArtPrefetcher.warm(getContext(), weatherIds);
+    }
+
     private void updateWidgets() {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
@@ -424,55 +498,42 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        SunshineSettings settings = SunshineSettings.get(context);
+        boolean displayNotifications = settings.getSnapshot().areNotificationsEnabled();
 
         if ( displayNotifications ) {
 
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
+            long lastSync = settings.getSnapshot().getLastNotification();
 
            // if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                // the provider hands us today's summary directly, no cursor needed
+                Bundle today = Utility.getTodaySummary(context);
+
+                // The summary is the first day stored from today on; the notification and the
+                // watch face only ever showed today itself, so a forecast that no longer has
+                // today (the sync failed since midnight) still shows nothing
+                if (today != null && today.getLong(WeatherContract.WeatherEntry.COLUMN_DATE) ==
+                        WeatherContract.normalizeDate(System.currentTimeMillis())) {
+                    int weatherId = today.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                    double high = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+                    double low = today.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+                    String desc = today.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
                     String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                    int largeIconWidth = ArtCache.getLargeIconWidth(resources);
+                    int largeIconHeight = ArtCache.getLargeIconHeight(resources);
 
                     // Retrieve the large icon
                     Bitmap largeIcon;
                     try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
+                        largeIcon = ArtCache.forBitmap(Glide.with(context), artUrl,
+                                largeIconWidth, largeIconHeight)
                                 .error(artResourceId)
-                                .fitCenter()
                                 .into(largeIconWidth, largeIconHeight).get();
                     } catch (InterruptedException | ExecutionException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
@@ -523,18 +584,206 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
 
                         //refreshing last sync
-                        SharedPreferences.Editor editor = prefs.edit();
-                        editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                        editor.commit();
+                        settings.setLastNotification(System.currentTimeMillis());
                     }
                         //update the watch-face
                         updateWatchFace(lowTemp, highTemp, iconId);
                 }
-                cursor.close();
            // }
         }
     }
 
+    /**
+     * Piggybacks database maintenance on the sync: at most once a day, and only while the device
+     * is charging and nobody is using it, since a first-time VACUUM rewrites the whole file.
+     *
+     * @return true if the database failed its integrity check and the provider deleted it
+     */
+    private boolean maintainDatabase() {
+        // ContentResolver.call() needs Honeycomb
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return false;
+
+        Context context = getContext();
+        SunshineSettings settings = SunshineSettings.get(context);
+        if (System.currentTimeMillis() - settings.getSnapshot().getLastMaintenance() < DAY_IN_MILLIS) {
+            return false;
+        }
+        if (!isDeviceIdleAndCharging(context)) {
+            return false;
+        }
+
+        Bundle result = callMaintenance(context);
+        settings.setLastMaintenance(System.currentTimeMillis());
+        return result != null &&
+                result.getBoolean(WeatherContract.MaintenanceResult.DATABASE_RESET);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callMaintenance(Context context) {
+        return context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_RUN_MAINTENANCE, null, null);
+    }
+
+    /**
+     * After a reinstall, a data wipe or a schema upgrade the cache starts out empty.  Refill it
+     * from the last snapshot, so the UI has a forecast to show before the network answers.
+     */
+    private void restoreSnapshotIfEmpty() {
+        // ContentResolver.call() needs Honeycomb
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                null, null, null);
+        if (null == cursor) return;
+        boolean empty = cursor.getCount() == 0;
+        cursor.close();
+        if (empty) {
+            callSnapshot(context, WeatherContract.METHOD_IMPORT_SNAPSHOT);
+        }
+    }
+
+    // Keeps the snapshot in step with what was just fetched
+    private void exportSnapshot() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+        callSnapshot(getContext(), WeatherContract.METHOD_EXPORT_SNAPSHOT);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callSnapshot(Context context, String method) {
+        return context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                method, null, null);
+    }
+
+    /**
+     * Loads the city catalog from the weather service's city list, about once a month.  The
+     * list is tens of megabytes once unpacked, so this only runs on an unmetered network while
+     * the device is charging and nobody is using it, and streams the download straight into
+     * the provider.  An empty catalog is due whenever it was last loaded, since a schema upgrade
+     * or a database reset throws it away along with everything else.
+     */
+    private void importCityCatalogIfDue() {
+        // JsonReader needs Honeycomb
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        Context context = getContext();
+        SunshineSettings settings = SunshineSettings.get(context);
+        if (System.currentTimeMillis() - settings.getSnapshot().getLastCatalogImport() <
+                CATALOG_IMPORT_INTERVAL && !isCityCatalogEmpty()) {
+            return;
+        }
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (ConnectivityManagerCompat.isActiveNetworkMetered(cm) ||
+                !isDeviceIdleAndCharging(context)) {
+            return;
+        }
+
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        try {
+            long start = System.currentTimeMillis();
+            urlConnection = SunshineHttp.open(new URL(CityCatalogImporter.CITY_LIST_URL));
+            in = new GZIPInputStream(new BufferedInputStream(urlConnection.getInputStream()));
+            int count = CityCatalogImporter.importCatalog(context.getContentResolver(), in);
+            Log.d(LOG_TAG, "City catalog imported: " + count + " cities in " +
+                    (System.currentTimeMillis() - start) + "ms");
+            settings.setLastCatalogImport(System.currentTimeMillis());
+        } catch (IOException | IllegalStateException e) {
+            // JsonReader reports malformed JSON as IllegalStateException as well as IOException.
+            // Whatever was loaded stays, and the next sync tries again.
+            Log.e(LOG_TAG, "Couldn't import the city catalog", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private boolean isCityCatalogEmpty() {
+        // The first city by its primary key, rather than a count of a table this big
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.CityEntry.CONTENT_URI,
+                new String[]{WeatherContract.CityEntry._ID},
+                WeatherContract.CityEntry._ID + " = (SELECT MIN(" + WeatherContract.CityEntry._ID +
+                        ") FROM " + WeatherContract.CityEntry.TABLE_NAME + ")",
+                null,
+                null);
+        if (null == cursor) return false;
+        try {
+            return cursor.getCount() == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The weather service's id for a location setting: the one stored with its location by an
+     * earlier fetch or, failing that, the catalog city it names, if it is in the
+     * "<city>,<country>" form the location search fills in and names exactly one city.
+     *
+     * @return the city id, or 0 if it isn't known
+     */
+    private long lookupCityId(String locationSetting) {
+        ContentResolver resolver = getContext().getContentResolver();
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (null != cursor) {
+            try {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) return cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        int comma = locationSetting.lastIndexOf(',');
+        if (comma <= 0) return 0;
+        String name = locationSetting.substring(0, comma).trim();
+        // Country codes are upper case in the list, but people type them any way they like
+        String country = locationSetting.substring(comma + 1).trim().toUpperCase(Locale.US);
+        cursor = resolver.query(WeatherContract.CityEntry.CONTENT_URI,
+                new String[]{WeatherContract.CityEntry._ID},
+                WeatherContract.CityEntry.COLUMN_CITY_NAME + " = ? AND " +
+                        WeatherContract.CityEntry.COLUMN_COUNTRY + " = ?",
+                new String[]{name, country},
+                null);
+        if (null == cursor) return 0;
+        try {
+            // A name shared by several cities in a country is left to the service to pick from
+            return cursor.getCount() == 1 && cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isDeviceIdleAndCharging(Context context) {
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the last status without registering
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) return false;
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
+                status == BatteryManager.BATTERY_STATUS_FULL;
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        boolean interactive = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH
+                ? pm.isInteractive() : pm.isScreenOn();
+        return charging && !interactive;
+    }
+
     private void updateWatchFace(String lowTemp, String highTemp, int iconId) {
         Log.d("WATCH", "App: update watch-face");
         //search for the weather icon
@@ -562,6 +811,80 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     }
 
+    /**
+     * Copies the forecast of the nearest location we hold within NEARBY_RADIUS of a place to the
+     * place's own location setting, if that forecast was fetched today (by its last_fetched,
+     * which the sync stamps when it stores a fetch).  Only does anything while the place has no
+     * forecast of its own yet, so once it has one, syncs fetch it as usual.
+     *
+     * The place's location row is its own: it is named by the location setting (the address the
+     * user picked) and placed at the picked lat/lon, not at the location the forecast came from.
+     *
+     * @return the condition codes of the copied days, today first, or null if nothing was copied
+     * and the forecast has to be fetched
+     */
+    private int[] reuseNearbyForecast(String locationSetting, double lat, double lon) {
+        ContentResolver resolver = getContext().getContentResolver();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        Cursor own = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, today),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (null == own) return null;
+        boolean hasOwn = own.getCount() > 0;
+        own.close();
+        if (hasOwn) return null;
+
+        Cursor nearby = resolver.query(
+                WeatherContract.NearbyLocationEntry.buildNearbyUri(lat, lon, NEARBY_RADIUS,
+                        NEARBY_CANDIDATES),
+                NEARBY_COLUMNS, null, null, null);
+        if (null == nearby) return null;
+        try {
+            while (nearby.moveToNext()) {
+                String nearbySetting = nearby.getString(0);
+                if (nearbySetting.equals(locationSetting)) continue;
+                // Only a forecast fetched today; a copy has no fetch time, so isn't passed on
+                if (nearby.isNull(2) || nearby.getLong(2) < today) continue;
+
+                Cursor forecast = resolver.query(
+                        WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                                nearbySetting, today),
+                        NEARBY_FORECAST_COLUMNS, null, null,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                if (null == forecast) continue;
+                try {
+                    if (forecast.getCount() == 0) continue;
+
+                    long locationId = addLocation(locationSetting, locationSetting, lat, lon);
+                    ContentValues[] cvArray = new ContentValues[forecast.getCount()];
+                    int[] weatherIds = new int[cvArray.length];
+                    for (int i = 0; forecast.moveToNext(); i++) {
+                        ContentValues weatherValues = new ContentValues();
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                        weatherValues.put(NEARBY_FORECAST_COLUMNS[0], forecast.getLong(0));
+                        weatherValues.put(NEARBY_FORECAST_COLUMNS[1], forecast.getString(1));
+                        weatherValues.put(NEARBY_FORECAST_COLUMNS[2], forecast.getInt(2));
+                        for (int c = 3; c < NEARBY_FORECAST_COLUMNS.length; c++) {
+                            weatherValues.put(NEARBY_FORECAST_COLUMNS[c], forecast.getDouble(c));
+                        }
+                        cvArray[i] = weatherValues;
+                        weatherIds[i] = forecast.getInt(2);
+                    }
+                    resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+                    Log.d(LOG_TAG, "Reused the forecast of " + nearbySetting + ", " +
+                            Math.round(nearby.getDouble(1)) + "m away");
+                    return weatherIds;
+                } finally {
+                    forecast.close();
+                }
+            }
+        } finally {
+            nearby.close();
+        }
+        return null;
+    }
+
     /**
      * Helper method to handle insertion of a new location in the weather database.
      *
@@ -572,7 +895,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        return addLocation(locationSetting, cityName, lat, lon, 0);
+    }
+
+    /**
+     * As above, also recording the weather service's city id if it is known (greater than 0).
+     * A new spelling of a city we already hold under another location setting takes over that
+     * location's row, forecast and all, instead of adding a second copy of the same city.
+     */
+    long addLocation(String locationSetting, String cityName, double lat, double lon,
+                     long cityId) {
         long locationId;
+        ContentResolver resolver = getContext().getContentResolver();
 
         // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
@@ -585,6 +919,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
+            if (cityId > 0) {
+                ContentValues cityIdValues = new ContentValues();
+                cityIdValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                resolver.update(WeatherContract.LocationEntry.CONTENT_URI, cityIdValues,
+                        WeatherContract.LocationEntry._ID + " = ? AND (" +
+                                WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NULL OR " +
+                                WeatherContract.LocationEntry.COLUMN_CITY_ID + " != ?)",
+                        new String[]{Long.toString(locationId), Long.toString(cityId)});
+            }
+        } else if (cityId > 0 && (locationId = findLocationByCityId(cityId)) > 0) {
+            ContentValues renameValues = new ContentValues();
+            renameValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            resolver.update(WeatherContract.LocationEntry.CONTENT_URI, renameValues,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -596,6 +945,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId > 0) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
             // Finally, insert location data into the database.
             Uri insertedUri = getContext().getContentResolver().insert(
@@ -612,6 +964,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         return locationId;
     }
 
+    // The location row holding a city id, or -1 if there is none
+    private long findLocationByCityId(long cityId) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " = ?",
+                new String[]{Long.toString(cityId)},
+                null);
+        if (null == cursor) return -1;
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -646,12 +1014,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
-     * onAccountCreated method so we can initialize things.
+     * onAccountCreated method so we can initialize things.  Synchronized, as MainActivity calls
+     * it from a thread of its own and two callers racing to add the account would leave one of
+     * them with none.
      *
      * @param context The context used to access the account service
      * @return a fake account.
      */
-    public static Account getSyncAccount(Context context) {
+    public static synchronized Account getSyncAccount(Context context) {
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -704,15 +1074,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
+     * Sets the location status in the settings.  It shows straight away and reaches the shared
+     * preferences with the sync's other writes, without blocking.
+     * @param c Context to get the SunshineSettings from.
      * @param locationStatus The IntDef value to set
      */
     static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+        SunshineSettings.get(c).setLocationStatus(locationStatus);
     }
 }
\ No newline at end of file
@@ -37,7 +37,6 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
@@ -119,7 +118,12 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
         boolean mAmbient;
-        Time mTime;
+        TimeZone mTimeZone;
+        // What was last drawn, made again only when the minute or the day changes
+        int mDrawnMinute = -1;
+        String mTimeText;
+        long mDrawnDay = Long.MIN_VALUE;
+        String mDateText;
 
         //All the Paints
         Paint mBackgroundPaint;
@@ -163,8 +167,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mTime.clear(intent.getStringExtra("time-zone"));
-                mTime.setToNow();
+                String timeZone = intent.getStringExtra("time-zone");
+                resetTimeZone(null == timeZone ?
+                        TimeZone.getDefault() : TimeZone.getTimeZone(timeZone));
             }
         };
 
@@ -218,7 +223,13 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mDateTextSize = resources.getDimension(R.dimen.date_text_size);
             mHighTempTextSize = resources.getDimension(R.dimen.high_temp_size);
             mLowTempTextSize = resources.getDimension(R.dimen.low_temp_text_size);
-            mTime = new Time();
+            mTimeZone = TimeZone.getDefault();
+        }
+
+        private void resetTimeZone(TimeZone timeZone) {
+            mTimeZone = timeZone;
+            mDrawnMinute = -1;
+            mDrawnDay = Long.MIN_VALUE;
         }
 
         @Override
@@ -250,8 +261,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mGoogleApiClient.connect();
 
                 // Update time zone in case it changed while we weren't visible.
-                mTime.clear(TimeZone.getDefault().getID());
-                mTime.setToNow();
+                resetTimeZone(TimeZone.getDefault());
             } else {
                 unregisterReceiver();
                 //disconnect google client api
@@ -338,18 +348,25 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             }
 
             // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            mTime.setToNow();
-
-            String text = String.format("%d:%02d", mTime.hour, mTime.minute);
+            long now = Util.toLocalMillis(System.currentTimeMillis(), mTimeZone);
+            int minute = Util.toMinuteOfDay(now);
+            if (minute != mDrawnMinute) {
+                mDrawnMinute = minute;
+                mTimeText = String.format("%d:%02d", minute / 60, minute % 60);
+            }
             //canvas the time
             mWhitePaint.setTextSize(mTimeTextSize);
-            canvas.drawText(text, mTimeXOffset, mTimeYOffset, mWhitePaint);
+            canvas.drawText(mTimeText, mTimeXOffset, mTimeYOffset, mWhitePaint);
             //
             if (!mAmbient) {
                 // Draw date
-                String date = Util.convertDate(mTime.weekDay, mTime.monthDay, mTime.month, mTime.year);
+                long day = Util.toEpochDay(now);
+                if (day != mDrawnDay) {
+                    mDrawnDay = day;
+                    mDateText = Util.convertDate(day);
+                }
                 mGreyPaint.setTextSize(mDateTextSize);
-                canvas.drawText(date, mDateXOffset, mDateYOffset, mGreyPaint);
+                canvas.drawText(mDateText, mDateXOffset, mDateYOffset, mGreyPaint);
 
                 // Draw weather information if available
                 if (mHighTemp != null && mLowTemp != null) {
@@ -13,6 +13,7 @@ import com.google.android.gms.wearable.Wearable;
 
 import java.io.InputStream;
 import java.text.DateFormatSymbols;
+import java.util.TimeZone;
 
 /**
  * Created by cudaf on 03/06/2016.
@@ -20,6 +21,42 @@ import java.text.DateFormatSymbols;
 
 public class Util {
 
+    public static final long MINUTE_IN_MILLIS = 1000 * 60;
+    public static final long DAY_IN_MILLIS = MINUTE_IN_MILLIS * 60 * 24;
+
+    // Local time as millis since 1970, for working out the day and minute without a Time
+    public static long toLocalMillis(long millis, TimeZone timeZone) {
+        return millis + timeZone.getOffset(millis);
+    }
+
+    // Days since 1 January 1970 of a local time
+    public static long toEpochDay(long localMillis) {
+        long day = localMillis / DAY_IN_MILLIS;
+        return localMillis % DAY_IN_MILLIS < 0 ? day - 1 : day;
+    }
+
+    // Minutes since midnight of a local time
+    public static int toMinuteOfDay(long localMillis) {
+        return (int) ((localMillis - toEpochDay(localMillis) * DAY_IN_MILLIS) / MINUTE_IN_MILLIS);
+    }
+
+    // The date of a day since 1970, worked out as in the phone's JulianDays: count 400 year
+    // eras from 1 March, which keeps the leap day at the end of the year
+    public static String convertDate(long epochDay) {
+        long days = epochDay + 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+        int month = (int) (marchMonth < 10 ? marchMonth + 2 : marchMonth - 10);
+        int year = (int) (yearOfEra + era * 400 + (month <= 1 ? 1 : 0));
+        // 1 January 1970 was a Thursday
+        int weekDay = (int) (((epochDay + 4) % 7 + 7) % 7);
+        return convertDate(weekDay, day, month, year);
+    }
+
     public static String convertDate(int weekDay, int day, int month, int year){
         String weekday = new DateFormatSymbols().getShortWeekdays()[weekDay];
         String monthName = new DateFormatSymbols().getShortMonths()[month];